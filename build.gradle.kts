@@ -135,6 +135,19 @@ tasks {
     publishPlugin {
         dependsOn(patchChangelog)
     }
+
+    // Wall-clock benchmarks are too noisy for every build, they only run with ./gradlew benchmark
+    test {
+        exclude("**/*Benchmark.class")
+    }
+
+    register<Test>("benchmark") {
+        description = "Runs the wall-clock benchmarks, the *Benchmark test classes."
+        group = "verification"
+        testClassesDirs = test.get().testClassesDirs
+        classpath = test.get().classpath
+        include("**/*Benchmark.class")
+    }
 }
 
 intellijPlatformTesting {
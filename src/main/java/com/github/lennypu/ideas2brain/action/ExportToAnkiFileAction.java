@@ -0,0 +1,100 @@
+package com.github.lennypu.ideas2brain.action;
+
+import com.github.lennypu.ideas2brain.services.AnkiExportService;
+import com.github.lennypu.ideas2brain.services.SyncScheduler;
+import com.github.lennypu.ideas2brain.utils.SourceFileIterator;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Action for exporting notes to a tab-separated file that Anki imports directly.
+ * Meant for the first sync of a large project, which would otherwise need one AnkiConnect call per note.
+ * Exports the selected files and directories, or the whole project when nothing is selected.
+ */
+public class ExportToAnkiFileAction extends AnAction {
+    private static final Logger LOG = Logger.getInstance(ExportToAnkiFileAction.class);
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        VirtualFile[] selectedFiles = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+        Collection<VirtualFile> roots = selectedFiles != null && selectedFiles.length > 0
+                ? Arrays.asList(selectedFiles)
+                : Arrays.asList(ProjectRootManager.getInstance(project).getContentRoots());
+
+        FileSaverDescriptor descriptor = new FileSaverDescriptor(
+                "Export to Anki File", "Choose where to write the Anki import file", "txt");
+        VirtualFileWrapper wrapper = FileChooserFactory.getInstance()
+                .createSaveFileDialog(descriptor, project)
+                .save((VirtualFile) null, project.getName() + "-anki.txt");
+        if (wrapper == null) {
+            return;
+        }
+
+        exportInBackground(project, roots, wrapper.getFile().toPath());
+    }
+
+    private static void exportInBackground(Project project, Collection<VirtualFile> roots, Path target) {
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Exporting to Anki file", true) {
+            private AnkiExportService.ExportResult result;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                try (SyncScheduler.Activity ignored = SyncScheduler.getInstance().beginInteractive()) {
+                    result = AnkiExportService.getInstance(project).export(new SourceFileIterator(project, roots), target, indicator);
+                } catch (IOException e) {
+                    LOG.warn("Failed to write Anki export: " + target, e);
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                if (result == null) {
+                    Messages.showErrorDialog(project, "Failed to write " + target, "Export to Anki File");
+                    return;
+                }
+                String message = String.format(
+                        "Export completed.\nExported notes: %d\nErrors: %d\n\n" +
+                                "Import %s in Anki (File > Import), then run Tools > Link Imported Anki Notes.",
+                        result.exported,
+                        result.failed,
+                        target.getFileName()
+                );
+                Messages.showInfoMessage(project, message, "Export to Anki File");
+            }
+        });
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.lennypu.ideas2brain.action;
+
+import com.github.lennypu.ideas2brain.services.AnkiExportService;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Action for linking notes imported from an export file to the files they were rendered from
+ */
+public class LinkImportedNotesAction extends AnAction {
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Linking imported Anki notes", true) {
+            private Integer linked;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                linked = AnkiExportService.getInstance(project).linkImportedNotes(indicator);
+            }
+
+            @Override
+            public void onSuccess() {
+                if (linked == null) {
+                    Messages.showErrorDialog(
+                            project,
+                            "AnkiConnect is not available. Please make sure Anki is running with AnkiConnect plugin installed.",
+                            "AnkiConnect Error"
+                    );
+                    return;
+                }
+                Messages.showInfoMessage(project, "Linked imported notes: " + linked, "Link Imported Anki Notes");
+            }
+        });
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.lennypu.ideas2brain.action;
+
+import com.github.lennypu.ideas2brain.services.DatabaseFileStatusService;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Action for resyncing files whose notes were edited in Anki, replacing those edits with the source
+ */
+public class OverwriteAnkiEditsAction extends AnAction {
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        List<String> conflictPaths = fileStatusService.getConflictPaths();
+        if (conflictPaths.isEmpty()) {
+            Messages.showInfoMessage(project, "No notes were edited in Anki since their last sync.", "Overwrite Anki Edits");
+            return;
+        }
+
+        int answer = Messages.showYesNoDialog(
+                project,
+                conflictPaths.size() + " notes were edited in Anki since their last sync. "
+                        + "Replace those edits with the current JavaDoc?",
+                "Overwrite Anki Edits",
+                Messages.getWarningIcon()
+        );
+        if (answer != Messages.YES) {
+            return;
+        }
+
+        fileStatusService.clearConflicts(conflictPaths);
+        List<VirtualFile> files = new ArrayList<>(conflictPaths.size());
+        for (String path : conflictPaths) {
+            VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        SyncToAnkiAction.syncInBackground(project, files, false);
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
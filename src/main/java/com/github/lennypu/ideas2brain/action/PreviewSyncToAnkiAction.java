@@ -0,0 +1,116 @@
+package com.github.lennypu.ideas2brain.action;
+
+import com.github.lennypu.ideas2brain.services.AnkiConnectService;
+import com.github.lennypu.ideas2brain.services.SyncPlanner;
+import com.github.lennypu.ideas2brain.services.SyncScheduler;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * Action for previewing what a sync of the selection would change in Anki, and applying it on confirmation
+ */
+public class PreviewSyncToAnkiAction extends AnAction {
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        Collection<VirtualFile> roots = SyncToAnkiAction.getSelectedRoots(e);
+        if (roots.isEmpty()) {
+            return;
+        }
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Planning sync to Anki", true) {
+            private SyncPlanner.SyncPlan plan;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+                if (!ankiConnectService.isAnkiConnectAvailable()) {
+                    return;
+                }
+                try (SyncScheduler.Activity ignored = SyncScheduler.getInstance().beginInteractive()) {
+                    plan = SyncPlanner.getInstance(project).plan(roots, indicator);
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                if (plan == null) {
+                    Messages.showErrorDialog(
+                            project,
+                            "AnkiConnect is not available. Please make sure Anki is running with AnkiConnect plugin installed.",
+                            "AnkiConnect Error"
+                    );
+                    return;
+                }
+                if (plan.isEmpty()) {
+                    Messages.showInfoMessage(project, "Anki is up to date.\n\n" + plan.describe(), "Preview Sync to Anki");
+                    return;
+                }
+
+                int answer = Messages.showOkCancelDialog(
+                        project,
+                        plan.describe(),
+                        "Preview Sync to Anki",
+                        "Sync",
+                        Messages.getCancelButton(),
+                        Messages.getQuestionIcon()
+                );
+                if (answer == Messages.OK) {
+                    executeInBackground(project, plan);
+                }
+            }
+        });
+    }
+
+    private static void executeInBackground(Project project, SyncPlanner.SyncPlan plan) {
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Syncing to Anki", true) {
+            private SyncPlanner.ExecutionResult result;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                try (SyncScheduler.Activity ignored = SyncScheduler.getInstance().beginInteractive()) {
+                    result = SyncPlanner.getInstance(project).execute(plan, indicator);
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                String message = String.format(
+                        "Sync completed.\nAdded: %d\nUpdated: %d\nMoved: %d\nRetagged: %d\nDeleted: %d\nErrors: %d",
+                        result.added,
+                        result.updated,
+                        result.moved,
+                        result.retagged,
+                        result.deleted,
+                        result.failed
+                );
+                Messages.showInfoMessage(project, message, "Sync to Anki");
+            }
+        });
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null && !SyncToAnkiAction.getSelectedRoots(e).isEmpty());
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.lennypu.ideas2brain.action;
+
+import com.github.lennypu.ideas2brain.services.AnkiReconciliationService;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Action for reconciling the file status database with the notes in Anki
+ */
+public class ReconcileWithAnkiAction extends AnAction {
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Reconciling with Anki", true) {
+            private AnkiReconciliationService.ReconcileResult result;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                result = AnkiReconciliationService.getInstance(project).reconcile(indicator);
+            }
+
+            @Override
+            public void onSuccess() {
+                if (result == null) {
+                    Messages.showErrorDialog(
+                            project,
+                            "Reconciliation failed. Please make sure Anki is running with AnkiConnect plugin installed.",
+                            "AnkiConnect Error"
+                    );
+                    return;
+                }
+
+                String message = String.format(
+                        "Reconciliation completed.\nTracked notes: %d\nNotes in Anki: %d\nMissing notes reset: %d\nNotes relinked: %d\nNotes re-tagged: %d\nEdited in Anki: %d",
+                        result.trackedNotes,
+                        result.ankiNotes,
+                        result.unlinked,
+                        result.relinked,
+                        result.retagged,
+                        result.conflicts
+                );
+                if (result.orphanNoteIds.isEmpty()) {
+                    Messages.showInfoMessage(project, message, "Reconcile with Anki");
+                    return;
+                }
+
+                int answer = Messages.showYesNoDialog(
+                        project,
+                        message + "\n\n" + result.orphanNoteIds.size()
+                                + " notes created by this project no longer belong to any of its files. Delete them from Anki?",
+                        "Reconcile with Anki",
+                        Messages.getQuestionIcon()
+                );
+                if (answer == Messages.YES) {
+                    deleteOrphans(project, result.orphanNoteIds);
+                }
+            }
+        });
+    }
+
+    private static void deleteOrphans(Project project, List<Long> noteIds) {
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Deleting orphan Anki notes", false) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                AnkiReconciliationService.getInstance(project).deleteOrphans(noteIds);
+            }
+        });
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.lennypu.ideas2brain.action;
+
+import com.github.lennypu.ideas2brain.services.AnkiConnectService;
+import com.github.lennypu.ideas2brain.services.GitSyncService;
+import com.github.lennypu.ideas2brain.services.SyncScheduler;
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Action for syncing only the files that git reports as changed since the last complete project sync
+ */
+public class SyncGitChangesToAnkiAction extends AnAction {
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) {
+            return;
+        }
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Syncing git changes to Anki", true) {
+            private boolean available;
+            private GitSyncService.GitSyncResult result;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+                available = ankiConnectService.isAnkiConnectAvailable();
+                if (available) {
+                    try (SyncScheduler.Activity ignored = SyncScheduler.getInstance().beginInteractive()) {
+                        result = GitSyncService.getInstance(project).syncChanges(indicator);
+                    }
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                if (!available) {
+                    Messages.showErrorDialog(
+                            project,
+                            "AnkiConnect is not available. Please make sure Anki is running with AnkiConnect plugin installed.",
+                            "AnkiConnect Error"
+                    );
+                    return;
+                }
+                if (result == null) {
+                    Messages.showWarningDialog(
+                            project,
+                            "No synced git revision is known for this project, or git failed.\n" +
+                                    "Run Tools > Sync Project to Anki once to record one.",
+                            "Sync Git Changes to Anki"
+                    );
+                    return;
+                }
+
+                String message = String.format(
+                        "Sync completed since %s.\nSuccessfully synced: %d\nMoved: %d\nDeleted: %d\nErrors: %d",
+                        result.fromRevision.substring(0, Math.min(8, result.fromRevision.length())),
+                        result.sync.synced,
+                        result.renamed,
+                        result.deleted,
+                        result.sync.failed
+                );
+                Messages.showInfoMessage(project, message, "Sync Git Changes to Anki");
+            }
+        });
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
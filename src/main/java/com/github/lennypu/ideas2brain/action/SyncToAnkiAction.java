@@ -1,27 +1,34 @@
 package com.github.lennypu.ideas2brain.action;
 
 import com.github.lennypu.ideas2brain.services.AnkiConnectService;
+import com.github.lennypu.ideas2brain.services.AnkiSyncService;
 import com.github.lennypu.ideas2brain.services.DatabaseFileStatusService;
-import com.github.lennypu.ideas2brain.utils.JavaDoc2MarkDownUtil;
+import com.github.lennypu.ideas2brain.services.GitSyncService;
+import com.github.lennypu.ideas2brain.services.SyncScheduler;
+import com.github.lennypu.ideas2brain.utils.SourceFileIterator;
 import com.intellij.openapi.actionSystem.ActionUpdateThread;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.actionSystem.LangDataKeys;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 /**
- * Action for syncing JavaDoc to Anki
+ * Action for syncing JavaDoc to Anki.
+ * Works on files, directories and modules; directories are enumerated lazily in the background.
  */
 public class SyncToAnkiAction extends AnAction {
     @Override
@@ -31,77 +38,12 @@ public class SyncToAnkiAction extends AnAction {
             return;
         }
 
-        VirtualFile[] selectedFiles = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
-        if (selectedFiles == null || selectedFiles.length == 0) {
+        Collection<VirtualFile> roots = getSelectedRoots(e);
+        if (roots.isEmpty()) {
             return;
         }
 
-        // Get the AnkiConnectService as an application-level service
-        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
-        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
-
-        // Check if AnkiConnect is available
-        if (!ankiConnectService.isAnkiConnectAvailable()) {
-            Messages.showErrorDialog(
-                    project,
-                    "AnkiConnect is not available. Please make sure Anki is running with AnkiConnect plugin installed.",
-                    "AnkiConnect Error"
-            );
-            return;
-        }
-
-        int successCount = 0;
-        int errorCount = 0;
-
-        for (VirtualFile file : selectedFiles) {
-            if (!fileStatusService.isJavaOrKotlinFile(file)) {
-                continue;
-            }
-
-            try {
-                // Convert JavaDoc to Markdown
-                String markdown = JavaDoc2MarkDownUtil.JavaFileStream2MarkDownString(file.getInputStream());
-                if (markdown == null || markdown.isEmpty()) {
-                    fileStatusService.setFileStatus(file, DatabaseFileStatusService.FileStatus.ERROR);
-                    errorCount++;
-                    continue;
-                }
-
-                // Get class name for card front
-                String className = file.getNameWithoutExtension();
-
-                // Determine deck name based on directory structure
-                String deckName = getDeckNameFromFilePath(project, file);
-
-                // Create tags from package structure
-                List<String> tags = getTagsFromFilePath(project, file);
-
-                // Add note to Anki
-                String noteId = ankiConnectService.addNote(deckName, className, markdown, tags, file.getPath());
-
-                if (noteId != null) {
-                    fileStatusService.markAsSynced(file, noteId);
-                    successCount++;
-                } else {
-                    fileStatusService.setFileStatus(file, DatabaseFileStatusService.FileStatus.ERROR);
-                    errorCount++;
-                }
-            } catch (IOException ex) {
-                fileStatusService.setFileStatus(file, DatabaseFileStatusService.FileStatus.ERROR);
-                errorCount++;
-            }
-        }
-
-        // Show summary message
-        if (successCount > 0 || errorCount > 0) {
-            String message = String.format(
-                    "Sync completed.\nSuccessfully synced: %d\nErrors: %d",
-                    successCount,
-                    errorCount
-            );
-
-            Messages.showInfoMessage(project, message, "Sync to Anki");
-        }
+        syncInBackground(project, roots, false);
     }
 
     @Override
@@ -110,68 +52,105 @@ public class SyncToAnkiAction extends AnAction {
         VirtualFile[] selectedFiles = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
 
         boolean enabled = project != null && selectedFiles != null && selectedFiles.length > 0;
+        String text = e.getPresentation().getTemplatePresentation().getText();
 
         if (enabled) {
             DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+            // Directories may hold files that were never synced, so they always qualify
             enabled = Arrays.stream(selectedFiles)
-                    .anyMatch(file -> fileStatusService.isJavaOrKotlinFile(file) &&
-                            fileStatusService.getFileStatus(file) != DatabaseFileStatusService.FileStatus.SYNCED);
+                    .anyMatch(file -> file.isDirectory() ||
+                            (fileStatusService.isJavaOrKotlinFile(file) && needsSync(fileStatusService.getFileStatus(file))));
+
+            if (selectedFiles.length == 1 && selectedFiles[0].isDirectory()) {
+                // Constant time, the counts are maintained as statuses change
+                int pending = fileStatusService.getDirectoryCounts(selectedFiles[0]).getPending();
+                if (pending > 0) {
+                    text += " (" + pending + " pending)";
+                }
+            }
+        } else if (project != null) {
+            enabled = e.getData(LangDataKeys.MODULE_CONTEXT) != null;
         }
 
+        e.getPresentation().setText(text);
         e.getPresentation().setEnabledAndVisible(enabled);
     }
 
+    private static boolean needsSync(DatabaseFileStatusService.FileStatus status) {
+        return status != DatabaseFileStatusService.FileStatus.SYNCED && status != DatabaseFileStatusService.FileStatus.CONFLICT;
+    }
+
     @Override
     public @NotNull ActionUpdateThread getActionUpdateThread() {
         return ActionUpdateThread.BGT;
     }
 
     /**
-     * Gets the deck name from the file path
+     * Syncs every Java and Kotlin file under the given roots in a cancellable background task
      *
      * @param project The project
-     * @param file The file
-     * @return The deck name
+     * @param roots Files and directories to sync
+     * @param wholeProject Whether the roots cover the project, in which case a clean run records the git revision
      */
-    private String getDeckNameFromFilePath(Project project, VirtualFile file) {
-        Path projectPath = Paths.get(project.getBasePath());
-        Path filePath = Paths.get(file.getPath());
-
-        // Get relative path from project root
-        Path relativePath = projectPath.relativize(filePath.getParent());
+    public static void syncInBackground(@NotNull Project project, @NotNull Collection<VirtualFile> roots, boolean wholeProject) {
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Syncing to Anki", true) {
+            private AnkiSyncService.SyncResult result;
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                // Get the AnkiConnectService as an application-level service
+                AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+
+                // Check if AnkiConnect is available
+                if (!ankiConnectService.isAnkiConnectAvailable()) {
+                    ApplicationManager.getApplication().invokeLater(() -> Messages.showErrorDialog(
+                            project,
+                            "AnkiConnect is not available. Please make sure Anki is running with AnkiConnect plugin installed.",
+                            "AnkiConnect Error"
+                    ), project.getDisposed());
+                    return;
+                }
 
-        // Convert path separators to "::" for Anki deck hierarchy
-        String deckPath = relativePath.toString().replaceAll("/", "::").replace("\\", "::");
+                // Holds back maintenance work such as scheduled reconciliation until the sync is done
+                try (SyncScheduler.Activity ignored = SyncScheduler.getInstance().beginInteractive()) {
+                    result = AnkiSyncService.getInstance(project).sync(new SourceFileIterator(project, roots), indicator);
+                    if (wholeProject && result.failed == 0) {
+                        GitSyncService.getInstance(project).recordSyncedRevision();
+                    }
+                }
+            }
 
-        return deckPath;
+            @Override
+            public void onSuccess() {
+                // Show summary message
+                if (result != null && (result.synced > 0 || result.failed > 0 || result.conflicts > 0)) {
+                    String message = String.format(
+                            "Sync completed.\nSuccessfully synced: %d\nErrors: %d",
+                            result.synced,
+                            result.failed
+                    );
+                    if (result.conflicts > 0) {
+                        message += "\n\nSkipped " + result.conflicts + " files whose notes were edited in Anki. "
+                                + "Use Tools | Overwrite Anki Edits to replace those edits.";
+                    }
+
+                    Messages.showInfoMessage(project, message, "Sync to Anki");
+                }
+            }
+        });
     }
 
-    /**
-     * Gets tags from the file path
-     *
-     * @param project The project
-     * @param file The file
-     * @return The tags
-     */
-    private List<String> getTagsFromFilePath(Project project, VirtualFile file) {
-        Path projectPath = Paths.get(project.getBasePath());
-        Path filePath = Paths.get(file.getPath());
-
-        // Get relative path from project root
-        Path relativePath = projectPath.relativize(filePath);
-        
-        List<String> tags = new ArrayList<>();
-        
-        // Add each directory component as a tag
-        if (relativePath.getParent() != null) {
-            for (int i = 0; i < relativePath.getNameCount() - 1; i++) {
-                tags.add(relativePath.getName(i).toString());
-            }
+    static Collection<VirtualFile> getSelectedRoots(AnActionEvent e) {
+        VirtualFile[] selectedFiles = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+        if (selectedFiles != null && selectedFiles.length > 0) {
+            return Arrays.asList(selectedFiles);
+        }
+
+        Module module = e.getData(LangDataKeys.MODULE_CONTEXT);
+        if (module != null) {
+            return Arrays.asList(ModuleRootManager.getInstance(module).getContentRoots());
         }
-        
-        // Add file name without extension as a tag
-        tags.add(file.getNameWithoutExtension());
-        
-        return tags;
+
+        return List.of();
     }
 }
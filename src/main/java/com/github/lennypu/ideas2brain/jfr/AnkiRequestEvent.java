@@ -0,0 +1,30 @@
+package com.github.lennypu.ideas2brain.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering one AnkiConnect HTTP request
+ */
+@Name("com.github.lennypu.ideas2brain.AnkiRequest")
+@Label("AnkiConnect Request")
+@Category({"Ideas2Brain", "Sync"})
+@Description("A single HTTP round trip to AnkiConnect")
+@StackTrace(false)
+public class AnkiRequestEvent extends Event {
+    @Label("Action")
+    public String action;
+
+    @Label("Payload Size")
+    @DataAmount
+    public long payloadBytes;
+
+    @Label("HTTP Status")
+    @Description("Response code, or -1 if the request failed before a response arrived")
+    public int status;
+}
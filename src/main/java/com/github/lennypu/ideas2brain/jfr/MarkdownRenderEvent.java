@@ -0,0 +1,30 @@
+package com.github.lennypu.ideas2brain.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering one JavaDoc to Markdown conversion
+ */
+@Name("com.github.lennypu.ideas2brain.MarkdownRender")
+@Label("Markdown Render")
+@Category({"Ideas2Brain", "Sync"})
+@Description("Parsing a source file and rendering its comments to Markdown")
+@StackTrace(false)
+public class MarkdownRenderEvent extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Source Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Members")
+    @Description("Number of classes, fields and methods visited")
+    public int members;
+}
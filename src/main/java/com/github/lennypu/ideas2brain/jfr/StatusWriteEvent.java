@@ -0,0 +1,28 @@
+package com.github.lennypu.ideas2brain.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering one write to the file status database
+ */
+@Name("com.github.lennypu.ideas2brain.StatusWrite")
+@Label("Status Database Write")
+@Category({"Ideas2Brain", "Database"})
+@Description("An insert, update or delete on the file_status table")
+@StackTrace(false)
+public class StatusWriteEvent extends Event {
+    @Label("Operation")
+    public String operation;
+
+    @Label("File")
+    public String file;
+
+    @Label("Rows")
+    @Description("Number of rows affected")
+    public int rows;
+}
@@ -1,204 +1,220 @@
 package com.github.lennypu.ideas2brain.listeners;
 
+import com.github.lennypu.ideas2brain.services.AnkiChangeDetector;
 import com.github.lennypu.ideas2brain.services.AnkiConnectService;
 import com.github.lennypu.ideas2brain.services.DatabaseFileStatusService;
+import com.github.lennypu.ideas2brain.services.PreRenderService;
+import com.github.lennypu.ideas2brain.services.ProjectPathRouter;
+import com.github.lennypu.ideas2brain.services.SyncScheduler;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.project.ProjectManager;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.openapi.vfs.VirtualFileEvent;
-import com.intellij.openapi.vfs.VirtualFileListener;
-import com.intellij.openapi.vfs.VirtualFileMoveEvent;
-import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
 import org.jetbrains.annotations.NotNull;
 
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * Listener for file system changes to handle Anki synchronization
+ * Listener for file system changes to handle Anki synchronization.
+ * Each batch of VFS events is routed to the owning projects in a single pass, so only the status
+ * database of the project containing a file is touched.
+ * Moves, renames and deletes of directories are applied to all contained files with bulk
+ * database statements and a constant number of AnkiConnect requests.
  */
-public class FileChangeListener implements VirtualFileListener {
+public class FileChangeListener implements BulkFileListener {
     private static final Logger LOG = Logger.getInstance(FileChangeListener.class);
-    
+    public static final String EVENTS_COUNTER = "vfs.events";
+    public static final String CALLBACK_NANOS_COUNTER = "vfs.callbackNanos";
+
     @Override
-    public void fileDeleted(@NotNull VirtualFileEvent event) {
-        VirtualFile file = event.getFile();
-        if (!isJavaOrKotlinFile(file)) {
-            return;
-        }
-        
-        LOG.info("File deleted: " + file.getPath());
-        
-        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
-            DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
-            String noteId = fileStatusService.getAnkiNoteId(file);
-            
-            if (noteId != null) {
-                // Delete note from Anki
-                AnkiConnectService ankiService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
-                if (ankiService.isAnkiConnectAvailable()) {
-                    boolean deleted = ankiService.deleteNote(noteId);
-                    if (deleted) {
-                        LOG.info("Deleted Anki note: " + noteId + " for file: " + file.getPath());
-                    } else {
-                        LOG.warn("Failed to delete Anki note: " + noteId + " for file: " + file.getPath());
-                    }
-                }
-                
-                // Remove from database
-                fileStatusService.removeFile(file);
+    public void after(@NotNull List<? extends VFileEvent> events) {
+        long start = System.nanoTime();
+        ProjectPathRouter router = ProjectPathRouter.getInstance();
+        Map<Project, List<VFileEvent>> eventsByProject = new LinkedHashMap<>();
+
+        for (VFileEvent event : events) {
+            String path = getRoutingPath(event);
+            if (path == null) {
+                continue;
+            }
+            Project project = router.findProject(path);
+            if (project != null) {
+                eventsByProject.computeIfAbsent(project, key -> new ArrayList<>()).add(event);
             }
         }
+
+        eventsByProject.forEach(this::handleEvents);
+
+        // Runs inside the write action, so its time is time the IDE is frozen
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        metrics.addToCounter(EVENTS_COUNTER, events.size());
+        metrics.addToCounter(CALLBACK_NANOS_COUNTER, System.nanoTime() - start);
     }
-    
-    @Override
-    public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+
+    /**
+     * Gets the path identifying the stored rows an event refers to
+     *
+     * @return The path, or null if the event is irrelevant
+     */
+    private String getRoutingPath(VFileEvent event) {
         VirtualFile file = event.getFile();
-        if (!isJavaOrKotlinFile(file)) {
-            return;
+        if (event instanceof VFileContentChangeEvent) {
+            return isJavaOrKotlinFile(file) ? event.getPath() : null;
         }
-        
-        String oldPath = event.getOldParent().getPath() + "/" + file.getName();
-        String newPath = file.getPath();
-        
-        LOG.info("File moved from: " + oldPath + " to: " + newPath);
-        
-        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
-            DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
-            String noteId = fileStatusService.getAnkiNoteId(file);
-            
-            if (noteId != null) {
-                // Update note in Anki with new deck/tags based on new path
-                AnkiConnectService ankiService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
-                if (ankiService.isAnkiConnectAvailable()) {
-                    // Update note with new deck and tags
-                    updateAnkiNoteForMove(ankiService, project, file, noteId);
-                }
-                
-                // Update database with new path
-                fileStatusService.setFileStatus(file, DatabaseFileStatusService.FileStatus.SYNCED);
-            }
+        if (!isTrackedFileOrDirectory(file)) {
+            return null;
         }
-    }
-    
-    @Override
-    public void propertyChanged(@NotNull VirtualFilePropertyEvent event) {
-        if (!VirtualFile.PROP_NAME.equals(event.getPropertyName())) {
-            return;
+        if (event instanceof VFileDeleteEvent) {
+            return event.getPath();
         }
-        
-        VirtualFile file = event.getFile();
-        if (!isJavaOrKotlinFile(file)) {
-            return;
+        if (event instanceof VFileMoveEvent moveEvent) {
+            return moveEvent.getOldPath();
         }
-        
-        String oldName = (String) event.getOldValue();
-        String newName = (String) event.getNewValue();
-        
-        LOG.info("File renamed from: " + oldName + " to: " + newName);
-        
-        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
-            DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
-            String noteId = fileStatusService.getAnkiNoteId(file);
-            
-            if (noteId != null) {
-                // Update note in Anki with new name
-                AnkiConnectService ankiService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
-                if (ankiService.isAnkiConnectAvailable()) {
-                    String newClassName = file.getNameWithoutExtension();
-                    boolean updated = ankiService.updateNoteFront(noteId, newClassName);
-                    if (updated) {
-                        LOG.info("Updated Anki note front: " + noteId + " with new name: " + newClassName);
-                    } else {
-                        LOG.warn("Failed to update Anki note: " + noteId + " with new name: " + newClassName);
-                    }
-                }
-                
-                // Update database status
-                fileStatusService.setFileStatus(file, DatabaseFileStatusService.FileStatus.SYNCED);
+        if (event instanceof VFilePropertyChangeEvent propertyEvent && propertyEvent.isRename()) {
+            return propertyEvent.getOldPath();
+        }
+        return null;
+    }
+
+    private void handleEvents(Project project, List<VFileEvent> events) {
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        List<String> changedPaths = new ArrayList<>();
+
+        for (VFileEvent event : events) {
+            if (event instanceof VFileContentChangeEvent) {
+                changedPaths.add(event.getPath());
+            } else if (event instanceof VFileDeleteEvent) {
+                fileDeleted(project, fileStatusService, event.getPath());
+            } else if (event instanceof VFileMoveEvent moveEvent) {
+                LOG.info("File moved from: " + moveEvent.getOldPath() + " to: " + moveEvent.getNewPath());
+                fileMoved(project, fileStatusService, moveEvent.getOldPath(), moveEvent.getNewPath(), null);
+            } else if (event instanceof VFilePropertyChangeEvent renameEvent) {
+                VirtualFile file = renameEvent.getFile();
+                LOG.info("File renamed from: " + renameEvent.getOldValue() + " to: " + renameEvent.getNewValue());
+                fileMoved(project, fileStatusService, renameEvent.getOldPath(), renameEvent.getNewPath(),
+                        file.isDirectory() ? null : file.getNameWithoutExtension());
             }
         }
+
+        // Mark files as modified after sync in one transaction
+        fileStatusService.markModified(changedPaths);
+        PreRenderService preRenderService = PreRenderService.getInstance(project);
+        changedPaths.forEach(preRenderService::fileChanged);
     }
-    
-    @Override
-    public void contentsChanged(@NotNull VirtualFileEvent event) {
-        VirtualFile file = event.getFile();
-        if (!isJavaOrKotlinFile(file)) {
+
+    private void fileDeleted(Project project, DatabaseFileStatusService fileStatusService, String path) {
+        LOG.info("File deleted: " + path);
+
+        List<Long> noteIds = parseNoteIds(fileStatusService.removePaths(path));
+        if (noteIds.isEmpty()) {
             return;
         }
-        
-        // Mark file as modified after sync
-        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
-            DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
-            DatabaseFileStatusService.FileStatus currentStatus = fileStatusService.getFileStatus(file);
-            
-            if (currentStatus == DatabaseFileStatusService.FileStatus.SYNCED) {
-                fileStatusService.setFileStatus(file, DatabaseFileStatusService.FileStatus.MODIFIED_AFTER_SYNC);
-                LOG.info("File marked as modified after sync: " + file.getPath());
+
+        // Delete notes from Anki in one request
+        runInBackground(project, () -> {
+            AnkiConnectService ankiService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+            if (ankiService.deleteNotes(noteIds)) {
+                LOG.info("Deleted " + noteIds.size() + " Anki notes for: " + path);
+            } else {
+                LOG.warn("Failed to delete " + noteIds.size() + " Anki notes for: " + path);
             }
+        });
+    }
+
+    private void fileMoved(Project project, DatabaseFileStatusService fileStatusService,
+                           String oldPath, String newPath, String newFront) {
+        // Update database with new paths, then the notes' decks, tags and, for renamed files, the front
+        List<DatabaseFileStatusService.MovedRow> moved = fileStatusService.movePaths(oldPath, newPath);
+        if (!moved.isEmpty()) {
+            updateAnkiNotesForMove(project, moved, newFront);
         }
     }
-    
+
+    private boolean isTrackedFileOrDirectory(VirtualFile file) {
+        return file != null && (file.isDirectory() || isJavaOrKotlinFile(file));
+    }
+
     private boolean isJavaOrKotlinFile(VirtualFile file) {
         if (file == null || file.isDirectory()) {
             return false;
         }
-        
+
         String extension = file.getExtension();
         return "java".equals(extension) || "kt".equals(extension);
     }
-    
-    private void updateAnkiNoteForMove(AnkiConnectService ankiService, Project project, VirtualFile file, String noteId) {
-        try {
-            // Get new deck name based on new path
-            String newDeckName = getDeckNameFromFilePath(project, file);
-            
-            // Get new tags based on new path
-            List<String> newTags = getTagsFromFilePath(project, file);
-            
-            // Update note deck and tags
-            boolean updated = ankiService.updateNoteDeckAndTags(noteId, newDeckName, newTags);
-            if (updated) {
-                LOG.info("Updated Anki note deck and tags for: " + file.getPath());
+
+    /**
+     * Moves the notes of moved rows to the decks and tags of their new paths.
+     * Rows with the same target deck and tag changes are grouped, so a whole directory costs two requests.
+     *
+     * @param project The project owning the rows
+     * @param moved The moved rows
+     * @param newFront The new card front for a renamed file, or null to leave fronts unchanged
+     */
+    private void updateAnkiNotesForMove(Project project, List<DatabaseFileStatusService.MovedRow> moved, String newFront) {
+        List<AnkiConnectService.NoteMove> moves = AnkiConnectService.NoteMove.forMovedRows(project.getBasePath(), moved);
+        if (moves.isEmpty()) {
+            return;
+        }
+        List<Long> noteIds = new ArrayList<>();
+        for (AnkiConnectService.NoteMove move : moves) {
+            noteIds.addAll(move.noteIds);
+        }
+
+        runInBackground(project, () -> AnkiChangeDetector.getInstance(project).runPluginChange(noteIds, () -> {
+            AnkiConnectService ankiService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+            if (ankiService.moveNotes(moves)) {
+                LOG.info("Updated deck and tags of " + noteIds.size() + " Anki notes");
             } else {
-                LOG.warn("Failed to update Anki note deck and tags for: " + file.getPath());
+                LOG.warn("Failed to update deck and tags of " + noteIds.size() + " Anki notes");
             }
-            
-        } catch (Exception e) {
-            LOG.error("Error updating Anki note for moved file: " + file.getPath(), e);
-        }
+
+            if (newFront != null) {
+                for (Long noteId : noteIds) {
+                    if (!ankiService.updateNoteFront(String.valueOf(noteId), newFront)) {
+                        LOG.warn("Failed to update Anki note: " + noteId + " with new name: " + newFront);
+                    }
+                }
+            }
+        }));
     }
-    
-    private String getDeckNameFromFilePath(Project project, VirtualFile file) {
-        Path projectPath = Paths.get(project.getBasePath());
-        Path filePath = Paths.get(file.getPath());
-        
-        Path relativePath = projectPath.relativize(filePath.getParent());
-        String deckPath = relativePath.toString().replaceAll("/", "::").replace("\\", "::");
-        
-        return deckPath;
+
+    private static void runInBackground(Project project, Runnable runnable) {
+        // VFS events arrive on the EDT inside a write action, keep HTTP calls off it.
+        // The jobs carry note IDs captured now and depend on their order, so they are never collapsed
+        // and the jobs of one project run one after another.
+        SyncScheduler.getInstance().submitOrdered(SyncScheduler.Priority.EVENT, "vfs:" + project.getLocationHash(), runnable);
     }
-    
-    private List<String> getTagsFromFilePath(Project project, VirtualFile file) {
-        Path projectPath = Paths.get(project.getBasePath());
-        Path filePath = Paths.get(file.getPath());
-        
-        Path relativePath = projectPath.relativize(filePath);
-        
-        List<String> tags = new ArrayList<>();
-        
-        if (relativePath.getParent() != null) {
-            for (int i = 0; i < relativePath.getNameCount() - 1; i++) {
-                tags.add(relativePath.getName(i).toString());
+
+    private static List<Long> parseNoteIds(List<String> noteIds) {
+        List<Long> result = new ArrayList<>(noteIds.size());
+        for (String noteId : noteIds) {
+            Long parsed = parseNoteId(noteId);
+            if (parsed != null) {
+                result.add(parsed);
             }
         }
-        
-        tags.add(file.getNameWithoutExtension());
-        
-        return tags;
+        return result;
+    }
+
+    private static Long parseNoteId(String noteId) {
+        if (noteId == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package com.github.lennypu.ideas2brain.listeners;
+
+import com.github.lennypu.ideas2brain.services.ProjectPathRouter;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManagerListener;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Keeps {@link ProjectPathRouter} in sync with content roots and open projects
+ */
+public class ProjectRootsChangeListener implements ModuleRootListener, ProjectManagerListener {
+    @Override
+    public void rootsChanged(@NotNull ModuleRootEvent event) {
+        ProjectPathRouter.getInstance().invalidate();
+    }
+
+    @Override
+    public void projectClosed(@NotNull Project project) {
+        ProjectPathRouter.getInstance().invalidate();
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects notes that were edited inside Anki since the plugin last wrote them.
+ * <p>
+ * Anki's modification time of every note is recorded right after the plugin writes it. Detection
+ * polls {@code notesModTime} for the tracked notes in large chunks and flags files whose notes have
+ * a newer time as {@link DatabaseFileStatusService.FileStatus#CONFLICT}, which syncs skip. No note
+ * content is fetched, so twenty thousand notes cost four requests.
+ */
+@Service(Service.Level.PROJECT)
+public final class AnkiChangeDetector {
+    private static final Logger LOG = Logger.getInstance(AnkiChangeDetector.class);
+    private static final int MOD_TIME_CHUNK_SIZE = 5000;
+
+    private final Project project;
+
+    public AnkiChangeDetector(Project project) {
+        this.project = project;
+    }
+
+    public static AnkiChangeDetector getInstance(Project project) {
+        return project.getService(AnkiChangeDetector.class);
+    }
+
+    /**
+     * Flags the files of all tracked notes that were edited in Anki as conflicts.
+     * Must be called from a background thread.
+     *
+     * @param indicator The progress indicator, checked for cancellation between chunks
+     * @return The number of new conflicts, or null if AnkiConnect could not be reached
+     */
+    @Nullable
+    public Integer detectConflicts(@NotNull ProgressIndicator indicator) {
+        return detectConflicts(DatabaseFileStatusService.getInstance(project).getRecordedModTimes(), indicator);
+    }
+
+    /**
+     * Flags the files of some tracked notes that were edited in Anki as conflicts, polling only those notes.
+     * Must be called from a background thread.
+     *
+     * @param noteIds The notes about to be written
+     * @param indicator The progress indicator, checked for cancellation between chunks
+     * @return The number of new conflicts, or null if AnkiConnect could not be reached
+     */
+    @Nullable
+    public Integer detectConflicts(@NotNull Collection<Long> noteIds, @NotNull ProgressIndicator indicator) {
+        return detectConflicts(DatabaseFileStatusService.getInstance(project).getRecordedModTimes(noteIds), indicator);
+    }
+
+    @Nullable
+    private Integer detectConflicts(Map<Long, DatabaseFileStatusService.RecordedModTime> recorded, ProgressIndicator indicator) {
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        if (recorded.isEmpty()) {
+            return 0;
+        }
+
+        Map<Long, Long> current = fetchModTimes(recorded.keySet(), indicator);
+        if (current == null) {
+            return null;
+        }
+        List<String> conflictPaths = findConflicts(recorded, current, recorded.keySet());
+        fileStatusService.markConflicts(conflictPaths);
+
+        SyncMetrics.getInstance().addToCounter("anki.conflicts", conflictPaths.size());
+        if (!conflictPaths.isEmpty()) {
+            LOG.info("Checked " + recorded.size() + " notes, " + conflictPaths.size() + " were edited in Anki");
+        }
+        return conflictPaths.size();
+    }
+
+    /**
+     * Records the current modification times of notes the plugin has just written
+     *
+     * @param noteIds The written notes
+     */
+    public void recordModTimes(@NotNull Collection<Long> noteIds) {
+        if (noteIds.isEmpty()) {
+            return;
+        }
+        Map<Long, Long> current = fetchModTimes(noteIds, null);
+        if (current != null) {
+            DatabaseFileStatusService.getInstance(project).recordAnkiModTimes(current);
+        }
+    }
+
+    /**
+     * Runs a change the plugin makes to existing notes, such as a move or a rename, without mistaking it
+     * for an edit in Anki later. Edits made in Anki before the change are flagged first; the other notes
+     * get their new modification times recorded afterwards.
+     *
+     * @param noteIds The notes the change touches
+     * @param change The change
+     */
+    public void runPluginChange(@NotNull Collection<Long> noteIds, @NotNull Runnable change) {
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        Map<Long, DatabaseFileStatusService.RecordedModTime> recorded = fileStatusService.getRecordedModTimes(noteIds);
+        List<Long> trackedNoteIds = new ArrayList<>(recorded.keySet());
+
+        Map<Long, Long> before = trackedNoteIds.isEmpty() ? Map.of() : fetchModTimes(trackedNoteIds, null);
+        if (before != null) {
+            fileStatusService.markConflicts(findConflicts(recorded, before, trackedNoteIds));
+        }
+
+        change.run();
+
+        if (before == null) {
+            return;
+        }
+        List<Long> unchangedNoteIds = new ArrayList<>();
+        for (Long noteId : trackedNoteIds) {
+            Long mod = before.get(noteId);
+            if (mod != null && mod <= recorded.get(noteId).mod) {
+                unchangedNoteIds.add(noteId);
+            }
+        }
+        recordModTimes(unchangedNoteIds);
+    }
+
+    private static List<String> findConflicts(Map<Long, DatabaseFileStatusService.RecordedModTime> recorded,
+                                              Map<Long, Long> current,
+                                              Collection<Long> noteIds) {
+        List<String> conflictPaths = new ArrayList<>();
+        for (Long noteId : noteIds) {
+            Long mod = current.get(noteId);
+            DatabaseFileStatusService.RecordedModTime recordedMod = recorded.get(noteId);
+            // Deleted notes are left to reconciliation
+            if (mod != null && recordedMod != null && mod > recordedMod.mod) {
+                conflictPaths.add(recordedMod.filePath);
+            }
+        }
+        return conflictPaths;
+    }
+
+    /**
+     * Polls modification times in large chunks
+     *
+     * @param indicator Checked for cancellation between chunks, may be null
+     * @return Map from note ID to modification time for the notes that exist, or null if a request failed
+     */
+    @Nullable
+    private static Map<Long, Long> fetchModTimes(Collection<Long> noteIds, @Nullable ProgressIndicator indicator) {
+        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+        List<Long> ids = new ArrayList<>(noteIds);
+        Map<Long, Long> result = new HashMap<>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += MOD_TIME_CHUNK_SIZE) {
+            if (indicator != null) {
+                indicator.checkCanceled();
+            }
+            Map<Long, Long> chunk = ankiConnectService.notesModTime(ids.subList(from, Math.min(from + MOD_TIME_CHUNK_SIZE, ids.size())));
+            if (chunk == null) {
+                return null;
+            }
+            result.putAll(chunk);
+        }
+        return result;
+    }
+}
@@ -1,7 +1,13 @@
 package com.github.lennypu.ideas2brain.services;
 
+import com.github.lennypu.ideas2brain.jfr.AnkiRequestEvent;
+import com.github.lennypu.ideas2brain.utils.AdaptiveLimiter;
+import com.github.lennypu.ideas2brain.utils.MarkdownHtmlRenderer;
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
@@ -11,8 +17,16 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * Service for communicating with AnkiConnect API
@@ -20,8 +34,22 @@ import java.util.Map;
 @Service(Service.Level.APP)
 public final class AnkiConnectService {
     private static final Logger LOG = Logger.getInstance(AnkiConnectService.class);
-    private static final String ANKI_CONNECT_URL = "http://localhost:8765";
+    /** Overrides the endpoint from the settings, for headless runs against a stand-in */
+    public static final String ENDPOINT_PROPERTY = "ideas2brain.ankiConnect.url";
+    /** Note type whose Markdown is rendered by the Markdown add-on in Anki */
+    public static final String MARKDOWN_MODEL = "Markdown Basic";
+    /** Standard note type, used when the plugin renders the Markdown to HTML */
+    public static final String HTML_MODEL = "Basic";
     private static final Gson gson = new Gson();
+    /** Upper bound of the adaptive request limit, callers may size their thread pools to it */
+    public static final int MAX_CONCURRENT_REQUESTS = 8;
+    /** Bounds the note type cache, it is cleared rather than evicted when full */
+    private static final int MAX_CACHED_NOTE_MODELS = 100_000;
+
+    // AnkiConnect is served by Anki's UI thread, the limiter finds the concurrency it sustains
+    private final AdaptiveLimiter limiter = new AdaptiveLimiter("anki.concurrencyLimit", 2, 1, MAX_CONCURRENT_REQUESTS);
+    // Note type of the notes created or read, the format of their Back field depends on it, not on the settings
+    private final Map<Long, String> noteModels = new ConcurrentHashMap<>();
     
     /**
      * Checks if AnkiConnect is available
@@ -42,19 +70,22 @@ public final class AnkiConnectService {
      * Checks if a note exists in Anki
      * 
      * @param noteId The ID of the note to check
-     * @return true if the note exists
+     * @return true if the note exists, false if it does not or the ID is not a note ID.
+     *         Also true if Anki could not be asked, so callers never replace a note they could not check
      */
     public boolean doesNoteExist(String noteId) {
+        long id;
         try {
-            JsonObject params = new JsonObject();
-            params.addProperty("note", noteId);
-            
-            JsonObject response = makeRequest("notesInfo", params);
-            return response != null && response.has("result") && !response.get("result").isJsonNull();
-        } catch (IOException e) {
-            LOG.warn("Failed to check if note exists", e);
+            id = Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
             return false;
         }
+        JsonArray infos = notesInfo(List.of(id));
+        if (infos == null) {
+            return true;
+        }
+        // Missing notes come back as empty objects
+        return infos.size() == 1 && infos.get(0).isJsonObject() && infos.get(0).getAsJsonObject().has("noteId");
     }
     
     /**
@@ -92,36 +123,13 @@ public final class AnkiConnectService {
             // Create deck if it doesn't exist
             createDeckIfNotExists(deckName);
             
-            JsonObject note = new JsonObject();
-            note.addProperty("deckName", deckName);
-            note.addProperty("modelName", "Markdown Basic");
-            
-            JsonObject fields = new JsonObject();
-            fields.addProperty("Front", front);
-            fields.addProperty("Back", back);
-            note.add("fields", fields);
-            
-            JsonArray tagsArray = new JsonArray();
-            tags.forEach(tagsArray::add);
-            tagsArray.add("Ideas2Brain");
-            note.add("tags", tagsArray);
-            
-            // Add a unique identifier based on the file path
-            JsonObject options = new JsonObject();
-            options.addProperty("allowDuplicate", false);
-            options.addProperty("duplicateScope", "deck");
-            
-            JsonArray fieldsArray = new JsonArray();
-            fieldsArray.add("Front");
-            options.add("duplicateScopeOptions", fieldsArray);
-            
-            note.add("options", options);
-            
+            String model = getNewNoteModel();
             JsonObject params = new JsonObject();
-            params.add("note", note);
+            params.add("note", buildNote(new NewNote(deckName, front, back, tags), model));
             
             JsonObject response = makeRequest("addNote", params);
-            if (response != null && response.has("result")) {
+            if (response != null && response.has("result") && !response.get("result").isJsonNull()) {
+                rememberModel(response.get("result").getAsLong(), model);
                 return response.get("result").getAsString();
             }
             return null;
@@ -180,6 +188,45 @@ public final class AnkiConnectService {
         }
     }
     
+    /**
+     * Updates the back field of a note, used to resync a modified file into its existing note.
+     * The content is formatted for the note's own note type.
+     * 
+     * @param noteId The ID of the note to update
+     * @param newBack The new back content, as Markdown
+     * @return true if the note was updated successfully, false also if the note does not exist
+     */
+    public boolean updateNoteBack(String noteId, String newBack) {
+        long id;
+        try {
+            id = Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        Map<Long, String> models = getNoteModels(List.of(id));
+        if (models == null || !models.containsKey(id)) {
+            return false;
+        }
+        
+        try {
+            JsonObject note = new JsonObject();
+            note.addProperty("id", id);
+            
+            JsonObject fields = new JsonObject();
+            fields.addProperty("Back", toBackField(newBack, models.get(id)));
+            note.add("fields", fields);
+            
+            JsonObject params = new JsonObject();
+            params.add("note", note);
+            
+            JsonObject response = makeRequest("updateNoteFields", params);
+            return response != null && response.has("result") && isSuccess(response);
+        } catch (IOException e) {
+            LOG.warn("Failed to update note back", e);
+            return false;
+        }
+    }
+    
     /**
      * Updates the deck and tags of a note
      * 
@@ -222,40 +269,720 @@ public final class AnkiConnectService {
     }
     
     /**
-     * Makes a request to AnkiConnect
+     * Finds notes matching an Anki search query
      * 
-     * @param action The action to perform
-     * @param params The parameters for the action
-     * @return The response from AnkiConnect
-     * @throws IOException If the request fails
+     * @param query The Anki search query, e.g. {@code tag:Ideas2Brain}
+     * @return The matching note IDs, or null if the request failed
      */
-    private JsonObject makeRequest(String action, JsonObject params) throws IOException {
-        URL url = new URL(ANKI_CONNECT_URL);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("POST");
-        connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-        connection.setDoOutput(true);
+    @Nullable
+    public List<Long> findNotes(String query) {
+        try {
+            JsonObject params = new JsonObject();
+            params.addProperty("query", query);
+            
+            JsonObject response = makeRequest("findNotes", params);
+            if (response == null || !response.has("result") || !response.get("result").isJsonArray()) {
+                return null;
+            }
+            
+            JsonArray result = response.getAsJsonArray("result");
+            List<Long> noteIds = new ArrayList<>(result.size());
+            result.forEach(id -> noteIds.add(id.getAsLong()));
+            return noteIds;
+        } catch (IOException e) {
+            LOG.warn("Failed to find notes", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Fetches note details in a single request
+     * 
+     * @param noteIds The IDs of the notes to fetch
+     * @return One object per requested ID, in request order; missing notes are empty objects.
+     *         Null if the request failed
+     */
+    @Nullable
+    public JsonArray notesInfo(Collection<Long> noteIds) {
+        try {
+            JsonObject params = new JsonObject();
+            params.add("notes", toJsonArray(noteIds));
+            
+            JsonObject response = makeRequest("notesInfo", params);
+            if (response == null || !response.has("result") || !response.get("result").isJsonArray()) {
+                return null;
+            }
+            JsonArray infos = response.getAsJsonArray("result");
+            for (JsonElement element : infos) {
+                if (element.isJsonObject() && element.getAsJsonObject().has("noteId")
+                        && element.getAsJsonObject().has("modelName")) {
+                    JsonObject info = element.getAsJsonObject();
+                    rememberModel(info.get("noteId").getAsLong(), info.get("modelName").getAsString());
+                }
+            }
+            return infos;
+        } catch (IOException e) {
+            LOG.warn("Failed to fetch note info", e);
+            return null;
+        }
+    }
+
+    /**
+     * Fetches the modification times of many notes in a single request, far cheaper than {@link #notesInfo}
+     *
+     * @param noteIds The IDs of the notes
+     * @return Map from note ID to modification time in epoch seconds for the notes that exist,
+     *         or null if the request failed
+     */
+    @Nullable
+    public Map<Long, Long> notesModTime(Collection<Long> noteIds) {
+        try {
+            JsonObject params = new JsonObject();
+            params.add("notes", toJsonArray(noteIds));
+
+            JsonObject response = makeRequest("notesModTime", params);
+            if (response == null || !response.has("result") || !response.get("result").isJsonArray()) {
+                return null;
+            }
+
+            Map<Long, Long> modTimes = new HashMap<>();
+            for (JsonElement element : response.getAsJsonArray("result")) {
+                if (element.isJsonObject() && element.getAsJsonObject().has("noteId") && element.getAsJsonObject().has("mod")) {
+                    JsonObject info = element.getAsJsonObject();
+                    modTimes.put(info.get("noteId").getAsLong(), info.get("mod").getAsLong());
+                }
+            }
+            return modTimes;
+        } catch (IOException e) {
+            LOG.warn("Failed to fetch note modification times", e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds tags to many notes in a single request
+     * 
+     * @param noteIds The IDs of the notes to tag
+     * @param tags Space separated tags to add
+     * @return true if the tags were added successfully
+     */
+    public boolean addTags(Collection<Long> noteIds, String tags) {
+        try {
+            JsonObject params = new JsonObject();
+            params.add("notes", toJsonArray(noteIds));
+            params.addProperty("tags", tags);
+            
+            JsonObject response = makeRequest("addTags", params);
+            return response != null && response.has("result") && isSuccess(response);
+        } catch (IOException e) {
+            LOG.warn("Failed to add tags", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Deletes many notes in a single request
+     * 
+     * @param noteIds The IDs of the notes to delete
+     * @return true if the notes were deleted successfully
+     */
+    public boolean deleteNotes(Collection<Long> noteIds) {
+        try {
+            JsonObject params = new JsonObject();
+            params.add("notes", toJsonArray(noteIds));
+            
+            JsonObject response = makeRequest("deleteNotes", params);
+            return response != null && response.has("result") && isSuccess(response);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete notes", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Moves groups of notes to new decks and adjusts their tags.
+     * All groups are handled with two requests: one to look up the cards and one to move and retag them.
+     * Groups without a deck only change tags; if no group has a deck, the card lookup is skipped.
+     * 
+     * @param moves The note groups to move
+     * @return true if every note was moved and retagged successfully
+     */
+    public boolean moveNotes(List<NoteMove> moves) {
+        if (moves.isEmpty()) {
+            return true;
+        }
         
-        JsonObject request = new JsonObject();
-        request.addProperty("action", action);
-        request.addProperty("version", 6);
-        if (params != null) {
-            request.add("params", params);
+        try {
+            // changeDeck works on cards, so resolve the cards of every group with a deck first
+            List<NoteMove> deckMoves = new ArrayList<>();
+            List<JsonObject> findCards = new ArrayList<>();
+            for (NoteMove move : moves) {
+                if (move.deckName != null) {
+                    JsonObject params = new JsonObject();
+                    params.addProperty("query", "nid:" + move.noteIds.stream().map(String::valueOf).collect(Collectors.joining(",")));
+                    findCards.add(action("findCards", params));
+                    deckMoves.add(move);
+                }
+            }
+            Map<NoteMove, JsonElement> cardsByMove = new HashMap<>();
+            if (!findCards.isEmpty()) {
+                JsonArray cardResults = multi(findCards);
+                if (cardResults == null || cardResults.size() != deckMoves.size()) {
+                    return false;
+                }
+                for (int i = 0; i < deckMoves.size(); i++) {
+                    cardsByMove.put(deckMoves.get(i), unwrapMultiResult(cardResults.get(i)));
+                }
+            }
+            
+            List<JsonObject> updates = new ArrayList<>();
+            Set<String> decks = new LinkedHashSet<>();
+            for (NoteMove move : deckMoves) {
+                decks.add(move.deckName);
+            }
+            for (String deck : decks) {
+                JsonObject params = new JsonObject();
+                params.addProperty("deck", deck);
+                updates.add(action("createDeck", params));
+            }
+            for (NoteMove move : moves) {
+                JsonElement cards = cardsByMove.get(move);
+                if (cards != null && cards.isJsonArray() && cards.getAsJsonArray().size() > 0) {
+                    JsonObject params = new JsonObject();
+                    params.add("cards", cards);
+                    params.addProperty("deck", move.deckName);
+                    updates.add(action("changeDeck", params));
+                }
+                if (!move.tagsToRemove.isEmpty()) {
+                    JsonObject params = new JsonObject();
+                    params.add("notes", toJsonArray(move.noteIds));
+                    params.addProperty("tags", String.join(" ", move.tagsToRemove));
+                    updates.add(action("removeTags", params));
+                }
+                if (!move.tagsToAdd.isEmpty()) {
+                    JsonObject params = new JsonObject();
+                    params.add("notes", toJsonArray(move.noteIds));
+                    params.addProperty("tags", String.join(" ", move.tagsToAdd));
+                    updates.add(action("addTags", params));
+                }
+            }
+            
+            JsonArray updateResults = multi(updates);
+            if (updateResults == null) {
+                return false;
+            }
+            for (JsonElement result : updateResults) {
+                if (result.isJsonObject() && result.getAsJsonObject().has("error")
+                        && !result.getAsJsonObject().get("error").isJsonNull()) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed to move notes", e);
+            return false;
+        }
+    }
+    
+    /**
+     * A group of notes that move to the same deck and get the same tag changes
+     */
+    public static final class NoteMove {
+        /** The target deck, or null to leave the deck unchanged */
+        @Nullable
+        public final String deckName;
+        public final List<Long> noteIds = new ArrayList<>();
+        public final Collection<String> tagsToRemove;
+        public final Collection<String> tagsToAdd;
+        
+        public NoteMove(@Nullable String deckName, Collection<String> tagsToRemove, Collection<String> tagsToAdd) {
+            this.deckName = deckName;
+            this.tagsToRemove = tagsToRemove;
+            this.tagsToAdd = tagsToAdd;
+        }
+        
+        /**
+         * Groups moved status rows by their target deck and tag changes, so a whole directory needs one group
+         * 
+         * @param basePath The project root
+         * @param moved The moved rows; rows without a note are skipped
+         * @return The groups
+         */
+        public static List<NoteMove> forMovedRows(String basePath, List<DatabaseFileStatusService.MovedRow> moved) {
+            Map<String, NoteMove> groups = new LinkedHashMap<>();
+            for (DatabaseFileStatusService.MovedRow row : moved) {
+                Long noteId = parseNoteId(row.noteId);
+                if (noteId == null) {
+                    continue;
+                }
+                
+                String newDeckName = NoteMappingUtil.getDeckNameFromFilePath(basePath, row.newPath);
+                List<String> oldTags = NoteMappingUtil.getTagsFromFilePath(basePath, row.oldPath);
+                List<String> newTags = NoteMappingUtil.getTagsFromFilePath(basePath, row.newPath);
+                List<String> tagsToRemove = new ArrayList<>(oldTags);
+                tagsToRemove.removeAll(newTags);
+                List<String> tagsToAdd = new ArrayList<>(newTags);
+                tagsToAdd.removeAll(oldTags);
+                
+                String groupKey = newDeckName + "\n" + tagsToRemove + "\n" + tagsToAdd;
+                groups.computeIfAbsent(groupKey, key -> new NoteMove(newDeckName, tagsToRemove, tagsToAdd))
+                        .noteIds.add(noteId);
+            }
+            return new ArrayList<>(groups.values());
+        }
+        
+        @Nullable
+        private static Long parseNoteId(String noteId) {
+            if (noteId == null) {
+                return null;
+            }
+            try {
+                return Long.parseLong(noteId);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * A note to be added with {@link #addNotes}
+     */
+    public static final class NewNote {
+        public final String deckName;
+        public final String front;
+        public final String back;
+        public final List<String> tags;
+        
+        public NewNote(String deckName, String front, String back, List<String> tags) {
+            this.deckName = deckName;
+            this.front = front;
+            this.back = back;
+            this.tags = tags;
+        }
+    }
+    
+    /**
+     * Adds many notes with two requests: one creating their decks and one adding the notes
+     * 
+     * @param notes The notes to add
+     * @return One note ID per note in order, null for notes Anki rejected, such as duplicates.
+     *         Null if the request failed
+     */
+    @Nullable
+    public List<String> addNotes(List<NewNote> notes) {
+        if (notes.isEmpty()) {
+            return List.of();
+        }
+        
+        try {
+            List<JsonObject> createDecks = new ArrayList<>();
+            for (String deck : notes.stream().map(note -> note.deckName).collect(Collectors.toCollection(LinkedHashSet::new))) {
+                JsonObject params = new JsonObject();
+                params.addProperty("deck", deck);
+                createDecks.add(action("createDeck", params));
+            }
+            if (multi(createDecks) == null) {
+                return null;
+            }
+            
+            String model = getNewNoteModel();
+            JsonArray notesArray = new JsonArray(notes.size());
+            notes.forEach(note -> notesArray.add(buildNote(note, model)));
+            JsonObject params = new JsonObject();
+            params.add("notes", notesArray);
+            
+            JsonObject response = makeRequest("addNotes", params);
+            if (response == null || !response.has("result") || !response.get("result").isJsonArray()) {
+                // Older AnkiConnect versions fail the whole batch if a single note is rejected
+                return null;
+            }
+            JsonArray result = response.getAsJsonArray("result");
+            List<String> noteIds = new ArrayList<>(result.size());
+            for (JsonElement id : result) {
+                if (id.isJsonNull()) {
+                    noteIds.add(null);
+                } else {
+                    rememberModel(id.getAsLong(), model);
+                    noteIds.add(id.getAsString());
+                }
+            }
+            return noteIds;
+        } catch (IOException e) {
+            LOG.warn("Failed to add notes", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Updates the back field of many notes in a single request
+     * 
+     * @param backsByNoteId Map from note ID to new back content
+     * @return The number of updated notes, or -1 if the request failed
+     */
+    public int updateNotesBack(Map<Long, String> backsByNoteId) {
+        Map<Long, Map<String, String>> fieldsByNoteId = new LinkedHashMap<>();
+        backsByNoteId.forEach((noteId, back) -> fieldsByNoteId.put(noteId, Map.of("Back", back)));
+        Set<Long> updated = updateNotesFields(fieldsByNoteId);
+        return updated != null ? updated.size() : -1;
+    }
+    
+    /**
+     * Updates fields of many notes in a single request. A Back field is given as Markdown and formatted
+     * for each note's own note type; notes whose note type cannot be found, such as deleted ones, are skipped.
+     * 
+     * @param fieldsByNoteId Map from note ID to the fields to change, by field name
+     * @return The IDs of the updated notes, or null if the request failed
+     */
+    @Nullable
+    public Set<Long> updateNotesFields(Map<Long, Map<String, String>> fieldsByNoteId) {
+        if (fieldsByNoteId.isEmpty()) {
+            return Set.of();
+        }
+        
+        List<Long> backNoteIds = new ArrayList<>();
+        fieldsByNoteId.forEach((noteId, fields) -> {
+            if (fields.containsKey("Back")) {
+                backNoteIds.add(noteId);
+            }
+        });
+        Map<Long, String> models = backNoteIds.isEmpty() ? Map.of() : getNoteModels(backNoteIds);
+        if (models == null) {
+            return null;
+        }
+        
+        try {
+            List<Long> noteIds = new ArrayList<>(fieldsByNoteId.size());
+            List<JsonObject> updates = new ArrayList<>(fieldsByNoteId.size());
+            for (Map.Entry<Long, Map<String, String>> entry : fieldsByNoteId.entrySet()) {
+                Long noteId = entry.getKey();
+                String model = models.get(noteId);
+                if (entry.getValue().containsKey("Back") && model == null) {
+                    continue;
+                }
+                JsonObject note = new JsonObject();
+                note.addProperty("id", noteId);
+                JsonObject fields = new JsonObject();
+                entry.getValue().forEach((name, value) ->
+                        fields.addProperty(name, "Back".equals(name) ? toBackField(value, model) : value));
+                note.add("fields", fields);
+                
+                JsonObject params = new JsonObject();
+                params.add("note", note);
+                updates.add(action("updateNoteFields", params));
+                noteIds.add(noteId);
+            }
+            if (updates.isEmpty()) {
+                return Set.of();
+            }
+            
+            JsonArray results = multi(updates);
+            if (results == null || results.size() != noteIds.size()) {
+                return null;
+            }
+            Set<Long> updated = new LinkedHashSet<>();
+            for (int i = 0; i < results.size(); i++) {
+                JsonElement result = results.get(i);
+                if (!result.isJsonObject() || !result.getAsJsonObject().has("error")
+                        || result.getAsJsonObject().get("error").isJsonNull()) {
+                    updated.add(noteIds.get(i));
+                }
+            }
+            return updated;
+        } catch (IOException e) {
+            LOG.warn("Failed to update notes", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Runs many {@code findNotes} queries in a single request
+     * 
+     * @param queries The Anki search queries
+     * @return The matching note IDs per query in order, or null if the request failed
+     */
+    @Nullable
+    public List<List<Long>> findNotesBatch(List<String> queries) {
+        if (queries.isEmpty()) {
+            return List.of();
+        }
+        
+        try {
+            List<JsonObject> actions = new ArrayList<>(queries.size());
+            for (String query : queries) {
+                JsonObject params = new JsonObject();
+                params.addProperty("query", query);
+                actions.add(action("findNotes", params));
+            }
+            
+            JsonArray results = multi(actions);
+            if (results == null || results.size() != queries.size()) {
+                return null;
+            }
+            List<List<Long>> noteIds = new ArrayList<>(results.size());
+            for (JsonElement element : results) {
+                JsonElement result = unwrapMultiResult(element);
+                List<Long> ids = new ArrayList<>();
+                if (result != null && result.isJsonArray()) {
+                    result.getAsJsonArray().forEach(id -> ids.add(id.getAsLong()));
+                }
+                noteIds.add(ids);
+            }
+            return noteIds;
+        } catch (IOException e) {
+            LOG.warn("Failed to find notes", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Gets the note types of notes, from the cache or with a single {@code notesInfo} request for the others
+     * 
+     * @param noteIds The IDs of the notes
+     * @return Map from note ID to note type for the notes that exist, or null if the request failed
+     */
+    @Nullable
+    private Map<Long, String> getNoteModels(Collection<Long> noteIds) {
+        Map<Long, String> models = new HashMap<>();
+        List<Long> unknown = new ArrayList<>();
+        for (Long noteId : noteIds) {
+            String model = noteModels.get(noteId);
+            if (model != null) {
+                models.put(noteId, model);
+            } else {
+                unknown.add(noteId);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return models;
         }
         
-        String requestBody = gson.toJson(request);
+        JsonArray infos = notesInfo(unknown);
+        if (infos == null) {
+            return null;
+        }
+        for (JsonElement element : infos) {
+            if (element.isJsonObject() && element.getAsJsonObject().has("noteId")
+                    && element.getAsJsonObject().has("modelName")) {
+                JsonObject info = element.getAsJsonObject();
+                models.put(info.get("noteId").getAsLong(), info.get("modelName").getAsString());
+            }
+        }
+        return models;
+    }
+    
+    private void rememberModel(long noteId, String model) {
+        if (noteModels.size() >= MAX_CACHED_NOTE_MODELS) {
+            noteModels.clear();
+        }
+        noteModels.put(noteId, model);
+    }
+    
+    private static JsonObject buildNote(NewNote newNote, String model) {
+        JsonObject note = new JsonObject();
+        note.addProperty("deckName", newNote.deckName);
+        note.addProperty("modelName", model);
+        
+        JsonObject fields = new JsonObject();
+        fields.addProperty("Front", newNote.front);
+        fields.addProperty("Back", toBackField(newNote.back, model));
+        note.add("fields", fields);
+        
+        JsonArray tagsArray = new JsonArray();
+        newNote.tags.forEach(tagsArray::add);
+        tagsArray.add("Ideas2Brain");
+        note.add("tags", tagsArray);
+        
+        // Add a unique identifier based on the file path
+        JsonObject options = new JsonObject();
+        options.addProperty("allowDuplicate", false);
+        options.addProperty("duplicateScope", "deck");
         
-        try (var os = connection.getOutputStream()) {
-            byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
-            os.write(input, 0, input.length);
+        JsonArray fieldsArray = new JsonArray();
+        fieldsArray.add("Front");
+        options.add("duplicateScopeOptions", fieldsArray);
+        
+        note.add("options", options);
+        return note;
+    }
+    
+    /**
+     * Whether Markdown is rendered to HTML by the plugin for the standard note type, see the settings
+     */
+    public static boolean isHtmlRendering() {
+        return Ideas2BrainSettings.getInstance().getState().renderHtmlLocally;
+    }
+    
+    /**
+     * Gets the note type of new notes, after the settings. Changing the setting only affects notes created
+     * afterwards, existing notes keep their note type and the format of their Back field.
+     */
+    public static String getNewNoteModel() {
+        return isHtmlRendering() ? HTML_MODEL : MARKDOWN_MODEL;
+    }
+    
+    /**
+     * Converts rendered Markdown to the content of the Back field of a new note, see {@link #getNewNoteModel()}
+     * 
+     * @param markdown The Markdown of a file
+     * @return The field content
+     */
+    public static String toBackField(String markdown) {
+        return toBackField(markdown, getNewNoteModel());
+    }
+    
+    /**
+     * Converts rendered Markdown to the content of the Back field of a note: HTML for the standard note type,
+     * rendered once per distinct Markdown, else unchanged
+     * 
+     * @param markdown The Markdown of a file
+     * @param model The note type of the note
+     * @return The field content
+     */
+    public static String toBackField(String markdown, @Nullable String model) {
+        return HTML_MODEL.equals(model) ? MarkdownHtmlRenderer.render(markdown) : markdown;
+    }
+    
+    /**
+     * Gets the AnkiConnect URL, from the {@value #ENDPOINT_PROPERTY} system property if set, else from the settings
+     */
+    public static String getEndpoint() {
+        String endpoint = System.getProperty(ENDPOINT_PROPERTY);
+        if (endpoint != null && !endpoint.isBlank()) {
+            return endpoint;
         }
+        return Ideas2BrainSettings.getInstance().getState().ankiConnectUrl;
+    }
+    
+    /**
+     * Runs several actions in a single request
+     * 
+     * @param actions The actions, built with {@link #action}
+     * @return One result per action, or null if the request failed
+     * @throws IOException If the request fails
+     */
+    @Nullable
+    private JsonArray multi(List<JsonObject> actions) throws IOException {
+        JsonArray actionsArray = new JsonArray(actions.size());
+        actions.forEach(actionsArray::add);
+        
+        JsonObject params = new JsonObject();
+        params.add("actions", actionsArray);
         
-        if (connection.getResponseCode() == 200) {
-            String responseBody = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-            return gson.fromJson(responseBody, JsonObject.class);
-        } else {
-            LOG.warn("AnkiConnect request failed with status code: " + connection.getResponseCode());
+        JsonObject response = makeRequest("multi", params);
+        if (response == null || !response.has("result") || !response.get("result").isJsonArray()) {
             return null;
         }
+        return response.getAsJsonArray("result");
+    }
+    
+    private static JsonObject action(String name, JsonObject params) {
+        JsonObject action = new JsonObject();
+        action.addProperty("action", name);
+        action.addProperty("version", 6);
+        action.add("params", params);
+        return action;
+    }
+    
+    /**
+     * Results of actions inside {@code multi} are either bare values or {@code {result, error}} objects
+     * depending on the AnkiConnect version
+     */
+    @Nullable
+    private static JsonElement unwrapMultiResult(JsonElement element) {
+        if (element != null && element.isJsonObject() && element.getAsJsonObject().has("result")) {
+            return element.getAsJsonObject().get("result");
+        }
+        return element;
+    }
+    
+    private static JsonArray toJsonArray(Collection<Long> noteIds) {
+        JsonArray array = new JsonArray(noteIds.size());
+        noteIds.forEach(array::add);
+        return array;
+    }
+    
+    private static boolean isSuccess(JsonObject response) {
+        return !response.has("error") || response.get("error").isJsonNull();
+    }
+    
+    /**
+     * Groups requests whose latency is comparable: the action, the first batched action of a {@code multi},
+     * and the power of two of the batch size
+     */
+    private static String requestKind(String action, JsonObject params) {
+        String kind = action;
+        int batchSize = 1;
+        if (params != null) {
+            if (params.has("actions") && params.getAsJsonArray("actions").size() > 0) {
+                kind += "/" + params.getAsJsonArray("actions").get(0).getAsJsonObject().get("action").getAsString();
+            }
+            for (String batch : List.of("actions", "notes", "cards")) {
+                if (params.has(batch) && params.get(batch).isJsonArray()) {
+                    batchSize = Math.max(batchSize, params.getAsJsonArray(batch).size());
+                }
+            }
+        }
+        return kind + ":" + (32 - Integer.numberOfLeadingZeros(batchSize));
+    }
+
+    /**
+     * Makes a request to AnkiConnect
+     * 
+     * @param action The action to perform
+     * @param params The parameters for the action
+     * @return The response from AnkiConnect
+     * @throws IOException If the request fails
+     */
+    private JsonObject makeRequest(String action, JsonObject params) throws IOException {
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        metrics.recordAnkiRequest(action);
+        AnkiRequestEvent event = new AnkiRequestEvent();
+        event.begin();
+        event.status = -1;
+        long acquired = limiter.acquire();
+        long start = System.nanoTime();
+        try {
+            URL url = new URL(getEndpoint());
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            connection.setDoOutput(true);
+
+            JsonObject request = new JsonObject();
+            request.addProperty("action", action);
+            request.addProperty("version", 6);
+            if (params != null) {
+                request.add("params", params);
+            }
+
+            String requestBody = gson.toJson(request);
+
+            try (var os = connection.getOutputStream()) {
+                byte[] input = requestBody.getBytes(StandardCharsets.UTF_8);
+                event.payloadBytes = input.length;
+                os.write(input, 0, input.length);
+            }
+
+            event.status = connection.getResponseCode();
+            if (event.status == 200) {
+                String responseBody = new String(connection.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                return gson.fromJson(responseBody, JsonObject.class);
+            } else {
+                metrics.incrementCounter("anki.errors");
+                LOG.warn("AnkiConnect request failed with status code: " + connection.getResponseCode());
+                return null;
+            }
+        } catch (IOException e) {
+            metrics.incrementCounter("anki.errors");
+            throw e;
+        } finally {
+            metrics.recordLatency(SyncMetrics.Stage.HTTP, start);
+            limiter.release(requestKind(action, params), acquired, event.status == 200);
+            event.end();
+            if (event.shouldCommit()) {
+                event.action = action;
+                event.commit();
+            }
+        }
     }
 }
@@ -0,0 +1,261 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports rendered notes to a file Anki can import without AnkiConnect, and links the imported notes
+ * back to their files afterwards.
+ * The export is written in one sequential pass, only the render window and one batch of note keys
+ * are held in memory.
+ */
+@Service(Service.Level.PROJECT)
+public final class AnkiExportService {
+    private static final Logger LOG = Logger.getInstance(AnkiExportService.class);
+    private static final String PLUGIN_TAG = "Ideas2Brain";
+    private static final int NOTE_KEY_BATCH_SIZE = 500;
+    private static final int NOTES_INFO_CHUNK_SIZE = 1000;
+
+    private final Project project;
+
+    public AnkiExportService(Project project) {
+        this.project = project;
+    }
+
+    public static AnkiExportService getInstance(Project project) {
+        return project.getService(AnkiExportService.class);
+    }
+
+    /**
+     * Outcome of an export
+     */
+    public static final class ExportResult {
+        public int exported;
+        public int failed;
+    }
+
+    /**
+     * Writes every file produced by the iterator as one line of a tab-separated Anki import file.
+     * The note key of each exported file is recorded in the status database.
+     * Must be called from a background thread.
+     *
+     * @param files The files to export
+     * @param target The file to write
+     * @param indicator The progress indicator, checked for cancellation between files
+     * @return The result counters
+     * @throws IOException If the target cannot be written
+     */
+    public ExportResult export(@NotNull Iterator<VirtualFile> files,
+                               @NotNull Path target,
+                               @NotNull ProgressIndicator indicator) throws IOException {
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        String basePath = project.getBasePath();
+        ExportResult result = new ExportResult();
+        Map<String, String> pendingKeys = new HashMap<>();
+
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            writeHeader(writer);
+            AnkiSyncService.getInstance(project).forEachRendered(files, file -> true, rendered -> {
+                VirtualFile file = rendered.file;
+                indicator.setText2(file.getPath());
+                if (rendered.markdown == null || rendered.markdown.isEmpty()) {
+                    result.failed++;
+                    return;
+                }
+
+                String noteKey = NoteMappingUtil.getNoteKey(basePath, file.getPath());
+                List<String> tags = new ArrayList<>(NoteMappingUtil.getTagsFromFilePath(basePath, file.getPath()));
+                tags.add(PLUGIN_TAG);
+                tags.add(NoteMappingUtil.NOTE_KEY_TAG_PREFIX + noteKey);
+                try {
+                    writeRow(writer, noteKey, file.getNameWithoutExtension(), AnkiConnectService.toBackField(rendered.markdown),
+                            NoteMappingUtil.getDeckNameFromFilePath(basePath, file.getPath()), tags);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                pendingKeys.put(file.getPath(), noteKey);
+                if (pendingKeys.size() >= NOTE_KEY_BATCH_SIZE) {
+                    fileStatusService.recordNoteKeys(pendingKeys);
+                    pendingKeys.clear();
+                }
+                result.exported++;
+                indicator.setText("Exporting Anki notes: " + result.exported + " exported, " + result.failed + " failed");
+            }, indicator);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // Keys of rows already written stay usable even if the export was cancelled
+            fileStatusService.recordNoteKeys(pendingKeys);
+        }
+
+        SyncMetrics.getInstance().addToCounter("export.notes", result.exported);
+        LOG.info("Exported " + result.exported + " notes to " + target + ", " + result.failed + " failed");
+        return result;
+    }
+
+    /**
+     * Links notes created by importing an export file to their files.
+     * One request lists the keyed notes of this project and the unclaimed notes of older versions, tags are
+     * read with chunked {@code notesInfo} calls and all matches are stored in one transaction, so the cost
+     * grows with the project and not with the collection.
+     * Must be called from a background thread.
+     *
+     * @param indicator The progress indicator
+     * @return The number of linked files, or null if AnkiConnect is unreachable
+     */
+    @Nullable
+    public Integer linkImportedNotes(@NotNull ProgressIndicator indicator) {
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        Map<String, String> pathsByKey = fileStatusService.getUnlinkedNoteKeys();
+        if (pathsByKey.isEmpty()) {
+            return 0;
+        }
+
+        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+        // Notes exported before keys were scoped to a project carry the key of the relative path alone.
+        // They are only matched while no project has claimed them with its project tag.
+        String basePath = project.getBasePath();
+        String keyed = "tag:" + NoteMappingUtil.NOTE_KEY_TAG_PREFIX + "*";
+        indicator.setText("Listing imported notes");
+        List<List<Long>> found = ankiConnectService.findNotesBatch(List.of(
+                "tag:" + NoteMappingUtil.getProjectTag(basePath) + " " + keyed,
+                keyed + " -tag:" + NoteMappingUtil.PROJECT_TAG_PREFIX + "*"));
+        if (found == null) {
+            return null;
+        }
+        Set<Long> unclaimedNoteIds = new HashSet<>(found.get(1));
+        List<Long> noteIds = new ArrayList<>(found.get(0));
+        noteIds.addAll(unclaimedNoteIds);
+
+        Map<String, String> pathsByLegacyKey = new HashMap<>();
+        for (String path : pathsByKey.values()) {
+            pathsByLegacyKey.put(NoteMappingUtil.getLegacyNoteKey(basePath, path), path);
+        }
+
+        indicator.setText("Matching imported notes");
+        Map<String, String> noteIdsByPath = new HashMap<>();
+        List<Long> legacyNoteIds = new ArrayList<>();
+        for (int from = 0; from < noteIds.size(); from += NOTES_INFO_CHUNK_SIZE) {
+            indicator.checkCanceled();
+            List<Long> chunk = noteIds.subList(from, Math.min(from + NOTES_INFO_CHUNK_SIZE, noteIds.size()));
+            JsonArray infos = ankiConnectService.notesInfo(chunk);
+            if (infos == null) {
+                return null;
+            }
+            for (JsonElement element : infos) {
+                if (!element.isJsonObject()) {
+                    continue;
+                }
+                JsonObject info = element.getAsJsonObject();
+                String noteKey = getNoteKey(info);
+                if (noteKey == null) {
+                    continue;
+                }
+                String path;
+                if (unclaimedNoteIds.contains(info.get("noteId").getAsLong())) {
+                    path = pathsByLegacyKey.get(noteKey);
+                    if (path != null) {
+                        legacyNoteIds.add(info.get("noteId").getAsLong());
+                    }
+                } else {
+                    path = pathsByKey.get(noteKey);
+                }
+                if (path != null) {
+                    noteIdsByPath.put(path, info.get("noteId").getAsString());
+                }
+            }
+        }
+
+        // Claim legacy notes, so that no other project matches them by the same relative path
+        if (!legacyNoteIds.isEmpty()) {
+            ankiConnectService.addTags(legacyNoteIds, NoteMappingUtil.getProjectTag(basePath));
+        }
+        fileStatusService.linkNotes(noteIdsByPath);
+        LOG.info("Linked " + noteIdsByPath.size() + " imported notes of " + pathsByKey.size() + " exported files");
+        return noteIdsByPath.size();
+    }
+
+    @Nullable
+    private static String getNoteKey(JsonObject info) {
+        if (!info.has("noteId") || !info.has("tags")) {
+            return null;
+        }
+        for (JsonElement tag : info.getAsJsonArray("tags")) {
+            String value = tag.getAsString();
+            if (value.regionMatches(true, 0, NoteMappingUtil.NOTE_KEY_TAG_PREFIX, 0, NoteMappingUtil.NOTE_KEY_TAG_PREFIX.length())) {
+                return value.substring(NoteMappingUtil.NOTE_KEY_TAG_PREFIX.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the file headers understood by the Anki text importer
+     */
+    private static void writeHeader(Writer writer) throws IOException {
+        writer.write("#separator:tab\n");
+        String model = AnkiConnectService.getNewNoteModel();
+        writer.write(AnkiConnectService.HTML_MODEL.equals(model) ? "#html:true\n" : "#html:false\n");
+        writer.write("#notetype:" + model + "\n");
+        writer.write("#guid column:1\n");
+        writer.write("#deck column:4\n");
+        writer.write("#tags column:5\n");
+    }
+
+    private static void writeRow(Writer writer, String guid, String front, String back,
+                                 String deckName, List<String> tags) throws IOException {
+        List<String> sanitizedTags = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            // Anki separates tags by whitespace
+            sanitizedTags.add(tag.replaceAll("\\s+", "_"));
+        }
+
+        writer.write(guid);
+        writer.write('\t');
+        writer.write(escapeField(front));
+        writer.write('\t');
+        writer.write(escapeField(back));
+        writer.write('\t');
+        writer.write(escapeField(deckName));
+        writer.write('\t');
+        writer.write(escapeField(String.join(" ", sanitizedTags)));
+        writer.write('\n');
+    }
+
+    /**
+     * Quotes a field if it contains a separator, line break or quote, doubling embedded quotes
+     */
+    private static String escapeField(String value) {
+        if (value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,396 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reconciles the file status database with the notes that actually exist in Anki.
+ * One {@code findNotes} call lists every note carrying this project's tag, {@code notesInfo} is fetched in
+ * large chunks only for the notes that need a closer look, and both sides are repaired with batched operations.
+ * Notes of other projects in the same collection carry another project tag and are never touched.
+ */
+@Service(Service.Level.PROJECT)
+public final class AnkiReconciliationService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(AnkiReconciliationService.class);
+    private static final String PLUGIN_TAG = "Ideas2Brain";
+    private static final int NOTES_INFO_CHUNK_SIZE = 1000;
+
+    private final Project project;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private ScheduledFuture<?> scheduledRun;
+
+    public AnkiReconciliationService(Project project) {
+        this.project = project;
+    }
+
+    public static AnkiReconciliationService getInstance(Project project) {
+        return project.getService(AnkiReconciliationService.class);
+    }
+
+    /**
+     * Outcome of a reconciliation run
+     */
+    public static final class ReconcileResult {
+        public int trackedNotes;
+        public int ankiNotes;
+        /** Rows whose notes no longer exist and were reset to not synced */
+        public int unlinked;
+        /** Untracked plugin notes that were matched back to their files */
+        public int relinked;
+        /** Tracked notes that had lost the plugin or project tag, or predate it, and got it back */
+        public int retagged;
+        /** Tracked notes that were edited in Anki since their last sync */
+        public int conflicts;
+        /** Notes tagged as created by this project that none of its files refers to */
+        public final List<Long> orphanNoteIds = new ArrayList<>();
+    }
+
+    /**
+     * Runs a reconciliation. Orphan notes are only reported, never deleted.
+     * Must be called from a background thread.
+     *
+     * @param indicator The progress indicator
+     * @return The result, or null if AnkiConnect is unreachable or another run is in progress
+     */
+    @Nullable
+    public ReconcileResult reconcile(@NotNull ProgressIndicator indicator) {
+        return reconcile(indicator, false);
+    }
+
+    @Nullable
+    private ReconcileResult reconcile(ProgressIndicator indicator, boolean background) {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            return doReconcile(indicator, background);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Deletes orphan notes reported by {@link #reconcile} in a single request.
+     * Notes that no longer carry this project's tag are left alone.
+     *
+     * @param noteIds The notes to delete
+     * @return true if the notes were deleted
+     */
+    public boolean deleteOrphans(Collection<Long> noteIds) {
+        if (noteIds.isEmpty()) {
+            return true;
+        }
+        AnkiConnectService ankiConnectService = getAnkiConnectService();
+        // The tag may have changed since the reconciliation, check again right before deleting
+        List<Long> owned = ankiConnectService.findNotes("tag:" + NoteMappingUtil.getProjectTag(project.getBasePath()));
+        if (owned == null) {
+            return false;
+        }
+        Set<Long> ownedIds = new HashSet<>(owned);
+        List<Long> deletable = new ArrayList<>();
+        for (Long noteId : noteIds) {
+            if (ownedIds.contains(noteId)) {
+                deletable.add(noteId);
+            }
+        }
+        return deletable.isEmpty() || ankiConnectService.deleteNotes(deletable);
+    }
+
+    @Nullable
+    private ReconcileResult doReconcile(ProgressIndicator indicator, boolean background) {
+        AnkiConnectService ankiConnectService = getAnkiConnectService();
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        ReconcileResult result = new ReconcileResult();
+
+        indicator.setText("Listing Anki notes");
+        String projectTag = NoteMappingUtil.getProjectTag(project.getBasePath());
+        List<Long> ankiNoteIds = ankiConnectService.findNotes("tag:" + projectTag);
+        if (ankiNoteIds == null) {
+            return null;
+        }
+        Set<Long> taggedNotes = new HashSet<>(ankiNoteIds);
+        result.ankiNotes = taggedNotes.size();
+
+        Map<String, String> linkedNotes = fileStatusService.getLinkedNotes();
+        result.trackedNotes = linkedNotes.size();
+
+        // Diff both sides in memory
+        Map<Long, String> pathsByNoteId = new HashMap<>();
+        List<String> vanishedPaths = new ArrayList<>();
+        List<Long> untaggedNoteIds = new ArrayList<>();
+        for (Map.Entry<String, String> entry : linkedNotes.entrySet()) {
+            Long noteId = parseNoteId(entry.getValue());
+            if (noteId == null) {
+                vanishedPaths.add(entry.getKey());
+                continue;
+            }
+            pathsByNoteId.put(noteId, entry.getKey());
+            if (!taggedNotes.contains(noteId)) {
+                untaggedNoteIds.add(noteId);
+            }
+        }
+
+        // Tracked notes missing from the tag query were deleted, had the tag removed or predate project tags
+        indicator.setText("Checking missing notes");
+        Map<Long, JsonObject> untaggedInfo = fetchNotesInfo(ankiConnectService, untaggedNoteIds, indicator, background);
+        if (untaggedInfo == null) {
+            return null;
+        }
+        List<Long> retagNoteIds = new ArrayList<>();
+        for (Long noteId : untaggedNoteIds) {
+            if (untaggedInfo.containsKey(noteId)) {
+                retagNoteIds.add(noteId);
+            } else {
+                vanishedPaths.add(pathsByNoteId.get(noteId));
+            }
+        }
+
+        // Notes of this project nobody refers to may still belong to a file that lost its row's note ID
+        List<Long> orphanNoteIds = new ArrayList<>();
+        for (Long noteId : taggedNotes) {
+            if (!pathsByNoteId.containsKey(noteId)) {
+                orphanNoteIds.add(noteId);
+            }
+        }
+        Map<String, String> relinkedNotes = new HashMap<>();
+        if (!orphanNoteIds.isEmpty()) {
+            indicator.setText("Matching untracked notes");
+            relinkOrphans(ankiConnectService, fileStatusService, orphanNoteIds, vanishedPaths, relinkedNotes, indicator, background);
+        }
+        vanishedPaths.removeAll(relinkedNotes.keySet());
+
+        // Before retagging, which moves the modification times of those notes
+        indicator.setText("Checking for edits made in Anki");
+        AnkiChangeDetector changeDetector = AnkiChangeDetector.getInstance(project);
+        Integer conflicts = changeDetector.detectConflicts(indicator);
+        result.conflicts = conflicts != null ? conflicts : 0;
+
+        // Repair both sides with batched operations
+        indicator.setText("Repairing");
+        fileStatusService.unlinkNotes(vanishedPaths);
+        fileStatusService.linkNotes(relinkedNotes);
+        if (!retagNoteIds.isEmpty() && ankiConnectService.addTags(retagNoteIds, PLUGIN_TAG + " " + projectTag)) {
+            result.retagged = retagNoteIds.size();
+        }
+        List<Long> rewrittenNoteIds = new ArrayList<>(retagNoteIds);
+        relinkedNotes.values().forEach(noteId -> rewrittenNoteIds.add(Long.parseLong(noteId)));
+        changeDetector.recordModTimes(rewrittenNoteIds);
+
+        result.unlinked = vanishedPaths.size();
+        result.relinked = relinkedNotes.size();
+        result.orphanNoteIds.addAll(orphanNoteIds);
+        LOG.info("Reconciled " + result.trackedNotes + " tracked notes with " + result.ankiNotes + " Anki notes: "
+                + result.unlinked + " unlinked, " + result.relinked + " relinked, " + result.retagged + " retagged, "
+                + result.conflicts + " edited in Anki, " + result.orphanNoteIds.size() + " orphans");
+        return result;
+    }
+
+    /**
+     * Matches orphan notes to unlinked files. A note carrying a note key tag, as exported or headless notes do,
+     * only matches the file with that key. Other notes match by comparing their tags with the tags the file
+     * would get; signatures shared by several files or several orphans are ambiguous and never matched,
+     * as relinking the wrong note would make the next sync overwrite another file's card.
+     * Matched notes are removed from {@code orphanNoteIds} and added to {@code relinkedNotes}.
+     */
+    private void relinkOrphans(AnkiConnectService ankiConnectService,
+                               DatabaseFileStatusService fileStatusService,
+                               List<Long> orphanNoteIds,
+                               List<String> vanishedPaths,
+                               Map<String, String> relinkedNotes,
+                               ProgressIndicator indicator,
+                               boolean background) {
+        String basePath = project.getBasePath();
+        Map<String, String> pathsByKey = new HashMap<>();
+        Map<String, String> pathsBySignature = new HashMap<>();
+        Set<String> ambiguousSignatures = new HashSet<>();
+        List<String> candidates = new ArrayList<>(fileStatusService.getUnlinkedFilePaths());
+        candidates.addAll(vanishedPaths);
+        for (String path : candidates) {
+            // Keys of older versions are still on notes they exported
+            pathsByKey.put(NoteMappingUtil.getLegacyNoteKey(basePath, path), path);
+            pathsByKey.put(NoteMappingUtil.getNoteKey(basePath, path), path);
+            String signature = tagSignature(NoteMappingUtil.getTagsFromFilePath(basePath, path));
+            String previous = pathsBySignature.putIfAbsent(signature, path);
+            if (previous != null && !previous.equals(path)) {
+                ambiguousSignatures.add(signature);
+            }
+        }
+        if (pathsByKey.isEmpty()) {
+            return;
+        }
+
+        Map<Long, JsonObject> orphanInfo = fetchNotesInfo(ankiConnectService, orphanNoteIds, indicator, background);
+        if (orphanInfo == null) {
+            return;
+        }
+        Map<Long, List<String>> orphanTags = new HashMap<>();
+        Set<String> orphanSignatures = new HashSet<>();
+        for (Long noteId : orphanNoteIds) {
+            JsonObject info = orphanInfo.get(noteId);
+            if (info == null || !info.has("tags")) {
+                continue;
+            }
+            List<String> tags = new ArrayList<>();
+            for (JsonElement tag : info.getAsJsonArray("tags")) {
+                tags.add(tag.getAsString());
+            }
+            orphanTags.put(noteId, tags);
+            if (noteKey(tags) == null && !orphanSignatures.add(tagSignature(tags))) {
+                ambiguousSignatures.add(tagSignature(tags));
+            }
+        }
+        ambiguousSignatures.forEach(pathsBySignature::remove);
+
+        Set<String> claimedPaths = new HashSet<>();
+        orphanNoteIds.removeIf(noteId -> {
+            List<String> tags = orphanTags.get(noteId);
+            if (tags == null) {
+                return false;
+            }
+            String key = noteKey(tags);
+            String path = key != null ? pathsByKey.get(key) : pathsBySignature.get(tagSignature(tags));
+            if (path == null || !claimedPaths.add(path)) {
+                return false;
+            }
+            relinkedNotes.put(path, String.valueOf(noteId));
+            return true;
+        });
+    }
+
+    /**
+     * @return The key of a note key tag, or null if the note has none
+     */
+    @Nullable
+    private static String noteKey(List<String> tags) {
+        for (String tag : tags) {
+            if (tag.regionMatches(true, 0, NoteMappingUtil.NOTE_KEY_TAG_PREFIX, 0, NoteMappingUtil.NOTE_KEY_TAG_PREFIX.length())) {
+                return tag.substring(NoteMappingUtil.NOTE_KEY_TAG_PREFIX.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fetches {@code notesInfo} in chunks. Between chunks, background runs yield to interactive work
+     * and are run again from the start once it is done; nothing has been written at this point.
+     *
+     * @return Map from note ID to note info for the notes that exist, or null if a request failed
+     */
+    @Nullable
+    private static Map<Long, JsonObject> fetchNotesInfo(AnkiConnectService ankiConnectService,
+                                                        List<Long> noteIds,
+                                                        ProgressIndicator indicator,
+                                                        boolean background) {
+        Map<Long, JsonObject> result = new HashMap<>();
+        for (int from = 0; from < noteIds.size(); from += NOTES_INFO_CHUNK_SIZE) {
+            indicator.checkCanceled();
+            if (background) {
+                SyncScheduler.getInstance().yieldToInteractive();
+            }
+            List<Long> chunk = noteIds.subList(from, Math.min(from + NOTES_INFO_CHUNK_SIZE, noteIds.size()));
+            JsonArray infos = ankiConnectService.notesInfo(chunk);
+            if (infos == null) {
+                return null;
+            }
+            for (JsonElement element : infos) {
+                if (element.isJsonObject() && element.getAsJsonObject().has("noteId")) {
+                    JsonObject info = element.getAsJsonObject();
+                    result.put(info.get("noteId").getAsLong(), info);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static String tagSignature(List<String> tags) {
+        List<String> normalized = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            String lower = tag.toLowerCase(Locale.ROOT);
+            if (!lower.startsWith(PLUGIN_TAG.toLowerCase(Locale.ROOT))) {
+                normalized.add(lower);
+            }
+        }
+        normalized.sort(null);
+        return String.join(" ", normalized);
+    }
+
+    @Nullable
+    private static Long parseNoteId(String noteId) {
+        try {
+            return Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static AnkiConnectService getAnkiConnectService() {
+        return ApplicationManager.getApplication().getService(AnkiConnectService.class);
+    }
+
+    /**
+     * Applies the reconciliation interval from the settings, cancelling any previous schedule
+     */
+    public synchronized void reschedule() {
+        if (scheduledRun != null) {
+            scheduledRun.cancel(false);
+            scheduledRun = null;
+        }
+
+        int minutes = Ideas2BrainSettings.getInstance().getState().reconcileIntervalMinutes;
+        if (minutes <= 0 || project.isDisposed()) {
+            return;
+        }
+        scheduledRun = AppExecutorUtil.getAppScheduledExecutorService()
+                .scheduleWithFixedDelay(this::reconcileOnSchedule, minutes, minutes, TimeUnit.MINUTES);
+    }
+
+    private void reconcileOnSchedule() {
+        if (project.isDisposed()) {
+            return;
+        }
+        // Queued as maintenance, so it waits for interactive syncs and a late duplicate is collapsed
+        SyncScheduler.getInstance().submit(SyncScheduler.Priority.MAINTENANCE, "reconcile:" + project.getLocationHash(), indicator -> {
+            if (!project.isDisposed()) {
+                reconcile(indicator, true);
+            }
+            return false;
+        }).exceptionally(e -> {
+            if (!(e instanceof ProcessCanceledException)) {
+                LOG.warn("Scheduled reconciliation failed", e);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (scheduledRun != null) {
+            scheduledRun.cancel(false);
+            scheduledRun = null;
+        }
+    }
+}
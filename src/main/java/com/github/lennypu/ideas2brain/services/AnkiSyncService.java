@@ -0,0 +1,324 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.JavaDoc2MarkDownUtil;
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Streams source files through rendering and into Anki.
+ * Files are pulled from the iterator only while fewer than a fixed number are being rendered,
+ * so memory stays flat regardless of how many files the iterator yields.
+ * Rendered notes are sent concurrently; how many requests are actually in flight is decided by the
+ * adaptive limiter in {@link AnkiConnectService}.
+ */
+@Service(Service.Level.PROJECT)
+public final class AnkiSyncService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(AnkiSyncService.class);
+    private static final String IN_FLIGHT_GAUGE = "queue.render.inFlight";
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+    /** Notes checked for edits in Anki with one modification time request before they are refreshed */
+    private static final int CONFLICT_CHECK_CHUNK_SIZE = 500;
+
+    private final Project project;
+    private final int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private final ExecutorService renderExecutor =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("Ideas2Brain Render", parallelism);
+    private final ExecutorService sendExecutor =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("Ideas2Brain Send", AnkiConnectService.MAX_CONCURRENT_REQUESTS);
+
+    public AnkiSyncService(Project project) {
+        this.project = project;
+    }
+
+    public static AnkiSyncService getInstance(Project project) {
+        return project.getService(AnkiSyncService.class);
+    }
+
+    /**
+     * Result counters of a sync run
+     */
+    public static final class SyncResult {
+        public int synced;
+        public int failed;
+        public int skipped;
+        /** Files left alone because their notes were edited in Anki */
+        public int conflicts;
+    }
+
+    /**
+     * Syncs every file produced by the iterator that is not already synced.
+     * Notes about to be refreshed are checked for edits made in Anki since their last sync, a chunk at a
+     * time, and the files of edited notes are skipped.
+     * Must be called from a background thread.
+     *
+     * @param files The files to sync, typically a lazy {@link com.github.lennypu.ideas2brain.utils.SourceFileIterator}
+     * @param indicator The progress indicator, checked for cancellation between files
+     * @return The result counters
+     */
+    public SyncResult sync(@NotNull Iterator<VirtualFile> files, @NotNull ProgressIndicator indicator) {
+        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        AnkiChangeDetector changeDetector = AnkiChangeDetector.getInstance(project);
+        SyncResult result = new SyncResult();
+        List<Long> writtenNoteIds = Collections.synchronizedList(new ArrayList<>());
+        int maxPendingSends = AnkiConnectService.MAX_CONCURRENT_REQUESTS * 2;
+        Deque<Future<?>> pendingSends = new ArrayDeque<>(maxPendingSends);
+        Consumer<RenderedFile> submit = rendered -> {
+            pendingSends.add(sendExecutor.submit(() -> ProgressManager.getInstance().runProcess(
+                    () -> send(rendered, ankiConnectService, fileStatusService, result, writtenNoteIds, indicator), indicator)));
+            if (pendingSends.size() >= maxPendingSends) {
+                ProgressIndicatorUtils.awaitWithCheckCanceled(pendingSends.poll());
+            }
+        };
+        // Rendered files whose notes are checked for edits in Anki before they are overwritten
+        Map<Long, RenderedFile> awaitingCheck = new LinkedHashMap<>();
+        Runnable checkAndSubmit = () -> {
+            if (awaitingCheck.isEmpty()) {
+                return;
+            }
+            changeDetector.detectConflicts(awaitingCheck.keySet(), indicator);
+            for (RenderedFile rendered : awaitingCheck.values()) {
+                if (fileStatusService.getFileStatus(rendered.file) == DatabaseFileStatusService.FileStatus.CONFLICT) {
+                    synchronized (result) {
+                        result.conflicts++;
+                    }
+                } else {
+                    submit.accept(rendered);
+                }
+            }
+            awaitingCheck.clear();
+        };
+
+        try {
+            forEachRendered(
+                    files,
+                    file -> {
+                        DatabaseFileStatusService.FileStatus status = fileStatusService.getFileStatus(file);
+                        if (status == DatabaseFileStatusService.FileStatus.SYNCED
+                                || status == DatabaseFileStatusService.FileStatus.CONFLICT) {
+                            synchronized (result) {
+                                if (status == DatabaseFileStatusService.FileStatus.CONFLICT) {
+                                    result.conflicts++;
+                                } else {
+                                    result.skipped++;
+                                }
+                            }
+                            return false;
+                        }
+                        return true;
+                    },
+                    rendered -> {
+                        Long noteId = parseNoteId(fileStatusService.getAnkiNoteId(rendered.file));
+                        if (noteId == null) {
+                            submit.accept(rendered);
+                            return;
+                        }
+                        awaitingCheck.put(noteId, rendered);
+                        if (awaitingCheck.size() >= CONFLICT_CHECK_CHUNK_SIZE) {
+                            indicator.setText("Checking for edits made in Anki");
+                            checkAndSubmit.run();
+                        }
+                    },
+                    indicator
+            );
+            checkAndSubmit.run();
+            while (!pendingSends.isEmpty()) {
+                ProgressIndicatorUtils.awaitWithCheckCanceled(pendingSends.poll());
+            }
+            indicator.setText("Recording note modification times");
+            changeDetector.recordModTimes(writtenNoteIds);
+        } finally {
+            // Only reached with pending sends on cancellation, running sends stop at their next request
+            for (Future<?> future : pendingSends) {
+                future.cancel(false);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Renders files on the render pool and hands the results to {@code sink} in iteration order.
+     * At most a fixed number of files are pulled from the iterator ahead of the sink.
+     *
+     * @param files The files to render
+     * @param filter Decides on the calling thread whether a file is rendered at all
+     * @param sink Receives each rendered file on the calling thread
+     * @param indicator The progress indicator, checked for cancellation between files
+     */
+    void forEachRendered(@NotNull Iterator<VirtualFile> files,
+                         @NotNull Predicate<VirtualFile> filter,
+                         @NotNull Consumer<RenderedFile> sink,
+                         @NotNull ProgressIndicator indicator) {
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        int window = parallelism * IN_FLIGHT_PER_THREAD;
+        Deque<Future<RenderedFile>> inFlight = new ArrayDeque<>(window);
+        indicator.setIndeterminate(true);
+        try {
+            while (files.hasNext()) {
+                indicator.checkCanceled();
+                VirtualFile file = files.next();
+                if (!filter.test(file)) {
+                    continue;
+                }
+
+                inFlight.add(renderExecutor.submit(() -> render(file)));
+                metrics.adjustGauge(IN_FLIGHT_GAUGE, 1);
+
+                if (inFlight.size() >= window) {
+                    sink.accept(await(inFlight.poll()));
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                sink.accept(await(inFlight.poll()));
+            }
+        } finally {
+            // Only reached with pending work on cancellation
+            for (Future<RenderedFile> future : inFlight) {
+                future.cancel(true);
+            }
+            metrics.adjustGauge(IN_FLIGHT_GAUGE, -inFlight.size());
+        }
+    }
+
+    private static RenderedFile await(Future<RenderedFile> future) {
+        SyncMetrics.getInstance().adjustGauge(IN_FLIGHT_GAUGE, -1);
+        return ProgressIndicatorUtils.awaitWithCheckCanceled(future);
+    }
+
+    private void send(RenderedFile rendered,
+                      AnkiConnectService ankiConnectService,
+                      DatabaseFileStatusService fileStatusService,
+                      SyncResult result,
+                      List<Long> writtenNoteIds,
+                      ProgressIndicator indicator) {
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        VirtualFile file = rendered.file;
+        indicator.setText2(file.getPath());
+
+        String noteId = null;
+        String existingNoteId = fileStatusService.getAnkiNoteId(file);
+        if (rendered.markdown != null && !rendered.markdown.isEmpty() && existingNoteId != null) {
+            // Modified after sync, refresh the existing note instead of adding a duplicate
+            if (ankiConnectService.updateNoteBack(existingNoteId, rendered.markdown)) {
+                noteId = existingNoteId;
+            } else if (!ankiConnectService.doesNoteExist(existingNoteId)) {
+                // The note was deleted in Anki, forget the stale ID and add the note again
+                fileStatusService.unlinkNotes(List.of(file.getPath()));
+                existingNoteId = null;
+            }
+        }
+        if (noteId == null && existingNoteId == null && rendered.markdown != null && !rendered.markdown.isEmpty()) {
+            String basePath = project.getBasePath();
+            String deckName = NoteMappingUtil.getDeckNameFromFilePath(basePath, file.getPath());
+            List<String> tags = NoteMappingUtil.getTagsFromFilePath(basePath, file.getPath());
+            noteId = ankiConnectService.addNote(deckName, file.getNameWithoutExtension(), rendered.markdown, tags, file.getPath());
+        }
+
+        if (noteId != null) {
+            fileStatusService.markAsSynced(file, noteId, rendered.markdown);
+            try {
+                writtenNoteIds.add(Long.parseLong(noteId));
+            } catch (NumberFormatException ignored) {
+                // Not a note created by AnkiConnect
+            }
+            metrics.incrementCounter("sync.files.synced");
+        } else {
+            fileStatusService.setFileStatus(file, DatabaseFileStatusService.FileStatus.ERROR);
+            metrics.incrementCounter("sync.files.failed");
+        }
+        synchronized (result) {
+            if (noteId != null) {
+                result.synced++;
+            } else {
+                result.failed++;
+            }
+            indicator.setText("Syncing to Anki: " + result.synced + " synced, " + result.failed + " failed");
+        }
+    }
+
+    @Nullable
+    private static Long parseNoteId(@Nullable String noteId) {
+        if (noteId == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
+            // Not a note created by AnkiConnect
+            return null;
+        }
+    }
+
+    private static RenderedFile render(VirtualFile file) {
+        try {
+            return new RenderedFile(file, renderSource(file.contentsToByteArray(), file.getPath()));
+        } catch (Exception e) {
+            LOG.warn("Failed to convert JavaDoc for: " + file.getPath(), e);
+            return new RenderedFile(file, null);
+        }
+    }
+
+    /**
+     * Renders a source file to Markdown; unchanged sources are served from the render cache without parsing
+     *
+     * @param source The file content
+     * @param path The file path, for diagnostics
+     * @return The Markdown
+     */
+    static String renderSource(byte[] source, String path) {
+        RenderCacheService renderCache = RenderCacheService.getInstance();
+        RenderCacheService.Key key = RenderCacheService.keyOf(source);
+        String markdown = renderCache.get(key);
+        if (markdown == null) {
+            markdown = JavaDoc2MarkDownUtil.JavaFileStream2MarkDownString(new ByteArrayInputStream(source), path);
+            renderCache.put(key, markdown);
+        }
+        return markdown;
+    }
+
+    @Override
+    public void dispose() {
+        renderExecutor.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
+    /**
+     * A file together with its Markdown, which is null if conversion failed
+     */
+    static final class RenderedFile {
+        final VirtualFile file;
+        final String markdown;
+
+        RenderedFile(VirtualFile file, String markdown) {
+            this.file = file;
+            this.markdown = markdown;
+        }
+    }
+}
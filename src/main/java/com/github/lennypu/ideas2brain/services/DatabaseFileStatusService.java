@@ -1,5 +1,9 @@
 package com.github.lennypu.ideas2brain.services;
 
+import com.github.lennypu.ideas2brain.jfr.StatusWriteEvent;
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
@@ -7,30 +11,48 @@ import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.Nullable;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 /**
  * Database-backed service for tracking file sync status with Anki
  */
 @Service(Service.Level.PROJECT)
-public final class DatabaseFileStatusService {
+public final class DatabaseFileStatusService implements Disposable {
     private static final Logger LOG = Logger.getInstance(DatabaseFileStatusService.class);
+    public static final String COMMITS_COUNTER = "db.commits";
+    /** Version of the recorded note keys, 2 since they include the project identifier */
+    private static final String NOTE_KEY_VERSION_META = "noteKeyVersion";
+    private static final String NOTE_KEY_VERSION = "2";
+    /** IDs bound per IN list, well below the parameter limits of H2 */
+    private static final int IN_CHUNK_SIZE = 1000;
     
     private final Project project;
     private Connection connection;
-    private final Map<String, FileStatus> cache = new HashMap<>();
+    private final Map<String, FileStatus> cache = new ConcurrentHashMap<>();
+    private final DirectoryStatusRollup rollup = new DirectoryStatusRollup();
     
     public enum FileStatus {
         NOT_SYNCED,
         SYNCED,
         MODIFIED_AFTER_SYNC,
-        ERROR
+        ERROR,
+        /** The note was edited in Anki since the last sync, so a sync would overwrite that edit */
+        CONFLICT
     }
     
     public DatabaseFileStatusService(Project project) {
         this.project = project;
         initializeDatabase();
+        migrateNoteKeys();
         loadCache();
     }
     
@@ -40,15 +62,11 @@ public final class DatabaseFileStatusService {
     
     private void initializeDatabase() {
         try {
-            String dbPath = project.getBasePath() + "/.idea/ideas2brain.db";
-            String url = "jdbc:h2:" + dbPath + ";DB_CLOSE_ON_EXIT=FALSE";
-            try {
-                Class.forName("org.h2.Driver");
-            } catch (ClassNotFoundException e) {
-                LOG.error("H2 driver not found", e);
+            // The store manager owns the connection and shares one cache budget across projects
+            connection = StatusStoreManager.getInstance().open(project);
+            if (connection == null) {
                 return;
             }
-            connection = DriverManager.getConnection(url, "sa", "");
             
             String createTableSQL = """
                 CREATE TABLE IF NOT EXISTS file_status (
@@ -61,15 +79,85 @@ public final class DatabaseFileStatusService {
             
             try (Statement stmt = connection.createStatement()) {
                 stmt.execute(createTableSQL);
+                // Stable identifiers written by the offline export, used to link imported notes
+                stmt.execute("ALTER TABLE file_status ADD COLUMN IF NOT EXISTS note_key VARCHAR(64)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_file_status_note_key ON file_status(note_key)");
+                // File size and modification stamp when the row was last synced, compared at startup
+                stmt.execute("ALTER TABLE file_status ADD COLUMN IF NOT EXISTS synced_size BIGINT");
+                stmt.execute("ALTER TABLE file_status ADD COLUMN IF NOT EXISTS synced_stamp BIGINT");
+                // Markdown of the last sync, indexed for the tool window search
+                stmt.execute("ALTER TABLE file_status ADD COLUMN IF NOT EXISTS markdown CLOB");
+                // Anki's modification time of the note after the plugin last wrote it, polled to detect edits in Anki
+                stmt.execute("ALTER TABLE file_status ADD COLUMN IF NOT EXISTS anki_mod BIGINT");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_file_status_anki_note_id ON file_status(anki_note_id)");
+                // Filtering and sorting of the tracked files table
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_file_status_status_path ON file_status(status, file_path)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_file_status_last_modified ON file_status(last_modified)");
+                stmt.execute("""
+                    CREATE TABLE IF NOT EXISTS sync_meta (
+                        meta_key VARCHAR(100) PRIMARY KEY,
+                        meta_value VARCHAR(1000)
+                    )
+                    """);
             }
             
-            LOG.info("Database initialized at: " + dbPath);
+            LOG.info("Database initialized for: " + project.getName());
             
         } catch (SQLException e) {
             LOG.error("Failed to initialize database", e);
         }
     }
     
+    /**
+     * Rewrites note keys recorded before the project identifier was part of the key, once per database
+     */
+    private void migrateNoteKeys() {
+        if (connection == null || NOTE_KEY_VERSION.equals(getMeta(NOTE_KEY_VERSION_META))) {
+            return;
+        }
+        
+        String basePath = project.getBasePath();
+        if (basePath == null) {
+            return;
+        }
+        Map<String, String> noteKeysByPath = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT file_path FROM file_status WHERE note_key IS NOT NULL")) {
+            while (rs.next()) {
+                String filePath = rs.getString("file_path");
+                noteKeysByPath.put(filePath, NoteMappingUtil.getNoteKey(basePath, filePath));
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load note keys for migration", e);
+            return;
+        }
+        
+        String updateSQL = "UPDATE file_status SET note_key = ? WHERE file_path = ?";
+        String upsertSQL = "MERGE INTO sync_meta (meta_key, meta_value) VALUES (?, ?)";
+        boolean committed = executeInTransaction("migrateNoteKeys", conn -> {
+            int updated = 0;
+            if (!noteKeysByPath.isEmpty()) {
+                try (PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                    for (Map.Entry<String, String> entry : noteKeysByPath.entrySet()) {
+                        pstmt.setString(1, entry.getValue());
+                        pstmt.setString(2, entry.getKey());
+                        pstmt.addBatch();
+                    }
+                    updated = sum(pstmt.executeBatch());
+                }
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(upsertSQL)) {
+                pstmt.setString(1, NOTE_KEY_VERSION_META);
+                pstmt.setString(2, NOTE_KEY_VERSION);
+                pstmt.executeUpdate();
+            }
+            return updated;
+        });
+        if (committed && !noteKeysByPath.isEmpty()) {
+            LOG.info("Migrated " + noteKeysByPath.size() + " note keys to project scoped keys");
+        }
+    }
+    
     private void loadCache() {
         if (connection == null) return;
         
@@ -82,7 +170,7 @@ public final class DatabaseFileStatusService {
                     String filePath = rs.getString("file_path");
                     String statusStr = rs.getString("status");
                     FileStatus status = FileStatus.valueOf(statusStr);
-                    cache.put(filePath, status);
+                    putStatus(filePath, status);
                 }
             }
             
@@ -96,17 +184,22 @@ public final class DatabaseFileStatusService {
             return FileStatus.NOT_SYNCED;
         }
         
-        String filePath = file.getPath();
-        return cache.getOrDefault(filePath, FileStatus.NOT_SYNCED);
+        // The cache mirrors the whole table, a file missing from it is untracked rather than a miss
+        FileStatus status = cache.get(file.getPath());
+        return status != null ? status : FileStatus.NOT_SYNCED;
     }
     
-    public void setFileStatus(VirtualFile file, FileStatus status) {
+    // Synchronized with executeInTransaction, which switches the shared connection out of auto-commit
+    public synchronized void setFileStatus(VirtualFile file, FileStatus status) {
         if (file == null || connection == null) {
             return;
         }
         
         String filePath = file.getPath();
         
+        StatusWriteEvent event = new StatusWriteEvent();
+        event.begin();
+        long start = System.nanoTime();
         try {
             String upsertSQL = """
                 MERGE INTO file_status (file_path, status, last_modified) 
@@ -116,13 +209,16 @@ public final class DatabaseFileStatusService {
             try (PreparedStatement pstmt = connection.prepareStatement(upsertSQL)) {
                 pstmt.setString(1, filePath);
                 pstmt.setString(2, status.name());
-                pstmt.executeUpdate();
+                event.rows = pstmt.executeUpdate();
             }
             
-            cache.put(filePath, status);
+            putStatus(filePath, status);
             
         } catch (SQLException e) {
             LOG.error("Failed to update file status for: " + filePath, e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+            commitWriteEvent(event, "setFileStatus", filePath);
         }
     }
     
@@ -143,6 +239,7 @@ public final class DatabaseFileStatusService {
         
         String filePath = file.getPath();
         
+        long start = System.nanoTime();
         try {
             String selectSQL = "SELECT anki_note_id FROM file_status WHERE file_path = ?";
             try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
@@ -155,66 +252,1064 @@ public final class DatabaseFileStatusService {
             }
         } catch (SQLException e) {
             LOG.error("Failed to get Anki note ID for: " + filePath, e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
         }
         
         return null;
     }
     
     public void markAsSynced(VirtualFile file, String noteId) {
+        markAsSynced(file, noteId, null);
+    }
+    
+    /**
+     * Marks a file as synced and stores the Markdown sent to Anki for searching
+     * 
+     * @param file The synced file
+     * @param noteId The Anki note ID
+     * @param markdown The rendered Markdown, or null if unknown
+     */
+    public synchronized void markAsSynced(VirtualFile file, String noteId, @Nullable String markdown) {
         if (file == null || connection == null) {
             return;
         }
         
         String filePath = file.getPath();
         
+        StatusWriteEvent event = new StatusWriteEvent();
+        event.begin();
+        long start = System.nanoTime();
         try {
             String upsertSQL = """
-                MERGE INTO file_status (file_path, status, anki_note_id, last_modified) 
-                VALUES (?, ?, ?, CURRENT_TIMESTAMP)
+                MERGE INTO file_status (file_path, status, anki_note_id, synced_size, synced_stamp, markdown, anki_mod, last_modified) 
+                VALUES (?, ?, ?, ?, ?, ?, NULL, CURRENT_TIMESTAMP)
                 """;
             
             try (PreparedStatement pstmt = connection.prepareStatement(upsertSQL)) {
                 pstmt.setString(1, filePath);
                 pstmt.setString(2, FileStatus.SYNCED.name());
                 pstmt.setString(3, noteId);
-                pstmt.executeUpdate();
+                pstmt.setLong(4, file.getLength());
+                pstmt.setLong(5, file.getTimeStamp());
+                pstmt.setString(6, markdown);
+                event.rows = pstmt.executeUpdate();
             }
             
-            cache.put(filePath, FileStatus.SYNCED);
+            putStatus(filePath, FileStatus.SYNCED);
+            NoteSearchIndex.getInstance(project).update(filePath, markdown);
             
         } catch (SQLException e) {
             LOG.error("Failed to mark file as synced: " + filePath, e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+            commitWriteEvent(event, "markAsSynced", filePath);
         }
     }
     
-    public void removeFile(VirtualFile file) {
+    public synchronized void removeFile(VirtualFile file) {
         if (file == null || connection == null) {
             return;
         }
         
         String filePath = file.getPath();
         
+        StatusWriteEvent event = new StatusWriteEvent();
+        event.begin();
+        long start = System.nanoTime();
         try {
             String deleteSQL = "DELETE FROM file_status WHERE file_path = ?";
             try (PreparedStatement pstmt = connection.prepareStatement(deleteSQL)) {
                 pstmt.setString(1, filePath);
-                pstmt.executeUpdate();
+                event.rows = pstmt.executeUpdate();
             }
             
-            cache.remove(filePath);
+            removeStatus(filePath);
+            NoteSearchIndex.getInstance(project).remove(filePath);
             
         } catch (SQLException e) {
             LOG.error("Failed to remove file: " + filePath, e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+            commitWriteEvent(event, "removeFile", filePath);
         }
     }
     
-    public void dispose() {
-        if (connection != null) {
+    /**
+     * Gets every file that is linked to an Anki note, in a single query
+     * 
+     * @return Map from file path to Anki note ID
+     */
+    public Map<String, String> getLinkedNotes() {
+        Map<String, String> result = new HashMap<>();
+        if (connection == null) {
+            return result;
+        }
+        
+        long start = System.nanoTime();
+        String selectSQL = "SELECT file_path, anki_note_id FROM file_status WHERE anki_note_id IS NOT NULL";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(selectSQL)) {
+            while (rs.next()) {
+                result.put(rs.getString("file_path"), rs.getString("anki_note_id"));
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load linked notes", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+        return result;
+    }
+    
+    /**
+     * Streams the stored Markdown of every synced file, without holding all of it in memory
+     * 
+     * @param consumer Receives the file path and its Markdown
+     */
+    public void forEachStoredMarkdown(BiConsumer<String, String> consumer) {
+        if (connection == null) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        String selectSQL = "SELECT file_path, markdown FROM file_status WHERE markdown IS NOT NULL";
+        try (Statement stmt = connection.createStatement()) {
+            stmt.setFetchSize(500);
+            try (ResultSet rs = stmt.executeQuery(selectSQL)) {
+                while (rs.next()) {
+                    consumer.accept(rs.getString("file_path"), rs.getString("markdown"));
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load stored Markdown", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+    }
+    
+    /**
+     * Size and modification stamp of a file when it was last synced
+     */
+    public static final class SyncedStamp {
+        public final String filePath;
+        public final long size;
+        public final long stamp;
+        
+        SyncedStamp(String filePath, long size, long stamp) {
+            this.filePath = filePath;
+            this.size = size;
+            this.stamp = stamp;
+        }
+    }
+    
+    /**
+     * Gets the recorded stamps of all synced files, in a single query.
+     * Rows synced before stamps were recorded are left out.
+     * 
+     * @return The stamps
+     */
+    public List<SyncedStamp> getSyncedStamps() {
+        List<SyncedStamp> result = new ArrayList<>();
+        if (connection == null) {
+            return result;
+        }
+        
+        long start = System.nanoTime();
+        String selectSQL = """
+            SELECT file_path, synced_size, synced_stamp FROM file_status 
+            WHERE status = ? AND synced_size IS NOT NULL AND synced_stamp IS NOT NULL
+            """;
+        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+            pstmt.setString(1, FileStatus.SYNCED.name());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(new SyncedStamp(rs.getString("file_path"), rs.getLong("synced_size"), rs.getLong("synced_stamp")));
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load synced stamps", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+        return result;
+    }
+    
+    /**
+     * Gets every tracked file that has no Anki note, in a single query
+     * 
+     * @return The file paths
+     */
+    public List<String> getUnlinkedFilePaths() {
+        List<String> result = new ArrayList<>();
+        if (connection == null) {
+            return result;
+        }
+        
+        long start = System.nanoTime();
+        String selectSQL = "SELECT file_path FROM file_status WHERE anki_note_id IS NULL";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(selectSQL)) {
+            while (rs.next()) {
+                result.add(rs.getString("file_path"));
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load unlinked files", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+        return result;
+    }
+    
+    /**
+     * Forgets the Anki notes of many files in one transaction, marking them as not synced
+     * 
+     * @param filePaths The files whose notes no longer exist
+     */
+    public void unlinkNotes(Collection<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            return;
+        }
+        
+        String updateSQL = "UPDATE file_status SET status = ?, anki_note_id = NULL, last_modified = CURRENT_TIMESTAMP WHERE file_path = ?";
+        boolean committed = executeInTransaction("unlinkNotes", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                for (String filePath : filePaths) {
+                    pstmt.setString(1, FileStatus.NOT_SYNCED.name());
+                    pstmt.setString(2, filePath);
+                    pstmt.addBatch();
+                }
+                return sum(pstmt.executeBatch());
+            }
+        });
+        
+        if (committed) {
+            filePaths.forEach(filePath -> putStatus(filePath, FileStatus.NOT_SYNCED));
+        }
+    }
+    
+    /**
+     * Links many files to existing Anki notes in one transaction, marking them as synced
+     * 
+     * @param noteIdsByPath Map from file path to Anki note ID
+     */
+    public void linkNotes(Map<String, String> noteIdsByPath) {
+        if (noteIdsByPath.isEmpty()) {
+            return;
+        }
+        
+        String upsertSQL = """
+            MERGE INTO file_status (file_path, status, anki_note_id, last_modified) 
+            VALUES (?, ?, ?, CURRENT_TIMESTAMP)
+            """;
+        boolean committed = executeInTransaction("linkNotes", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(upsertSQL)) {
+                for (Map.Entry<String, String> entry : noteIdsByPath.entrySet()) {
+                    pstmt.setString(1, entry.getKey());
+                    pstmt.setString(2, FileStatus.SYNCED.name());
+                    pstmt.setString(3, entry.getValue());
+                    pstmt.addBatch();
+                }
+                return sum(pstmt.executeBatch());
+            }
+        });
+        
+        if (committed) {
+            noteIdsByPath.keySet().forEach(filePath -> putStatus(filePath, FileStatus.SYNCED));
+        }
+    }
+    
+    /**
+     * Gets a value stored alongside the file statuses, such as the last synced revision
+     * 
+     * @param key The key
+     * @return The value, or null if none is stored
+     */
+    @Nullable
+    public String getMeta(String key) {
+        if (connection == null) {
+            return null;
+        }
+        
+        String selectSQL = "SELECT meta_value FROM sync_meta WHERE meta_key = ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+            pstmt.setString(1, key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getString("meta_value") : null;
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to read sync meta: " + key, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Stores a value alongside the file statuses
+     * 
+     * @param key The key
+     * @param value The value
+     */
+    public void setMeta(String key, String value) {
+        String upsertSQL = "MERGE INTO sync_meta (meta_key, meta_value) VALUES (?, ?)";
+        executeInTransaction("setMeta", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(upsertSQL)) {
+                pstmt.setString(1, key);
+                pstmt.setString(2, value);
+                return pstmt.executeUpdate();
+            }
+        });
+    }
+    
+    /**
+     * Records the stable note keys of exported files in one transaction.
+     * Files without a row are added as not synced, existing rows keep their status.
+     * 
+     * @param noteKeysByPath Map from file path to note key
+     */
+    public void recordNoteKeys(Map<String, String> noteKeysByPath) {
+        if (noteKeysByPath.isEmpty()) {
+            return;
+        }
+        
+        List<String> insertedPaths = new ArrayList<>();
+        String updateSQL = "UPDATE file_status SET note_key = ? WHERE file_path = ?";
+        String insertSQL = "INSERT INTO file_status (file_path, status, note_key, last_modified) VALUES (?, ?, ?, CURRENT_TIMESTAMP)";
+        boolean committed = executeInTransaction("recordNoteKeys", conn -> {
+            insertedPaths.clear();
+            List<Map.Entry<String, String>> entries = new ArrayList<>(noteKeysByPath.entrySet());
+            int[] updateCounts;
+            try (PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                for (Map.Entry<String, String> entry : entries) {
+                    pstmt.setString(1, entry.getValue());
+                    pstmt.setString(2, entry.getKey());
+                    pstmt.addBatch();
+                }
+                updateCounts = pstmt.executeBatch();
+            }
+            
+            try (PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
+                for (int i = 0; i < entries.size(); i++) {
+                    if (updateCounts[i] == 0) {
+                        Map.Entry<String, String> entry = entries.get(i);
+                        pstmt.setString(1, entry.getKey());
+                        pstmt.setString(2, FileStatus.NOT_SYNCED.name());
+                        pstmt.setString(3, entry.getValue());
+                        pstmt.addBatch();
+                        insertedPaths.add(entry.getKey());
+                    }
+                }
+                return sum(updateCounts) + (insertedPaths.isEmpty() ? 0 : sum(pstmt.executeBatch()));
+            }
+        });
+        
+        if (committed) {
+            insertedPaths.forEach(filePath -> putStatusIfAbsent(filePath, FileStatus.NOT_SYNCED));
+        }
+    }
+    
+    /**
+     * Gets the note keys of exported files that are not linked to an Anki note yet, in a single query
+     * 
+     * @return Map from note key to file path
+     */
+    public Map<String, String> getUnlinkedNoteKeys() {
+        Map<String, String> result = new HashMap<>();
+        if (connection == null) {
+            return result;
+        }
+        
+        long start = System.nanoTime();
+        String selectSQL = "SELECT file_path, note_key FROM file_status WHERE note_key IS NOT NULL AND anki_note_id IS NULL";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(selectSQL)) {
+            while (rs.next()) {
+                result.put(rs.getString("note_key"), rs.getString("file_path"));
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load note keys", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+        return result;
+    }
+    
+    /**
+     * Marks many synced files as modified after sync in one transaction.
+     * Files that are not currently synced are skipped without touching the database.
+     * 
+     * @param filePaths The changed files
+     */
+    public void markModified(Collection<String> filePaths) {
+        List<String> syncedPaths = new ArrayList<>();
+        for (String filePath : filePaths) {
+            if (cache.get(filePath) == FileStatus.SYNCED) {
+                syncedPaths.add(filePath);
+            }
+        }
+        if (updateStatuses("markModified", syncedPaths, FileStatus.MODIFIED_AFTER_SYNC)) {
+            syncedPaths.forEach(filePath -> putStatus(filePath, FileStatus.MODIFIED_AFTER_SYNC));
+        }
+    }
+    
+    /**
+     * Flags many files whose notes were edited in Anki as conflicts in one transaction.
+     * Only synced and modified files are flagged.
+     * 
+     * @param filePaths The files whose notes were edited in Anki
+     */
+    public void markConflicts(Collection<String> filePaths) {
+        List<String> trackedPaths = new ArrayList<>();
+        for (String filePath : filePaths) {
+            FileStatus status = cache.get(filePath);
+            if (status == FileStatus.SYNCED || status == FileStatus.MODIFIED_AFTER_SYNC) {
+                trackedPaths.add(filePath);
+            }
+        }
+        if (updateStatuses("markConflicts", trackedPaths, FileStatus.CONFLICT)) {
+            trackedPaths.forEach(filePath -> putStatus(filePath, FileStatus.CONFLICT));
+        }
+    }
+    
+    /**
+     * Gets every file flagged as a conflict, from the in-memory cache
+     * 
+     * @return The file paths
+     */
+    public List<String> getConflictPaths() {
+        List<String> conflictPaths = new ArrayList<>();
+        cache.forEach((filePath, status) -> {
+            if (status == FileStatus.CONFLICT) {
+                conflictPaths.add(filePath);
+            }
+        });
+        return conflictPaths;
+    }
+    
+    /**
+     * Turns conflicts back into pending modifications in one transaction, so the next sync overwrites
+     * the edits made in Anki
+     * 
+     * @param filePaths The conflicting files
+     */
+    public void clearConflicts(Collection<String> filePaths) {
+        List<String> conflictPaths = new ArrayList<>();
+        for (String filePath : filePaths) {
+            if (cache.get(filePath) == FileStatus.CONFLICT) {
+                conflictPaths.add(filePath);
+            }
+        }
+        if (conflictPaths.isEmpty()) {
+            return;
+        }
+        
+        // Without a recorded time the Anki edits are no longer reported, the sync then records a fresh one
+        String updateSQL = "UPDATE file_status SET status = ?, anki_mod = NULL, last_modified = CURRENT_TIMESTAMP WHERE file_path = ?";
+        boolean committed = executeInTransaction("clearConflicts", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                for (String filePath : conflictPaths) {
+                    pstmt.setString(1, FileStatus.MODIFIED_AFTER_SYNC.name());
+                    pstmt.setString(2, filePath);
+                    pstmt.addBatch();
+                }
+                return sum(pstmt.executeBatch());
+            }
+        });
+        
+        if (committed) {
+            conflictPaths.forEach(filePath -> putStatus(filePath, FileStatus.MODIFIED_AFTER_SYNC));
+        }
+    }
+    
+    /**
+     * Sets the status of many files in one transaction
+     * 
+     * @return true if there were files and the transaction was committed
+     */
+    private boolean updateStatuses(String operation, List<String> filePaths, FileStatus status) {
+        if (filePaths.isEmpty()) {
+            return false;
+        }
+        
+        String updateSQL = "UPDATE file_status SET status = ?, last_modified = CURRENT_TIMESTAMP WHERE file_path = ?";
+        return executeInTransaction(operation, conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                for (String filePath : filePaths) {
+                    pstmt.setString(1, status.name());
+                    pstmt.setString(2, filePath);
+                    pstmt.addBatch();
+                }
+                return sum(pstmt.executeBatch());
+            }
+        });
+    }
+    
+    /**
+     * Anki's modification time of a note as recorded after the plugin last wrote it
+     */
+    public static final class RecordedModTime {
+        public final String filePath;
+        public final long mod;
+        
+        RecordedModTime(String filePath, long mod) {
+            this.filePath = filePath;
+            this.mod = mod;
+        }
+    }
+    
+    /**
+     * Gets the recorded modification times of the notes of all synced and modified files, in a single query.
+     * Notes whose time is not known yet are left out.
+     * 
+     * @return Map from Anki note ID to recorded modification time
+     */
+    public Map<Long, RecordedModTime> getRecordedModTimes() {
+        Map<Long, RecordedModTime> result = new HashMap<>();
+        if (connection == null) {
+            return result;
+        }
+        
+        long start = System.nanoTime();
+        String selectSQL = """
+            SELECT file_path, anki_note_id, anki_mod FROM file_status 
+            WHERE anki_mod IS NOT NULL AND anki_note_id IS NOT NULL AND status IN (?, ?)
+            """;
+        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+            pstmt.setString(1, FileStatus.SYNCED.name());
+            pstmt.setString(2, FileStatus.MODIFIED_AFTER_SYNC.name());
+            try (ResultSet rs = pstmt.executeQuery()) {
+                readRecordedModTimes(rs, result);
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load recorded modification times", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+        return result;
+    }
+    
+    /**
+     * Gets the recorded modification times of some notes of synced and modified files,
+     * with one indexed query per chunk of IDs
+     * 
+     * @param noteIds The Anki note IDs
+     * @return Map from Anki note ID to recorded modification time, for the notes that have one
+     */
+    public Map<Long, RecordedModTime> getRecordedModTimes(Collection<Long> noteIds) {
+        Map<Long, RecordedModTime> result = new HashMap<>();
+        if (connection == null || noteIds.isEmpty()) {
+            return result;
+        }
+        
+        long start = System.nanoTime();
+        List<Long> ids = new ArrayList<>(noteIds);
+        try {
+            for (int from = 0; from < ids.size(); from += IN_CHUNK_SIZE) {
+                List<Long> chunk = ids.subList(from, Math.min(from + IN_CHUNK_SIZE, ids.size()));
+                String selectSQL = "SELECT file_path, anki_note_id, anki_mod FROM file_status "
+                        + "WHERE anki_note_id IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ") "
+                        + "AND anki_mod IS NOT NULL AND status IN (?, ?)";
+                try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+                    int index = 1;
+                    for (Long noteId : chunk) {
+                        pstmt.setString(index++, String.valueOf(noteId));
+                    }
+                    pstmt.setString(index++, FileStatus.SYNCED.name());
+                    pstmt.setString(index, FileStatus.MODIFIED_AFTER_SYNC.name());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        readRecordedModTimes(rs, result);
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load recorded modification times", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+        return result;
+    }
+    
+    private static void readRecordedModTimes(ResultSet rs, Map<Long, RecordedModTime> result) throws SQLException {
+        while (rs.next()) {
             try {
-                connection.close();
+                result.put(Long.parseLong(rs.getString("anki_note_id")),
+                        new RecordedModTime(rs.getString("file_path"), rs.getLong("anki_mod")));
+            } catch (NumberFormatException ignored) {
+                // Not a note created by AnkiConnect
+            }
+        }
+    }
+    
+    /**
+     * Records Anki's modification times of notes the plugin has just written, in one transaction
+     * 
+     * @param modTimesByNoteId Map from Anki note ID to modification time
+     */
+    public void recordAnkiModTimes(Map<Long, Long> modTimesByNoteId) {
+        if (modTimesByNoteId.isEmpty()) {
+            return;
+        }
+        
+        String updateSQL = "UPDATE file_status SET anki_mod = ? WHERE anki_note_id = ?";
+        executeInTransaction("recordAnkiModTimes", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                for (Map.Entry<Long, Long> entry : modTimesByNoteId.entrySet()) {
+                    pstmt.setLong(1, entry.getValue());
+                    pstmt.setString(2, String.valueOf(entry.getKey()));
+                    pstmt.addBatch();
+                }
+                return sum(pstmt.executeBatch());
+            }
+        });
+    }
+    
+    /**
+     * A row whose path was rewritten by {@link #movePaths}
+     */
+    public static final class MovedRow {
+        public final String oldPath;
+        public final String newPath;
+        @Nullable
+        public final String noteId;
+        
+        MovedRow(String oldPath, String newPath, @Nullable String noteId) {
+            this.oldPath = oldPath;
+            this.newPath = newPath;
+            this.noteId = noteId;
+        }
+    }
+    
+    /**
+     * Rewrites the path of a file, or of every file under a directory, in a single transaction.
+     * Stale rows already stored under the new path are replaced.
+     * 
+     * @param oldPath The old path of the file or directory
+     * @param newPath The new path of the file or directory
+     * @return The rows that were moved
+     */
+    public List<MovedRow> movePaths(String oldPath, String newPath) {
+        List<MovedRow> moved = new ArrayList<>();
+        int[] replaced = new int[1];
+        String selectSQL = "SELECT file_path, anki_note_id FROM file_status WHERE file_path = ? OR file_path LIKE ? ESCAPE '\\'";
+        String deleteSQL = "DELETE FROM file_status WHERE file_path = ? OR file_path LIKE ? ESCAPE '\\'";
+        String updateSQL = """
+            UPDATE file_status SET file_path = CAST(? AS VARCHAR(1000)) || SUBSTRING(file_path, CAST(? AS INT))
+            WHERE file_path = ? OR file_path LIKE ? ESCAPE '\\'
+            """;
+        
+        boolean committed = executeInTransaction("movePaths", conn -> {
+            moved.clear();
+            try (PreparedStatement select = conn.prepareStatement(selectSQL)) {
+                select.setString(1, oldPath);
+                select.setString(2, likeDescendants(oldPath));
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        String path = rs.getString("file_path");
+                        moved.add(new MovedRow(path, newPath + path.substring(oldPath.length()), rs.getString("anki_note_id")));
+                    }
+                }
+            }
+            if (moved.isEmpty()) {
+                return 0;
+            }
+            
+            try (PreparedStatement delete = conn.prepareStatement(deleteSQL)) {
+                delete.setString(1, newPath);
+                delete.setString(2, likeDescendants(newPath));
+                replaced[0] = delete.executeUpdate();
+            }
+            try (PreparedStatement update = conn.prepareStatement(updateSQL)) {
+                update.setString(1, newPath);
+                update.setInt(2, oldPath.length() + 1);
+                update.setString(3, oldPath);
+                update.setString(4, likeDescendants(oldPath));
+                return update.executeUpdate();
+            }
+        });
+        
+        if (!committed) {
+            return List.of();
+        }
+        if (replaced[0] > 0) {
+            removeFromCache(List.of(newPath));
+        }
+        for (MovedRow row : moved) {
+            FileStatus status = removeStatus(row.oldPath);
+            if (status != null) {
+                putStatus(row.newPath, status);
+            }
+        }
+        NoteSearchIndex.getInstance(project).moveTree(oldPath, newPath);
+        return moved;
+    }
+    
+    /**
+     * Removes a file, or every file under a directory, in a single transaction
+     * 
+     * @param path The path of the deleted file or directory
+     * @return The Anki note IDs of the removed rows
+     */
+    public List<String> removePaths(String path) {
+        return removePaths(List.of(path));
+    }
+    
+    /**
+     * Removes many files or directories, with every file under them, in a single transaction
+     * 
+     * @param paths The paths of the deleted files or directories
+     * @return The Anki note IDs of the removed rows, empty if the transaction failed
+     */
+    public List<String> removePaths(Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return List.of();
+        }
+        
+        List<String> noteIds = new ArrayList<>();
+        String selectSQL = "SELECT anki_note_id FROM file_status WHERE (file_path = ? OR file_path LIKE ? ESCAPE '\\') AND anki_note_id IS NOT NULL";
+        String deleteSQL = "DELETE FROM file_status WHERE file_path = ? OR file_path LIKE ? ESCAPE '\\'";
+        
+        boolean committed = executeInTransaction("removePaths", conn -> {
+            noteIds.clear();
+            try (PreparedStatement select = conn.prepareStatement(selectSQL);
+                 PreparedStatement delete = conn.prepareStatement(deleteSQL)) {
+                for (String path : paths) {
+                    select.setString(1, path);
+                    select.setString(2, likeDescendants(path));
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            noteIds.add(rs.getString("anki_note_id"));
+                        }
+                    }
+                    delete.setString(1, path);
+                    delete.setString(2, likeDescendants(path));
+                    delete.addBatch();
+                }
+                return sum(delete.executeBatch());
+            }
+        });
+        
+        if (!committed) {
+            return List.of();
+        }
+        removeFromCache(paths);
+        return noteIds;
+    }
+    
+    /**
+     * Drops removed paths and their descendants from the cache in one pass over it
+     */
+    private void removeFromCache(Collection<String> paths) {
+        Set<String> removed = new HashSet<>(paths);
+        List<String> keys = new ArrayList<>(paths);
+        for (String key : cache.keySet()) {
+            for (int slash = key.lastIndexOf('/'); slash > 0; slash = key.lastIndexOf('/', slash - 1)) {
+                if (removed.contains(key.substring(0, slash))) {
+                    keys.add(key);
+                    break;
+                }
+            }
+        }
+        keys.forEach(this::removeStatus);
+        NoteSearchIndex searchIndex = NoteSearchIndex.getInstance(project);
+        paths.forEach(searchIndex::removeTree);
+    }
+    
+    /**
+     * Columns the tracked files can be sorted by, each backed by an index
+     */
+    public enum TrackedFileSort {
+        PATH("file_path"),
+        STATUS("status"),
+        NOTE_ID("anki_note_id"),
+        LAST_CHANGE("last_modified");
+        
+        private final String column;
+        
+        TrackedFileSort(String column) {
+            this.column = column;
+        }
+    }
+    
+    /**
+     * Filter and order of a tracked files listing
+     */
+    public static final class TrackedFileQuery {
+        /** Only rows with this status, or null for all */
+        @Nullable
+        public final FileStatus status;
+        /** Rows whose path starts with this text if it starts with '/', else contains it; empty for all */
+        public final String pathFilter;
+        public final TrackedFileSort sort;
+        public final boolean ascending;
+        
+        public TrackedFileQuery(@Nullable FileStatus status, String pathFilter, TrackedFileSort sort, boolean ascending) {
+            this.status = status;
+            this.pathFilter = pathFilter;
+            this.sort = sort;
+            this.ascending = ascending;
+        }
+        
+        private String whereClause() {
+            StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+            if (status != null) {
+                where.append(" AND status = ?");
+            }
+            if (!pathFilter.isEmpty()) {
+                where.append(" AND file_path LIKE ? ESCAPE '\\'");
+            }
+            return where.toString();
+        }
+        
+        private int bind(PreparedStatement pstmt) throws SQLException {
+            int index = 1;
+            if (status != null) {
+                pstmt.setString(index++, status.name());
+            }
+            if (!pathFilter.isEmpty()) {
+                // A leading '/' anchors the filter, which lets the primary key index serve it
+                String escaped = escapeLike(pathFilter);
+                pstmt.setString(index++, pathFilter.startsWith("/") ? escaped + "%" : "%" + escaped + "%");
+            }
+            return index;
+        }
+    }
+    
+    /**
+     * A row of the tracked files table
+     */
+    public static final class TrackedFile {
+        public final String filePath;
+        public final FileStatus status;
+        @Nullable
+        public final String noteId;
+        /** When the row last changed, in epoch milliseconds */
+        public final long lastModified;
+        
+        TrackedFile(String filePath, FileStatus status, @Nullable String noteId, long lastModified) {
+            this.filePath = filePath;
+            this.status = status;
+            this.noteId = noteId;
+            this.lastModified = lastModified;
+        }
+    }
+    
+    /**
+     * Counts the tracked files matching a query
+     * 
+     * @param query The filter; its order is ignored
+     * @return The number of rows, or 0 if the query failed
+     */
+    public int countTrackedFiles(TrackedFileQuery query) {
+        if (connection == null) {
+            return 0;
+        }
+        
+        long start = System.nanoTime();
+        String selectSQL = "SELECT COUNT(*) FROM file_status" + query.whereClause();
+        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+            query.bind(pstmt);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to count tracked files", e);
+            return 0;
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+    }
+    
+    /**
+     * Fetches one window of the tracked files matching a query, sorted in the database
+     * 
+     * @param query The filter and order
+     * @param offset The index of the first row
+     * @param limit The maximum number of rows
+     * @return The rows, empty if the query failed
+     */
+    public List<TrackedFile> getTrackedFiles(TrackedFileQuery query, int offset, int limit) {
+        List<TrackedFile> result = new ArrayList<>(limit);
+        if (connection == null) {
+            return result;
+        }
+        
+        long start = System.nanoTime();
+        String direction = query.ascending ? " ASC" : " DESC";
+        // The path breaks ties, so windows of equal sort keys never overlap
+        String selectSQL = "SELECT file_path, status, anki_note_id, last_modified FROM file_status" + query.whereClause()
+                + " ORDER BY " + query.sort.column + direction
+                + (query.sort == TrackedFileSort.PATH ? "" : ", file_path" + direction)
+                + " LIMIT ? OFFSET ?";
+        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
+            int index = query.bind(pstmt);
+            pstmt.setInt(index++, limit);
+            pstmt.setInt(index, offset);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp lastModified = rs.getTimestamp("last_modified");
+                    result.add(new TrackedFile(
+                            rs.getString("file_path"),
+                            FileStatus.valueOf(rs.getString("status")),
+                            rs.getString("anki_note_id"),
+                            lastModified != null ? lastModified.getTime() : 0));
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error("Failed to load tracked files", e);
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+        }
+        return result;
+    }
+    
+    /**
+     * Stops tracking files in one transaction. Their notes stay in Anki, unlinked.
+     * 
+     * @param filePaths The files to forget
+     */
+    public void forgetFiles(Collection<String> filePaths) {
+        if (filePaths.isEmpty()) {
+            return;
+        }
+        
+        String deleteSQL = "DELETE FROM file_status WHERE file_path = ?";
+        boolean committed = executeInTransaction("forgetFiles", conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(deleteSQL)) {
+                for (String filePath : filePaths) {
+                    pstmt.setString(1, filePath);
+                    pstmt.addBatch();
+                }
+                return sum(pstmt.executeBatch());
+            }
+        });
+        
+        if (committed) {
+            NoteSearchIndex searchIndex = NoteSearchIndex.getInstance(project);
+            for (String filePath : filePaths) {
+                removeStatus(filePath);
+                searchIndex.remove(filePath);
+            }
+        }
+    }
+    
+    /**
+     * Gets the status counts of all tracked files below a directory, without walking it
+     * 
+     * @param directory The directory
+     * @return The counts
+     */
+    public DirectoryStatusRollup.Counts getDirectoryCounts(VirtualFile directory) {
+        if (directory == null || !directory.isDirectory()) {
+            return DirectoryStatusRollup.Counts.EMPTY;
+        }
+        synchronized (rollup) {
+            return rollup.get(directory.getPath());
+        }
+    }
+    
+    // All cache changes go through these methods to keep the directory rollups in step.
+    // The cache entry and the rollup change under one lock, so no reader sees one without the other.
+    
+    private void putStatus(String filePath, FileStatus status) {
+        synchronized (rollup) {
+            rollup.update(filePath, cache.put(filePath, status), status);
+        }
+    }
+    
+    private void putStatusIfAbsent(String filePath, FileStatus status) {
+        synchronized (rollup) {
+            if (cache.putIfAbsent(filePath, status) == null) {
+                rollup.update(filePath, null, status);
+            }
+        }
+    }
+    
+    @Nullable
+    private FileStatus removeStatus(String filePath) {
+        synchronized (rollup) {
+            FileStatus status = cache.remove(filePath);
+            rollup.update(filePath, status, null);
+            return status;
+        }
+    }
+    
+    /**
+     * Builds a LIKE pattern matching every path below a directory
+     */
+    private static String likeDescendants(String directoryPath) {
+        return escapeLike(directoryPath) + "/%";
+    }
+    
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+    
+    /**
+     * Unit of work run inside a database transaction
+     */
+    private interface SqlWork {
+        /**
+         * @return The number of affected rows
+         */
+        int run(Connection connection) throws SQLException;
+    }
+    
+    /**
+     * Runs a unit of work in a single transaction, rolling back on failure
+     * 
+     * @param operation The operation name for logging and Flight Recorder
+     * @param work The statements to run
+     * @return true if the transaction was committed
+     */
+    private synchronized boolean executeInTransaction(String operation, SqlWork work) {
+        if (connection == null) {
+            return false;
+        }
+        
+        StatusWriteEvent event = new StatusWriteEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            connection.setAutoCommit(false);
+            try {
+                event.rows = work.run(connection);
+                connection.commit();
+                return true;
             } catch (SQLException e) {
-                LOG.error("Failed to close database connection", e);
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
             }
+        } catch (SQLException e) {
+            LOG.error("Failed to run " + operation, e);
+            return false;
+        } finally {
+            SyncMetrics.getInstance().recordLatency(SyncMetrics.Stage.DB, start);
+            commitWriteEvent(event, operation, null);
         }
     }
+    
+    private static int sum(int[] updateCounts) {
+        int total = 0;
+        for (int count : updateCounts) {
+            // Drivers may report SUCCESS_NO_INFO (-2) instead of a row count
+            total += Math.max(count, 0);
+        }
+        return total;
+    }
+    
+    private static void commitWriteEvent(StatusWriteEvent event, String operation, String filePath) {
+        // Every write is one commit, in auto-commit mode or through executeInTransaction
+        SyncMetrics.getInstance().incrementCounter(COMMITS_COUNTER);
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.file = filePath;
+            event.commit();
+        }
+    }
+    
+    @Override
+    public void dispose() {
+        StatusStoreManager.getInstance().close(project);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.github.lennypu.ideas2brain.services;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Per-directory counts of tracked files by status.
+ * Every status change adjusts the counters of all ancestor directories of the file, so reading the
+ * counts of a directory never walks its subtree.
+ */
+public final class DirectoryStatusRollup {
+    private static final int STATUS_COUNT = DatabaseFileStatusService.FileStatus.values().length;
+
+    private final Map<String, AtomicIntegerArray> countsByDirectory = new ConcurrentHashMap<>();
+
+    /**
+     * Snapshot of the counts of one directory, including all subdirectories
+     */
+    public static final class Counts {
+        public static final Counts EMPTY = new Counts(new int[STATUS_COUNT]);
+
+        private final int[] counts;
+
+        private Counts(int[] counts) {
+            this.counts = counts;
+        }
+
+        public int get(@NotNull DatabaseFileStatusService.FileStatus status) {
+            return counts[status.ordinal()];
+        }
+
+        public int getTotal() {
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * @return The number of tracked files that still need a sync, leaving out conflicts that a sync skips
+         */
+        public int getPending() {
+            return getTotal() - get(DatabaseFileStatusService.FileStatus.SYNCED) - get(DatabaseFileStatusService.FileStatus.CONFLICT);
+        }
+    }
+
+    /**
+     * Applies a status change of a file to all its ancestor directories
+     *
+     * @param filePath The file
+     * @param oldStatus The previous status, or null if the file was not tracked
+     * @param newStatus The new status, or null if the file is no longer tracked
+     */
+    void update(@NotNull String filePath,
+                @Nullable DatabaseFileStatusService.FileStatus oldStatus,
+                @Nullable DatabaseFileStatusService.FileStatus newStatus) {
+        if (oldStatus == newStatus) {
+            return;
+        }
+        for (int end = filePath.lastIndexOf('/'); end > 0; end = filePath.lastIndexOf('/', end - 1)) {
+            AtomicIntegerArray counts = countsByDirectory.computeIfAbsent(
+                    filePath.substring(0, end), key -> new AtomicIntegerArray(STATUS_COUNT));
+            if (oldStatus != null) {
+                counts.decrementAndGet(oldStatus.ordinal());
+            }
+            if (newStatus != null) {
+                counts.incrementAndGet(newStatus.ordinal());
+            }
+        }
+    }
+
+    /**
+     * Gets the counts of a directory
+     *
+     * @param directoryPath The directory, without trailing separator
+     * @return The counts, empty if the directory contains no tracked files
+     */
+    @NotNull
+    public Counts get(@NotNull String directoryPath) {
+        AtomicIntegerArray counts = countsByDirectory.get(directoryPath);
+        if (counts == null) {
+            return Counts.EMPTY;
+        }
+        int[] snapshot = new int[STATUS_COUNT];
+        for (int i = 0; i < STATUS_COUNT; i++) {
+            snapshot[i] = Math.max(0, counts.get(i));
+        }
+        return new Counts(snapshot);
+    }
+}
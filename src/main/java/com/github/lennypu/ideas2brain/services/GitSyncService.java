@@ -0,0 +1,296 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.SourceFileIterator;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.execution.util.ExecUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the files to resync from the local git history instead of from VFS events, so changes made
+ * while the IDE was closed, for example by {@code git pull}, are picked up without a full rescan.
+ * The HEAD commit is recorded after every complete project sync; a git sync diffs the working tree
+ * against that commit and applies modifications, renames and deletions with the batched operations
+ * also used for VFS events.
+ */
+@Service(Service.Level.PROJECT)
+public final class GitSyncService {
+    private static final Logger LOG = Logger.getInstance(GitSyncService.class);
+    private static final String SYNCED_REVISION_KEY = "git.syncedRevision";
+    private static final int GIT_TIMEOUT_MILLIS = 60_000;
+
+    private final Project project;
+
+    public GitSyncService(Project project) {
+        this.project = project;
+    }
+
+    public static GitSyncService getInstance(Project project) {
+        return project.getService(GitSyncService.class);
+    }
+
+    /**
+     * Changed Java and Kotlin files between two states of the repository, as absolute paths
+     */
+    public static final class GitChanges {
+        public final Set<String> modified = new LinkedHashSet<>();
+        public final List<String[]> renamed = new ArrayList<>();
+        public final Set<String> deleted = new LinkedHashSet<>();
+    }
+
+    /**
+     * Outcome of a git sync
+     */
+    public static final class GitSyncResult {
+        public String fromRevision;
+        public int renamed;
+        /** Anki notes deleted because their files were deleted */
+        public int deleted;
+        /** Anki notes of deleted files that could not be deleted, their rows are kept for the next git sync */
+        public int deleteFailed;
+        public AnkiSyncService.SyncResult sync;
+    }
+
+    /**
+     * Records the current HEAD commit as fully synced. Does nothing outside a git repository.
+     */
+    public void recordSyncedRevision() {
+        String head = git("rev-parse", "HEAD");
+        if (head != null && !head.isBlank()) {
+            DatabaseFileStatusService.getInstance(project).setMeta(SYNCED_REVISION_KEY, head.trim());
+        }
+    }
+
+    /**
+     * Gets the commit recorded by the last complete sync
+     *
+     * @return The commit hash, or null if none was recorded
+     */
+    @Nullable
+    public String getSyncedRevision() {
+        return DatabaseFileStatusService.getInstance(project).getMeta(SYNCED_REVISION_KEY);
+    }
+
+    /**
+     * Syncs the files changed since the recorded revision.
+     * Must be called from a background thread.
+     *
+     * @param indicator The progress indicator
+     * @return The result, or null if no revision is recorded or git failed
+     */
+    @Nullable
+    public GitSyncResult syncChanges(@NotNull ProgressIndicator indicator) {
+        String revision = getSyncedRevision();
+        if (revision == null) {
+            return null;
+        }
+
+        indicator.setText("Collecting git changes since " + revision.substring(0, Math.min(8, revision.length())));
+        GitChanges changes = collectChanges(revision);
+        if (changes == null) {
+            return null;
+        }
+
+        GitSyncResult result = new GitSyncResult();
+        result.fromRevision = revision;
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+
+        // Renames become deck moves of the existing notes
+        indicator.setText("Moving renamed notes");
+        List<DatabaseFileStatusService.MovedRow> moved = new ArrayList<>();
+        for (String[] rename : changes.renamed) {
+            moved.addAll(fileStatusService.movePaths(rename[0], rename[1]));
+        }
+        if (!moved.isEmpty()) {
+            List<AnkiConnectService.NoteMove> moves = AnkiConnectService.NoteMove.forMovedRows(project.getBasePath(), moved);
+            List<Long> movedNoteIds = new ArrayList<>();
+            moves.forEach(move -> movedNoteIds.addAll(move.noteIds));
+            Map<Long, Map<String, String>> newFronts = new LinkedHashMap<>();
+            for (DatabaseFileStatusService.MovedRow row : moved) {
+                String newFront = nameWithoutExtension(row.newPath);
+                Long noteId = parseNoteId(row.noteId);
+                if (noteId != null && !newFront.equals(nameWithoutExtension(row.oldPath))) {
+                    newFronts.put(noteId, Map.of("Front", newFront));
+                }
+            }
+            AnkiChangeDetector.getInstance(project).runPluginChange(movedNoteIds, () -> {
+                ankiConnectService.moveNotes(moves);
+                if (ankiConnectService.updateNotesFields(newFronts) == null) {
+                    LOG.warn("Failed to update the front of " + newFronts.size() + " renamed notes");
+                }
+            });
+        }
+        result.renamed = moved.size();
+
+        // Rows are only dropped once their notes are gone, so a failed delete is retried by the next git sync
+        indicator.setText("Deleting removed notes");
+        Map<String, String> linkedNotes = fileStatusService.getLinkedNotes();
+        List<Long> deletedNoteIds = new ArrayList<>();
+        List<String> pathsWithoutNotes = new ArrayList<>();
+        for (String path : changes.deleted) {
+            Long noteId = parseNoteId(linkedNotes.get(path));
+            if (noteId != null) {
+                deletedNoteIds.add(noteId);
+            } else {
+                pathsWithoutNotes.add(path);
+            }
+        }
+        if (deletedNoteIds.isEmpty() || ankiConnectService.deleteNotes(deletedNoteIds)) {
+            fileStatusService.removePaths(changes.deleted);
+            result.deleted = deletedNoteIds.size();
+        } else {
+            fileStatusService.removePaths(pathsWithoutNotes);
+            result.deleteFailed = deletedNoteIds.size();
+            LOG.warn("Failed to delete " + deletedNoteIds.size() + " Anki notes of deleted files");
+        }
+
+        // Content changes, including renamed files that were also edited
+        fileStatusService.markModified(changes.modified);
+        List<VirtualFile> files = new ArrayList<>(changes.modified.size());
+        for (String path : changes.modified) {
+            VirtualFile file = LocalFileSystem.getInstance().refreshAndFindFileByPath(path);
+            if (file != null) {
+                files.add(file);
+            }
+        }
+        result.sync = AnkiSyncService.getInstance(project).sync(new SourceFileIterator(project, files), indicator);
+
+        if (result.sync.failed == 0 && result.deleteFailed == 0) {
+            recordSyncedRevision();
+        }
+        LOG.info("Git sync since " + revision + ": " + changes.modified.size() + " changed, "
+                + result.renamed + " moved, " + result.deleted + " deleted");
+        return result;
+    }
+
+    /**
+     * Diffs the working tree against a commit and lists untracked files
+     *
+     * @param revision The commit to compare with
+     * @return The changes, or null if git failed
+     */
+    @Nullable
+    GitChanges collectChanges(String revision) {
+        String topLevel = git("rev-parse", "--show-toplevel");
+        String diff = git("diff", "--name-status", "-M", "-z", revision, "--");
+        String untracked = git("ls-files", "--others", "--exclude-standard", "-z");
+        if (topLevel == null || diff == null || untracked == null) {
+            return null;
+        }
+        String root = topLevel.trim();
+
+        GitChanges changes = new GitChanges();
+        String[] tokens = diff.split("\0");
+        for (int i = 0; i + 1 < tokens.length; ) {
+            String status = tokens[i];
+            if (status.startsWith("R") && i + 2 < tokens.length) {
+                String oldPath = root + "/" + tokens[i + 1];
+                String newPath = root + "/" + tokens[i + 2];
+                if (isJavaOrKotlinPath(oldPath) && isJavaOrKotlinPath(newPath)) {
+                    changes.renamed.add(new String[]{oldPath, newPath});
+                    if (!status.equals("R100")) {
+                        changes.modified.add(newPath);
+                    }
+                } else if (isJavaOrKotlinPath(oldPath)) {
+                    changes.deleted.add(oldPath);
+                } else if (isJavaOrKotlinPath(newPath)) {
+                    changes.modified.add(newPath);
+                }
+                i += 3;
+            } else if (status.startsWith("C") && i + 2 < tokens.length) {
+                addChange(changes, "A", root + "/" + tokens[i + 2]);
+                i += 3;
+            } else {
+                addChange(changes, status, root + "/" + tokens[i + 1]);
+                i += 2;
+            }
+        }
+        for (String path : untracked.split("\0")) {
+            if (!path.isEmpty()) {
+                addChange(changes, "A", root + "/" + path);
+            }
+        }
+        return changes;
+    }
+
+    private static void addChange(GitChanges changes, String status, String path) {
+        if (!isJavaOrKotlinPath(path)) {
+            return;
+        }
+        if (status.startsWith("D")) {
+            changes.deleted.add(path);
+        } else {
+            changes.modified.add(path);
+        }
+    }
+
+    private static boolean isJavaOrKotlinPath(String path) {
+        return path.endsWith(".java") || path.endsWith(".kt");
+    }
+
+    @Nullable
+    private static Long parseNoteId(@Nullable String noteId) {
+        if (noteId == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
+            // Not a note created by AnkiConnect
+            return null;
+        }
+    }
+
+    private static String nameWithoutExtension(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Runs git in the project directory
+     *
+     * @return The standard output, or null if git is missing or failed
+     */
+    @Nullable
+    private String git(String... args) {
+        String basePath = project.getBasePath();
+        if (basePath == null) {
+            return null;
+        }
+
+        GeneralCommandLine commandLine = new GeneralCommandLine("git")
+                .withParameters(args)
+                .withWorkDirectory(basePath)
+                .withCharset(StandardCharsets.UTF_8);
+        try {
+            ProcessOutput output = ExecUtil.execAndGetOutput(commandLine, GIT_TIMEOUT_MILLIS);
+            if (output.getExitCode() != 0 || output.isTimeout()) {
+                LOG.warn("git " + String.join(" ", args) + " failed: " + output.getStderr());
+                return null;
+            }
+            return output.getStdout();
+        } catch (ExecutionException e) {
+            LOG.warn("Failed to run git", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Syncs a directory tree to Anki without a project, for command-line runs on CI or very large repositories.
+ * <p>
+ * Files are rendered in batches on all cores and each batch is sent with a handful of batched requests:
+ * one {@code multi} looking up existing notes by their key tag, one {@code multi} updating those and one
+ * {@code addNotes} for the rest. Only a bounded number of batches is in memory at once. Notes carry the
+ * same deck, tags and key tag as exported notes, so reruns update them in place.
+ * <p>
+ * Note keys and the project tag depend on the project identifier, so it is always given explicitly and
+ * never generated: a fresh checkout would otherwise get a new identifier and duplicate every note.
+ */
+public final class HeadlessSyncRunner {
+    private static final Logger LOG = Logger.getInstance(HeadlessSyncRunner.class);
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    private static final Set<String> SKIPPED_DIRECTORIES = Set.of("build", "out", "target", "node_modules");
+
+    private final Path root;
+    private final int batchSize;
+    private final int renderThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * @param root The directory tree to sync
+     * @param projectId The project identifier, the same as in the IDE's {@code .idea/ideas2brain.id} to share its notes
+     * @param batchSize The number of files per batch
+     * @throws IllegalArgumentException If the project identifier is not valid
+     */
+    public HeadlessSyncRunner(@NotNull Path root, @NotNull String projectId, int batchSize) {
+        this.root = root.toAbsolutePath().normalize();
+        this.batchSize = Math.max(1, batchSize);
+        NoteMappingUtil.setProjectId(this.root.toString(), projectId);
+    }
+
+    /**
+     * Counters and timings of a run
+     */
+    public static final class Report {
+        public int files;
+        public final AtomicInteger added = new AtomicInteger();
+        public final AtomicInteger updated = new AtomicInteger();
+        /** Files without Markdown, notes Anki rejected and notes of failed requests */
+        public final AtomicInteger failed = new AtomicInteger();
+        public final AtomicInteger batches = new AtomicInteger();
+        public long walkMillis;
+        public long wallMillis;
+        /** Summed over all render threads */
+        public final AtomicLong renderNanos = new AtomicLong();
+        /** Summed over all send threads */
+        public final AtomicLong sendNanos = new AtomicLong();
+
+        /**
+         * @return true if every file was synced
+         */
+        public boolean isClean() {
+            return failed.get() == 0;
+        }
+    }
+
+    /**
+     * Runs the sync on the calling thread
+     *
+     * @return The report
+     * @throws IOException If the tree cannot be walked or AnkiConnect is unreachable
+     */
+    public Report run() throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report();
+        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+        if (!ankiConnectService.isAnkiConnectAvailable()) {
+            throw new IOException("AnkiConnect is not available at " + AnkiConnectService.getEndpoint());
+        }
+
+        List<Path> files = collectSourceFiles();
+        report.files = files.size();
+        report.walkMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.info("Syncing " + files.size() + " files under " + root);
+
+        ExecutorService renderExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Ideas2Brain Headless Render", renderThreads);
+        ExecutorService sendExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                "Ideas2Brain Headless Send", AnkiConnectService.MAX_CONCURRENT_REQUESTS);
+        // Bounds rendered notes held in memory while sends catch up
+        Semaphore batchesInFlight = new Semaphore(renderThreads * 2);
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+        String projectTag = NoteMappingUtil.getProjectTag(root.toString());
+        try {
+            for (int from = 0; from < files.size(); from += batchSize) {
+                List<Path> batch = files.subList(from, Math.min(from + batchSize, files.size()));
+                batchesInFlight.acquire();
+                pending.add(CompletableFuture
+                        .supplyAsync(() -> renderBatch(batch, report), renderExecutor)
+                        .thenAcceptAsync(notes -> sendBatch(notes, projectTag, ankiConnectService, report), sendExecutor)
+                        .whenComplete((ignored, error) -> {
+                            batchesInFlight.release();
+                            if (error != null) {
+                                LOG.warn("Batch failed", error);
+                                report.failed.addAndGet(batch.size());
+                            }
+                        }));
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).exceptionally(error -> null).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } finally {
+            renderExecutor.shutdownNow();
+            sendExecutor.shutdownNow();
+        }
+
+        report.wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.info("Headless sync of " + report.files + " files took " + report.wallMillis + " ms: "
+                + report.added + " added, " + report.updated + " updated, " + report.failed + " failed");
+        return report;
+    }
+
+    /**
+     * Builds the machine-readable report
+     */
+    public JsonObject toJson(@NotNull Report report) {
+        JsonObject json = new JsonObject();
+        json.addProperty("root", root.toString());
+        json.addProperty("projectId", NoteMappingUtil.getProjectId(root.toString()));
+        json.addProperty("endpoint", AnkiConnectService.getEndpoint());
+        json.addProperty("renderThreads", renderThreads);
+        json.addProperty("batchSize", batchSize);
+        json.addProperty("files", report.files);
+        json.addProperty("added", report.added.get());
+        json.addProperty("updated", report.updated.get());
+        json.addProperty("failed", report.failed.get());
+        json.addProperty("batches", report.batches.get());
+
+        JsonObject timings = new JsonObject();
+        timings.addProperty("wallMillis", report.wallMillis);
+        timings.addProperty("walkMillis", report.walkMillis);
+        timings.addProperty("renderMillis", TimeUnit.NANOSECONDS.toMillis(report.renderNanos.get()));
+        timings.addProperty("sendMillis", TimeUnit.NANOSECONDS.toMillis(report.sendNanos.get()));
+        json.add("timings", timings);
+        json.add("metrics", SyncMetrics.getInstance().toJson());
+        return json;
+    }
+
+    private List<Path> collectSourceFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = dir.getFileName() != null ? dir.getFileName().toString() : "";
+                if (!dir.equals(root) && (name.startsWith(".") || SKIPPED_DIRECTORIES.contains(name))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && (name.endsWith(".java") || name.endsWith(".kt"))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // Stable batches make reruns comparable
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * A rendered file ready to be sent
+     */
+    private static final class PendingNote {
+        final String noteKey;
+        final String legacyNoteKey;
+        final AnkiConnectService.NewNote note;
+
+        PendingNote(String noteKey, String legacyNoteKey, AnkiConnectService.NewNote note) {
+            this.noteKey = noteKey;
+            this.legacyNoteKey = legacyNoteKey;
+            this.note = note;
+        }
+    }
+
+    private List<PendingNote> renderBatch(List<Path> batch, Report report) {
+        long start = System.nanoTime();
+        String basePath = root.toString();
+        List<PendingNote> notes = new ArrayList<>(batch.size());
+        for (Path file : batch) {
+            String filePath = file.toString();
+            String markdown;
+            try {
+                markdown = AnkiSyncService.renderSource(Files.readAllBytes(file), filePath);
+            } catch (Exception e) {
+                LOG.warn("Failed to convert JavaDoc for: " + filePath, e);
+                markdown = null;
+            }
+            if (markdown == null || markdown.isEmpty()) {
+                report.failed.incrementAndGet();
+                continue;
+            }
+
+            String noteKey = NoteMappingUtil.getNoteKey(basePath, filePath);
+            List<String> tags = new ArrayList<>(NoteMappingUtil.getTagsFromFilePath(basePath, filePath));
+            tags.add(NoteMappingUtil.NOTE_KEY_TAG_PREFIX + noteKey);
+            String fileName = file.getFileName().toString();
+            notes.add(new PendingNote(noteKey, NoteMappingUtil.getLegacyNoteKey(basePath, filePath), new AnkiConnectService.NewNote(
+                    NoteMappingUtil.getDeckNameFromFilePath(basePath, filePath),
+                    fileName.substring(0, fileName.lastIndexOf('.')),
+                    markdown,
+                    tags)));
+        }
+        report.renderNanos.addAndGet(System.nanoTime() - start);
+        return notes;
+    }
+
+    private static void sendBatch(List<PendingNote> notes, String projectTag, AnkiConnectService ankiConnectService, Report report) {
+        long start = System.nanoTime();
+        try {
+            List<String> queries = new ArrayList<>(notes.size());
+            for (PendingNote note : notes) {
+                queries.add("tag:" + NoteMappingUtil.NOTE_KEY_TAG_PREFIX + note.noteKey);
+            }
+            List<List<Long>> existing = ankiConnectService.findNotesBatch(queries);
+            if (existing == null) {
+                report.failed.addAndGet(notes.size());
+                return;
+            }
+
+            // Notes sent before keys were scoped to a project carry the key of the relative path alone,
+            // they are looked up by it while no project has claimed them with its project tag
+            List<Integer> missing = new ArrayList<>();
+            List<String> legacyQueries = new ArrayList<>();
+            for (int i = 0; i < notes.size(); i++) {
+                if (existing.get(i).isEmpty()) {
+                    missing.add(i);
+                    legacyQueries.add("tag:" + NoteMappingUtil.NOTE_KEY_TAG_PREFIX + notes.get(i).legacyNoteKey
+                            + " -tag:" + NoteMappingUtil.PROJECT_TAG_PREFIX + "*");
+                }
+            }
+            List<List<Long>> legacy = legacyQueries.isEmpty() ? List.of() : ankiConnectService.findNotesBatch(legacyQueries);
+            if (legacy == null) {
+                report.failed.addAndGet(notes.size());
+                return;
+            }
+
+            Map<Long, String> updates = new LinkedHashMap<>();
+            List<AnkiConnectService.NoteMove> claims = new ArrayList<>();
+            List<AnkiConnectService.NewNote> additions = new ArrayList<>();
+            int legacyIndex = 0;
+            for (int i = 0; i < notes.size(); i++) {
+                PendingNote note = notes.get(i);
+                List<Long> noteIds = existing.get(i);
+                if (noteIds.isEmpty()) {
+                    noteIds = legacy.get(legacyIndex++);
+                    if (!noteIds.isEmpty()) {
+                        // Claim the note, so the next run finds it by its project scoped key
+                        AnkiConnectService.NoteMove claim = new AnkiConnectService.NoteMove(null,
+                                List.of(NoteMappingUtil.NOTE_KEY_TAG_PREFIX + note.legacyNoteKey),
+                                List.of(NoteMappingUtil.NOTE_KEY_TAG_PREFIX + note.noteKey, projectTag));
+                        claim.noteIds.add(noteIds.get(0));
+                        claims.add(claim);
+                    }
+                }
+                if (noteIds.isEmpty()) {
+                    additions.add(note.note);
+                } else {
+                    updates.put(noteIds.get(0), note.note.back);
+                }
+            }
+            if (!ankiConnectService.moveNotes(claims)) {
+                LOG.warn("Failed to retag " + claims.size() + " notes found by their legacy key");
+            }
+
+            int updated = ankiConnectService.updateNotesBack(updates);
+            report.updated.addAndGet(Math.max(updated, 0));
+            report.failed.addAndGet(updated < 0 ? updates.size() : updates.size() - updated);
+
+            List<String> added = ankiConnectService.addNotes(additions);
+            if (added == null) {
+                report.failed.addAndGet(additions.size());
+            } else {
+                int addedCount = (int) added.stream().filter(noteId -> noteId != null).count();
+                report.added.addAndGet(addedCount);
+                report.failed.addAndGet(additions.size() - addedCount);
+            }
+        } finally {
+            report.batches.incrementAndGet();
+            report.sendNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Application-wide plugin settings
+ */
+@Service(Service.Level.APP)
+@State(
+    name = "Ideas2BrainSettings",
+    storages = @Storage("ideas2brain.xml")
+)
+public final class Ideas2BrainSettings implements PersistentStateComponent<Ideas2BrainSettings.State> {
+    private State myState = new State();
+
+    public static Ideas2BrainSettings getInstance() {
+        return ApplicationManager.getApplication().getService(Ideas2BrainSettings.class);
+    }
+
+    public static class State {
+        /**
+         * Minutes between background reconciliations with Anki, 0 to disable
+         */
+        public int reconcileIntervalMinutes = 0;
+
+        /**
+         * AnkiConnect endpoint
+         */
+        public String ankiConnectUrl = "http://localhost:8765";
+
+        /**
+         * Whether files that need a sync are rendered ahead of time while the IDE is idle
+         */
+        public boolean preRenderInBackground = false;
+
+        /**
+         * Page cache of the status databases of all open projects together, in megabytes
+         */
+        public int statusStoreCacheMb = 32;
+
+        /**
+         * Rules mapping file locations to decks and tags, see {@code NoteMappingRules}
+         */
+        public String noteMappingRules = "";
+
+        /**
+         * Whether Markdown is rendered to HTML by the plugin and sent to the standard Basic note type,
+         * instead of to the Markdown Basic type rendered by an Anki add-on
+         */
+        public boolean renderHtmlLocally = false;
+    }
+
+    @Override
+    public @NotNull State getState() {
+        return myState;
+    }
+
+    @Override
+    public void loadState(@NotNull State state) {
+        myState = state;
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Removes the state file of the former XML-based status service.
+ * <p>
+ * Its statuses are not carried over: the old service stored fake note IDs, so none of its synced files
+ * could be updated or checked against Anki and each would have to be sent again, exactly like a file
+ * without a row. Its keys were also stored with path macros such as {@code $PROJECT_DIR$}, which never
+ * match the paths the status database is keyed by.
+ */
+public final class LegacyStatusMigration {
+    private static final Logger LOG = Logger.getInstance(LegacyStatusMigration.class);
+    private static final String LEGACY_FILE_NAME = "ideas2brain-file-status.xml";
+
+    private LegacyStatusMigration() {
+    }
+
+    /**
+     * Deletes the legacy state file of a project if it exists
+     *
+     * @param project The project
+     * @return true if a legacy file was deleted
+     */
+    public static boolean removeIfPresent(@NotNull Project project) {
+        String basePath = project.getBasePath();
+        if (basePath == null) {
+            return false;
+        }
+        Path legacyFile = Paths.get(basePath, ".idea", LEGACY_FILE_NAME);
+        try {
+            if (Files.deleteIfExists(legacyFile)) {
+                LOG.info("Deleted legacy file status state: " + legacyFile);
+                return true;
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to delete legacy file status state: " + legacyFile, e);
+        }
+        return false;
+    }
+}
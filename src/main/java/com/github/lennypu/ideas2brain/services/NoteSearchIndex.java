@@ -0,0 +1,392 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over the Markdown stored for synced files.
+ * <p>
+ * Every heading of a file's Markdown starts a section, one per documented member. Sections are
+ * tokenized into lower-case words and camel-case parts, and each term maps to the ascending IDs of
+ * the sections containing it. Terms are kept sorted, so every query word is matched as a prefix by
+ * scanning a small range of terms, which keeps as-you-type queries fast.
+ * <p>
+ * The index is loaded from the status database on first use and then updated as files are synced,
+ * moved and removed. Removed sections leave tombstones that are dropped by a rebuild once they make
+ * up half of the index.
+ */
+@Service(Service.Level.PROJECT)
+public final class NoteSearchIndex {
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MIN_DEAD_SECTIONS_FOR_REBUILD = 1000;
+    private static final int SNIPPET_LENGTH = 120;
+    /** An ATX heading, which starts a member's section */
+    private static final Pattern HEADING = Pattern.compile("#{1,6} ");
+
+    private final Project project;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Section> sections = new ArrayList<>();
+    private final Map<String, List<Integer>> sectionIdsByFile = new HashMap<>();
+    private final TreeMap<String, Postings> postings = new TreeMap<>();
+    private volatile boolean loaded;
+    private int deadSections;
+
+    public NoteSearchIndex(Project project) {
+        this.project = project;
+    }
+
+    public static NoteSearchIndex getInstance(Project project) {
+        return project.getService(NoteSearchIndex.class);
+    }
+
+    /**
+     * A matching section
+     */
+    public static final class SearchHit {
+        public final String filePath;
+        public final String member;
+        public final String snippet;
+
+        SearchHit(String filePath, String member, String snippet) {
+            this.filePath = filePath;
+            this.member = member;
+            this.snippet = snippet;
+        }
+    }
+
+    /**
+     * Finds the sections containing every word of the query, each word matched as a prefix.
+     * Sections whose member name matches come first. Loads the index on first use, so the first call
+     * should happen off the EDT.
+     *
+     * @param query The query
+     * @param limit The maximum number of hits
+     * @return The hits
+     */
+    @NotNull
+    public List<SearchHit> search(@NotNull String query, int limit) {
+        ensureLoaded();
+        List<String> words = new ArrayList<>(tokenize(query));
+        if (words.isEmpty()) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            BitSet matches = null;
+            for (String word : words) {
+                BitSet wordMatches = findSections(word);
+                if (matches == null) {
+                    matches = wordMatches;
+                } else {
+                    matches.and(wordMatches);
+                }
+                if (matches.isEmpty()) {
+                    return List.of();
+                }
+            }
+
+            List<SearchHit> nameHits = new ArrayList<>();
+            List<SearchHit> bodyHits = new ArrayList<>();
+            for (int id = matches.nextSetBit(0); id >= 0 && nameHits.size() < limit; id = matches.nextSetBit(id + 1)) {
+                Section section = sections.get(id);
+                if (section == null) {
+                    continue;
+                }
+                String member = section.member.toLowerCase(Locale.ROOT);
+                boolean nameMatch = words.stream().allMatch(member::contains);
+                if (nameMatch || bodyHits.size() < limit) {
+                    (nameMatch ? nameHits : bodyHits).add(
+                            new SearchHit(section.filePath, section.member, snippet(section.text, words.get(0))));
+                }
+            }
+
+            List<SearchHit> hits = new ArrayList<>(nameHits);
+            for (SearchHit hit : bodyHits) {
+                if (hits.size() >= limit) {
+                    break;
+                }
+                hits.add(hit);
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the sections of a file. Does nothing until the index has been loaded.
+     *
+     * @param filePath The file
+     * @param markdown Its Markdown, or null to remove it
+     */
+    public void update(@NotNull String filePath, @Nullable String markdown) {
+        lock.writeLock().lock();
+        try {
+            // Checked under the lock, so a change racing with the initial load is applied after it
+            if (!loaded) {
+                return;
+            }
+            removeLocked(filePath);
+            if (markdown != null) {
+                addLocked(filePath, markdown);
+            }
+            rebuildIfSparseLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(@NotNull String filePath) {
+        update(filePath, null);
+    }
+
+    /**
+     * Removes a file or every file below a directory
+     */
+    public void removeTree(@NotNull String path) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            for (String filePath : filesInTreeLocked(path)) {
+                removeLocked(filePath);
+            }
+            rebuildIfSparseLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves a file or every file below a directory to a new path, keeping their sections
+     */
+    public void moveTree(@NotNull String oldPath, @NotNull String newPath) {
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                return;
+            }
+            for (String filePath : filesInTreeLocked(newPath)) {
+                removeLocked(filePath);
+            }
+            for (String filePath : filesInTreeLocked(oldPath)) {
+                String movedPath = newPath + filePath.substring(oldPath.length());
+                List<Integer> ids = sectionIdsByFile.remove(filePath);
+                for (int id : ids) {
+                    sections.get(id).filePath = movedPath;
+                }
+                sectionIdsByFile.put(movedPath, ids);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!loaded) {
+                DatabaseFileStatusService.getInstance(project).forEachStoredMarkdown(this::addLocked);
+                loaded = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private BitSet findSections(String word) {
+        BitSet result = new BitSet(sections.size());
+        if (word.length() < MIN_PREFIX_LENGTH) {
+            Postings exact = postings.get(word);
+            if (exact != null) {
+                exact.addTo(result);
+            }
+            return result;
+        }
+        SortedMap<String, Postings> range = postings.subMap(word, word + Character.MAX_VALUE);
+        for (Postings termPostings : range.values()) {
+            termPostings.addTo(result);
+        }
+        return result;
+    }
+
+    private List<String> filesInTreeLocked(String path) {
+        String prefix = path + "/";
+        List<String> result = new ArrayList<>();
+        for (String filePath : sectionIdsByFile.keySet()) {
+            if (filePath.equals(path) || filePath.startsWith(prefix)) {
+                result.add(filePath);
+            }
+        }
+        return result;
+    }
+
+    private void addLocked(String filePath, String markdown) {
+        List<Integer> ids = new ArrayList<>();
+        String member = null;
+        StringBuilder text = new StringBuilder();
+        // Code blocks rendered from <pre> may hold lines such as "# comment" or "#include" that are no headings
+        boolean inFence = false;
+        for (String line : markdown.split("\\R")) {
+            if (line.startsWith("```")) {
+                inFence = !inFence;
+            }
+            if (!inFence && HEADING.matcher(line).lookingAt()) {
+                if (member != null) {
+                    ids.add(addSectionLocked(new Section(filePath, member, text.toString())));
+                }
+                member = line.replaceFirst("^#+\\s*", "");
+                text.setLength(0);
+            } else if (member != null) {
+                text.append(line).append('\n');
+            }
+        }
+        if (member != null) {
+            ids.add(addSectionLocked(new Section(filePath, member, text.toString())));
+        }
+        if (!ids.isEmpty()) {
+            sectionIdsByFile.put(filePath, ids);
+        }
+    }
+
+    private int addSectionLocked(Section section) {
+        int id = sections.size();
+        sections.add(section);
+        Set<String> terms = tokenize(section.member);
+        terms.addAll(tokenize(section.text));
+        for (String term : terms) {
+            postings.computeIfAbsent(term, key -> new Postings()).add(id);
+        }
+        return id;
+    }
+
+    private void removeLocked(String filePath) {
+        List<Integer> ids = sectionIdsByFile.remove(filePath);
+        if (ids == null) {
+            return;
+        }
+        for (int id : ids) {
+            sections.set(id, null);
+        }
+        deadSections += ids.size();
+    }
+
+    private void rebuildIfSparseLocked() {
+        if (deadSections < MIN_DEAD_SECTIONS_FOR_REBUILD || deadSections * 2 < sections.size()) {
+            return;
+        }
+        List<Section> live = new ArrayList<>(sections.size() - deadSections);
+        for (Section section : sections) {
+            if (section != null) {
+                live.add(section);
+            }
+        }
+        sections.clear();
+        sectionIdsByFile.clear();
+        postings.clear();
+        deadSections = 0;
+        for (Section section : live) {
+            sectionIdsByFile.computeIfAbsent(section.filePath, key -> new ArrayList<>()).add(addSectionLocked(section));
+        }
+    }
+
+    /**
+     * Splits text into lower-case words of letters and digits, adding the parts of camel-case words
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            boolean wordChar = i < length && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                addWord(terms, text.substring(start, i));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static void addWord(Set<String> terms, String word) {
+        terms.add(word.toLowerCase(Locale.ROOT));
+        int partStart = 0;
+        for (int i = 1; i < word.length(); i++) {
+            if (Character.isUpperCase(word.charAt(i)) && !Character.isUpperCase(word.charAt(i - 1))) {
+                terms.add(word.substring(partStart, i).toLowerCase(Locale.ROOT));
+                partStart = i;
+            }
+        }
+        if (partStart > 0) {
+            terms.add(word.substring(partStart).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static String snippet(String text, String word) {
+        for (String line : text.split("\n")) {
+            if (line.toLowerCase(Locale.ROOT).contains(word)) {
+                String trimmed = line.trim();
+                return trimmed.length() > SNIPPET_LENGTH ? trimmed.substring(0, SNIPPET_LENGTH) + "…" : trimmed;
+            }
+        }
+        int end = text.indexOf('\n');
+        String firstLine = (end < 0 ? text : text.substring(0, end)).trim();
+        return firstLine.length() > SNIPPET_LENGTH ? firstLine.substring(0, SNIPPET_LENGTH) + "…" : firstLine;
+    }
+
+    private static final class Section {
+        String filePath;
+        final String member;
+        final String text;
+
+        Section(String filePath, String member, String text) {
+            this.filePath = filePath;
+            this.member = member;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Ascending section IDs of one term
+     */
+    private static final class Postings {
+        private int[] ids = new int[2];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void addTo(BitSet set) {
+            for (int i = 0; i < size; i++) {
+                set.set(ids[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds synced files that were edited while the IDE was closed.
+ * The size and modification stamp recorded at sync time are compared with the file system
+ * attributes of every synced row, without reading any content; drifted files are marked as
+ * modified after sync in one batch.
+ * <p>
+ * Attributes are read from disk rather than from the VFS, whose cached values are only refreshed
+ * some time after the project opens.
+ */
+public final class OfflineChangeScanner {
+    private static final Logger LOG = Logger.getInstance(OfflineChangeScanner.class);
+
+    private OfflineChangeScanner() {
+    }
+
+    /**
+     * Scans the synced rows of a project. Must be called from a background thread.
+     *
+     * @param project The project
+     * @return The number of files marked as modified
+     */
+    public static int scan(@NotNull Project project) {
+        long start = System.nanoTime();
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        List<DatabaseFileStatusService.SyncedStamp> stamps = fileStatusService.getSyncedStamps();
+        if (stamps.isEmpty()) {
+            return 0;
+        }
+
+        int parallelism = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), stamps.size() / 256 + 1));
+        int chunkSize = (stamps.size() + parallelism - 1) / parallelism;
+        ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Ideas2Brain Stamp Scan", parallelism);
+        List<Future<List<String>>> chunks = new ArrayList<>(parallelism);
+        for (int from = 0; from < stamps.size(); from += chunkSize) {
+            List<DatabaseFileStatusService.SyncedStamp> chunk = stamps.subList(from, Math.min(from + chunkSize, stamps.size()));
+            chunks.add(executor.submit(() -> findDrifted(chunk)));
+        }
+
+        List<String> drifted = new ArrayList<>();
+        try {
+            for (Future<List<String>> chunk : chunks) {
+                drifted.addAll(chunk.get(1, TimeUnit.MINUTES));
+            }
+        } catch (Exception e) {
+            LOG.warn("Offline change scan failed", e);
+            return 0;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        fileStatusService.markModified(drifted);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        SyncMetrics.getInstance().setGauge("startup.stampScan.millis", millis);
+        SyncMetrics.getInstance().addToCounter("startup.stampScan.drifted", drifted.size());
+        LOG.info("Scanned " + stamps.size() + " synced files in " + millis + " ms, " + drifted.size() + " changed offline");
+        return drifted.size();
+    }
+
+    private static List<String> findDrifted(List<DatabaseFileStatusService.SyncedStamp> stamps) {
+        List<String> drifted = new ArrayList<>();
+        for (DatabaseFileStatusService.SyncedStamp stamp : stamps) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(Paths.get(stamp.filePath), BasicFileAttributes.class);
+                if (attributes.size() != stamp.size || attributes.lastModifiedTime().toMillis() != stamp.stamp) {
+                    drifted.add(stamp.filePath);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted files are handled by VFS events and reconciliation
+            } catch (IOException e) {
+                LOG.debug("Failed to read attributes of " + stamp.filePath, e);
+            }
+        }
+        return drifted;
+    }
+}
@@ -0,0 +1,199 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.SourceFileIterator;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.ide.IdeEventQueue;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speculatively renders files that a sync would send, so the Markdown is already in the
+ * {@link RenderCacheService} when the user syncs.
+ * <p>
+ * The pass starts whenever the project leaves dumb mode and is opt-in. It runs as short maintenance
+ * slices on the {@link SyncScheduler}, one thread at a time with a pause after each slice, so it uses a
+ * fraction of one core. Slices are postponed while the user is typing or clicking, and held back by the
+ * scheduler while an interactive sync runs. Files saved later are rendered again one job per file.
+ */
+@Service(Service.Level.PROJECT)
+public final class PreRenderService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(PreRenderService.class);
+    private static final long SLICE_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    /** With the slice budget, at most a fifth of one core */
+    private static final long SLICE_PAUSE_MILLIS = 200;
+    private static final long USER_IDLE_MILLIS = 2000;
+
+    private final Project project;
+    private Iterator<VirtualFile> pendingFiles;
+    private ScheduledFuture<?> nextSlice;
+    private int renderedFiles;
+
+    public PreRenderService(Project project) {
+        this.project = project;
+    }
+
+    public static PreRenderService getInstance(Project project) {
+        return project.getService(PreRenderService.class);
+    }
+
+    /**
+     * Starts a pass now if the project is smart, and again whenever indexing finishes
+     */
+    public void start() {
+        project.getMessageBus().connect(this).subscribe(DumbService.DUMB_MODE, new DumbService.DumbModeListener() {
+            @Override
+            public void exitDumbMode() {
+                restart();
+            }
+        });
+        DumbService.getInstance(project).runWhenSmart(this::restart);
+    }
+
+    /**
+     * Starts a new pass over the project, dropping the rest of a running one.
+     * Does nothing unless pre-rendering is enabled in the settings.
+     */
+    public synchronized void restart() {
+        if (!isEnabled() || project.isDisposed()) {
+            return;
+        }
+        pendingFiles = null;
+        renderedFiles = 0;
+        scheduleSlice(0);
+    }
+
+    /**
+     * Renders a file changed since the pass visited it, so the next sync finds it in the cache.
+     * Saving the file again before its job ran does not queue a second render.
+     * Does nothing unless pre-rendering is enabled in the settings.
+     *
+     * @param filePath The changed file
+     */
+    public void fileChanged(@NotNull String filePath) {
+        if (!isEnabled() || project.isDisposed()) {
+            return;
+        }
+        SyncScheduler.getInstance().submitForFile(SyncScheduler.Priority.MAINTENANCE, filePath, indicator -> {
+            VirtualFile file = LocalFileSystem.getInstance().findFileByPath(filePath);
+            if (file == null || !file.isValid() || project.isDisposed()) {
+                return false;
+            }
+            try {
+                AnkiSyncService.renderSource(file.contentsToByteArray(), filePath);
+                SyncMetrics.getInstance().incrementCounter("preRender.files");
+            } catch (Exception e) {
+                LOG.debug("Failed to pre-render " + filePath, e);
+            }
+            return false;
+        }).exceptionally(e -> {
+            if (!(e instanceof ProcessCanceledException)) {
+                LOG.warn("Pre-rendering failed", e);
+            }
+            return null;
+        });
+    }
+
+    private static boolean isEnabled() {
+        return Ideas2BrainSettings.getInstance().getState().preRenderInBackground;
+    }
+
+    private synchronized void scheduleSlice(long delayMillis) {
+        if (nextSlice != null) {
+            nextSlice.cancel(false);
+        }
+        nextSlice = AppExecutorUtil.getAppScheduledExecutorService().schedule(() ->
+                SyncScheduler.getInstance().submit(SyncScheduler.Priority.MAINTENANCE, "preRender:" + project.getLocationHash(), this::runSlice)
+                        .exceptionally(e -> {
+                            if (!(e instanceof ProcessCanceledException)) {
+                                LOG.warn("Pre-rendering failed", e);
+                            }
+                            return null;
+                        }),
+                delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Renders files until the slice budget is used up, then schedules the next slice
+     *
+     * @return Always false, each slice is its own job so other work runs during the pause
+     */
+    private boolean runSlice(@NotNull ProgressIndicator indicator) {
+        if (project.isDisposed() || !isEnabled() || DumbService.isDumb(project)) {
+            // Leaving dumb mode starts a new pass
+            return false;
+        }
+        long idleMillis = IdeEventQueue.getInstance().getIdleTime();
+        if (idleMillis < USER_IDLE_MILLIS) {
+            scheduleSlice(USER_IDLE_MILLIS - idleMillis);
+            return false;
+        }
+
+        Iterator<VirtualFile> files;
+        synchronized (this) {
+            if (pendingFiles == null) {
+                pendingFiles = new SourceFileIterator(project, Arrays.asList(ProjectRootManager.getInstance(project).getContentRoots()));
+            }
+            files = pendingFiles;
+        }
+
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        long deadline = System.nanoTime() + SLICE_BUDGET_NANOS;
+        int rendered = 0;
+        while (System.nanoTime() < deadline && files.hasNext()) {
+            indicator.checkCanceled();
+            VirtualFile file = files.next();
+            DatabaseFileStatusService.FileStatus status = fileStatusService.getFileStatus(file);
+            if (status != DatabaseFileStatusService.FileStatus.NOT_SYNCED
+                    && status != DatabaseFileStatusService.FileStatus.MODIFIED_AFTER_SYNC) {
+                continue;
+            }
+            try {
+                AnkiSyncService.renderSource(file.contentsToByteArray(), file.getPath());
+                rendered++;
+            } catch (Exception e) {
+                // The sync reports the failure if the user syncs this file
+                LOG.debug("Failed to pre-render " + file.getPath(), e);
+            }
+        }
+        SyncMetrics.getInstance().addToCounter("preRender.files", rendered);
+        // May list a directory in a read action, so not under the lock
+        boolean more = files.hasNext();
+
+        synchronized (this) {
+            if (files != pendingFiles) {
+                // Restarted meanwhile, the new pass has its own slices
+                return false;
+            }
+            renderedFiles += rendered;
+            if (more) {
+                scheduleSlice(SLICE_PAUSE_MILLIS);
+            } else {
+                LOG.info("Pre-rendered " + renderedFiles + " files of " + project.getName());
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (nextSlice != null) {
+            nextSlice.cancel(false);
+            nextSlice = null;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps file paths to the open project that owns them.
+ * Content roots and base paths of all open projects are kept in a path-segment trie, so a lookup costs
+ * one map access per path segment and never touches a project's status database.
+ * The trie is rebuilt lazily after {@link #invalidate()}.
+ */
+@Service(Service.Level.APP)
+public final class ProjectPathRouter {
+    private final AtomicInteger generation = new AtomicInteger();
+    private volatile Node root;
+
+    public static ProjectPathRouter getInstance() {
+        return ApplicationManager.getApplication().getService(ProjectPathRouter.class);
+    }
+
+    /**
+     * Marks the trie as stale, called when projects open or close and when roots change
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        root = null;
+    }
+
+    /**
+     * Finds the project owning a path. With nested roots, the innermost root wins.
+     *
+     * @param path The file path, using '/' as separator
+     * @return The owning project, or null if no open project contains the path
+     */
+    @Nullable
+    public Project findProject(@NotNull String path) {
+        Node node = root;
+        if (node == null) {
+            node = rebuild();
+        }
+
+        Project owner = node.project;
+        int start = 0;
+        int length = path.length();
+        while (start <= length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                if (node.project != null) {
+                    owner = node.project;
+                }
+            }
+            start = end + 1;
+        }
+
+        return owner == null || owner.isDisposed() ? null : owner;
+    }
+
+    private synchronized Node rebuild() {
+        Node current = root;
+        if (current != null) {
+            return current;
+        }
+
+        int builtGeneration = generation.get();
+        Node newRoot = new Node();
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            if (project.isDisposed()) {
+                continue;
+            }
+            String basePath = project.getBasePath();
+            if (basePath != null) {
+                insert(newRoot, basePath, project);
+            }
+            VirtualFile[] contentRoots = ReadAction.compute(() -> ProjectRootManager.getInstance(project).getContentRoots());
+            for (VirtualFile contentRoot : contentRoots) {
+                insert(newRoot, contentRoot.getPath(), project);
+            }
+        }
+        // An invalidation during the rebuild means the snapshot may already be stale, use it once only
+        if (builtGeneration == generation.get()) {
+            root = newRoot;
+        }
+        return newRoot;
+    }
+
+    private static void insert(Node root, String path, Project project) {
+        Node node = root;
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                node = node.children.computeIfAbsent(segment, key -> new Node());
+            }
+        }
+        node.project = project;
+    }
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Project project;
+    }
+}
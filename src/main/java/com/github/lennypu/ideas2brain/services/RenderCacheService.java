@@ -0,0 +1,319 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.JavaDoc2MarkDownUtil;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of rendered Markdown, keyed by a hash of the source bytes and the renderer version.
+ * <p>
+ * Records are appended to a single file as {@code magic, key, length, UTF-8 value, CRC32}. An in-memory
+ * index in access order maps keys to record offsets; when the live records exceed the size bound the
+ * least recently used ones are dropped from the index, and the file is compacted once dead records
+ * make up half of it. A record that fails its checks is treated as a miss, and a torn tail left by a
+ * crash is cut off when the file is opened.
+ */
+@Service(Service.Level.APP)
+public final class RenderCacheService implements Disposable {
+    private static final Logger LOG = Logger.getInstance(RenderCacheService.class);
+    private static final int MAGIC = 0x49324243;
+    private static final int KEY_BYTES = 16;
+    private static final int HEADER_BYTES = 4 + KEY_BYTES + 4;
+    private static final int TRAILER_BYTES = 4;
+    private static final long MAX_LIVE_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_VALUE_BYTES = 16 * 1024 * 1024;
+
+    private final Path file;
+    private final Map<Key, Entry> index = new LinkedHashMap<>(1024, 0.75f, true);
+    private FileChannel channel;
+    private long liveBytes;
+
+    public RenderCacheService() {
+        this(Paths.get(PathManager.getSystemPath(), "ideas2brain", "render-cache.dat"));
+    }
+
+    RenderCacheService(Path file) {
+        this.file = file;
+        open();
+    }
+
+    public static RenderCacheService getInstance() {
+        return ApplicationManager.getApplication().getService(RenderCacheService.class);
+    }
+
+    /**
+     * Computes the cache key of a source file
+     *
+     * @param source The source bytes
+     * @return The key, covering the bytes and {@link JavaDoc2MarkDownUtil#RENDERER_VERSION}
+     */
+    @NotNull
+    public static Key keyOf(byte[] source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(ByteBuffer.allocate(4).putInt(JavaDoc2MarkDownUtil.RENDERER_VERSION).array());
+            return new Key(Arrays.copyOf(digest.digest(source), KEY_BYTES));
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Gets cached Markdown
+     *
+     * @param key The key from {@link #keyOf}
+     * @return The Markdown, or null on a miss or an unreadable record
+     */
+    @Nullable
+    public synchronized String get(@NotNull Key key) {
+        Entry entry = index.get(key);
+        String value = entry != null ? read(key, entry) : null;
+        if (entry != null && value == null) {
+            index.remove(key);
+            liveBytes -= entry.length;
+        }
+        SyncMetrics.getInstance().recordCacheAccess("renderCache", value != null);
+        return value;
+    }
+
+    /**
+     * Stores rendered Markdown
+     *
+     * @param key The key from {@link #keyOf}
+     * @param markdown The Markdown
+     */
+    public synchronized void put(@NotNull Key key, @NotNull String markdown) {
+        if (channel == null || index.containsKey(key)) {
+            return;
+        }
+        byte[] value = markdown.getBytes(StandardCharsets.UTF_8);
+        if (value.length > MAX_VALUE_BYTES) {
+            return;
+        }
+
+        try {
+            long offset = channel.size();
+            ByteBuffer record = encode(key, value);
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+            Entry entry = new Entry(offset, record.capacity());
+            index.put(key, entry);
+            liveBytes += entry.length;
+            evict();
+        } catch (IOException e) {
+            LOG.warn("Failed to write render cache, disabling it", e);
+            close();
+        }
+    }
+
+    /**
+     * Drops least recently used entries beyond the size bound and compacts the file when it is mostly dead
+     */
+    private void evict() throws IOException {
+        Iterator<Map.Entry<Key, Entry>> iterator = index.entrySet().iterator();
+        while (liveBytes > MAX_LIVE_BYTES && iterator.hasNext()) {
+            liveBytes -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+        if (channel.size() > 2 * Math.max(liveBytes, MAX_LIVE_BYTES / 2)) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the live records in access order to a new file and swaps it in
+     */
+    private void compact() throws IOException {
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        Map<Key, Entry> newEntries = new LinkedHashMap<>();
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Map.Entry<Key, Entry> mapEntry : index.entrySet()) {
+                ByteBuffer record = ByteBuffer.allocate(mapEntry.getValue().length);
+                if (!readFully(mapEntry.getValue().offset, record)) {
+                    continue;
+                }
+                record.flip();
+                long offset = target.position();
+                while (record.hasRemaining()) {
+                    target.write(record);
+                }
+                newEntries.put(mapEntry.getKey(), new Entry(offset, record.capacity()));
+            }
+            target.force(true);
+        }
+
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        index.putAll(newEntries);
+        liveBytes = 0;
+        newEntries.values().forEach(entry -> liveBytes += entry.length);
+        LOG.info("Compacted render cache to " + index.size() + " entries");
+    }
+
+    private void open() {
+        try {
+            Files.createDirectories(file.getParent());
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (offset + HEADER_BYTES + TRAILER_BYTES <= size) {
+                header.clear();
+                if (!readFully(offset, header) || header.getInt(0) != MAGIC) {
+                    break;
+                }
+                int valueLength = header.getInt(4 + KEY_BYTES);
+                long recordLength = (long) HEADER_BYTES + valueLength + TRAILER_BYTES;
+                if (valueLength < 0 || valueLength > MAX_VALUE_BYTES || offset + recordLength > size) {
+                    break;
+                }
+                byte[] keyBytes = new byte[KEY_BYTES];
+                header.position(4);
+                header.get(keyBytes);
+
+                Key key = new Key(keyBytes);
+                Entry previous = index.put(key, new Entry(offset, (int) recordLength));
+                liveBytes += recordLength - (previous != null ? previous.length : 0);
+                offset += recordLength;
+            }
+            if (offset < size) {
+                // Torn or foreign tail, most likely from a crash during a write
+                LOG.info("Truncating render cache at " + offset + " of " + size + " bytes");
+                channel.truncate(offset);
+            }
+            evict();
+        } catch (IOException e) {
+            LOG.warn("Failed to open render cache: " + file, e);
+            close();
+        }
+    }
+
+    @Nullable
+    private String read(Key key, Entry entry) {
+        if (channel == null) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(entry.length);
+        try {
+            if (!readFully(entry.offset, record)) {
+                return null;
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read render cache", e);
+            return null;
+        }
+
+        byte[] keyBytes = new byte[KEY_BYTES];
+        record.position(4);
+        record.get(keyBytes);
+        int valueLength = record.getInt();
+        if (record.getInt(0) != MAGIC || !Arrays.equals(keyBytes, key.bytes) || valueLength != entry.length - HEADER_BYTES - TRAILER_BYTES) {
+            return null;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, KEY_BYTES + 4 + valueLength);
+        if ((int) crc.getValue() != record.getInt(HEADER_BYTES + valueLength)) {
+            return null;
+        }
+        return new String(record.array(), HEADER_BYTES, valueLength, StandardCharsets.UTF_8);
+    }
+
+    private boolean readFully(long offset, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer encode(Key key, byte[] value) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + value.length + TRAILER_BYTES);
+        record.putInt(MAGIC).put(key.bytes).putInt(value.length).put(value);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, KEY_BYTES + 4 + value.length);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close render cache", e);
+            }
+            channel = null;
+        }
+        index.clear();
+        liveBytes = 0;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        close();
+    }
+
+    /**
+     * Truncated SHA-256 of the renderer version and the source bytes
+     */
+    public static final class Key {
+        private final byte[] bytes;
+        private final int hash;
+
+        private Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final long offset;
+        final int length;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
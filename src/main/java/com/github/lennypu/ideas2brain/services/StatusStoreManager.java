@@ -0,0 +1,223 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the status databases of all open projects and shares one memory budget between them.
+ * <p>
+ * Each project keeps its own H2 file in {@code .idea/ideas2brain.db}, so the database moves with the
+ * project, but stores are only opened here: on first use by a project and closed when the project closes.
+ * The page cache budget from the settings is split evenly across the open stores and rebalanced whenever
+ * one opens or closes, so opening more projects does not multiply the memory used.
+ */
+@Service(Service.Level.APP)
+public final class StatusStoreManager implements Disposable {
+    private static final Logger LOG = Logger.getInstance(StatusStoreManager.class);
+    /** H2 needs a few pages per table and index to work without thrashing */
+    private static final int MIN_CACHE_KB = 2048;
+
+    // Guarded by this
+    private final Map<String, Store> stores = new LinkedHashMap<>();
+
+    public static StatusStoreManager getInstance() {
+        return ApplicationManager.getApplication().getService(StatusStoreManager.class);
+    }
+
+    /**
+     * An open store of one project
+     */
+    private static final class Store {
+        final String projectName;
+        final Path file;
+        final Connection connection;
+
+        Store(String projectName, Path file, Connection connection) {
+            this.projectName = projectName;
+            this.file = file;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Memory and disk use of one store
+     */
+    public static final class StoreStats {
+        public final String projectName;
+        public final long cacheMaxKb;
+        public final long cacheUsedKb;
+        public final long fileKb;
+
+        StoreStats(String projectName, long cacheMaxKb, long cacheUsedKb, long fileKb) {
+            this.projectName = projectName;
+            this.cacheMaxKb = cacheMaxKb;
+            this.cacheUsedKb = cacheUsedKb;
+            this.fileKb = fileKb;
+        }
+    }
+
+    /**
+     * Opens the store of a project, or returns the already open one
+     *
+     * @param project The project
+     * @return The connection, or null if the store could not be opened
+     */
+    @Nullable
+    public synchronized Connection open(@NotNull Project project) {
+        String namespace = project.getLocationHash();
+        Store store = stores.get(namespace);
+        if (store != null) {
+            return store.connection;
+        }
+
+        Path file = Paths.get(project.getBasePath(), ".idea", "ideas2brain.db");
+        try {
+            try {
+                Class.forName("org.h2.Driver");
+            } catch (ClassNotFoundException e) {
+                LOG.error("H2 driver not found", e);
+                return null;
+            }
+            String url = "jdbc:h2:" + file.toString().replace('\\', '/') + ";DB_CLOSE_ON_EXIT=FALSE";
+            Connection connection = DriverManager.getConnection(url, "sa", "");
+            stores.put(namespace, new Store(project.getName(), file, connection));
+            LOG.info("Opened status store of " + project.getName() + ", " + stores.size() + " open");
+            rebalance();
+            return connection;
+        } catch (SQLException e) {
+            LOG.error("Failed to open status store at: " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Closes the store of a project and gives its share of the budget to the others
+     *
+     * @param project The closing project
+     */
+    public synchronized void close(@NotNull Project project) {
+        Store store = stores.remove(project.getLocationHash());
+        if (store == null) {
+            return;
+        }
+        closeQuietly(store);
+        rebalance();
+    }
+
+    /**
+     * Splits the cache budget from the settings evenly across the open stores
+     */
+    public synchronized void rebalance() {
+        if (stores.isEmpty()) {
+            SyncMetrics.getInstance().setGauge("store.open", 0);
+            return;
+        }
+        int budgetKb = Ideas2BrainSettings.getInstance().getState().statusStoreCacheMb * 1024;
+        int perStoreKb = Math.max(MIN_CACHE_KB, budgetKb / stores.size());
+        for (Store store : stores.values()) {
+            try (Statement stmt = store.connection.createStatement()) {
+                stmt.execute("SET CACHE_SIZE " + perStoreKb);
+            } catch (SQLException e) {
+                LOG.warn("Failed to set the cache size of the status store of " + store.projectName, e);
+            }
+        }
+        SyncMetrics.getInstance().setGauge("store.open", stores.size());
+    }
+
+    /**
+     * Collects the memory and disk use of every open store
+     *
+     * @return One entry per open store
+     */
+    public List<StoreStats> getStats() {
+        List<Store> openStores;
+        synchronized (this) {
+            openStores = new ArrayList<>(stores.values());
+        }
+        // Outside the lock, a store busy with a long transaction must not hold up opening other stores
+        List<StoreStats> result = new ArrayList<>(openStores.size());
+        for (Store store : openStores) {
+            long cacheMaxKb = 0;
+            long cacheUsedKb = 0;
+            try (Statement stmt = store.connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT SETTING_NAME, SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS "
+                         + "WHERE SETTING_NAME IN ('info.CACHE_MAX_SIZE', 'info.CACHE_SIZE')")) {
+                while (rs.next()) {
+                    // Reported in megabytes
+                    long kb = Long.parseLong(rs.getString(2).trim()) * 1024;
+                    if ("info.CACHE_MAX_SIZE".equals(rs.getString(1))) {
+                        cacheMaxKb = kb;
+                    } else {
+                        cacheUsedKb = kb;
+                    }
+                }
+            } catch (SQLException | NumberFormatException e) {
+                LOG.debug("Failed to read cache statistics of " + store.projectName, e);
+            }
+            long fileKb = 0;
+            try {
+                fileKb = Files.size(Paths.get(store.file + ".mv.db")) / 1024;
+            } catch (IOException e) {
+                LOG.debug("Failed to read the size of " + store.file, e);
+            }
+            result.add(new StoreStats(store.projectName, cacheMaxKb, cacheUsedKb, fileKb));
+        }
+        return result;
+    }
+
+    /**
+     * Publishes the totals over all stores as gauges, so they appear in the statistics and the JSON report.
+     * Queries every store, so call it off the EDT.
+     */
+    public void publishGauges() {
+        List<StoreStats> stats = getStats();
+        long cacheMaxKb = 0;
+        long cacheUsedKb = 0;
+        long fileKb = 0;
+        for (StoreStats store : stats) {
+            cacheMaxKb += store.cacheMaxKb;
+            cacheUsedKb += store.cacheUsedKb;
+            fileKb += store.fileKb;
+        }
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        metrics.setGauge("store.open", stats.size());
+        metrics.setGauge("store.cacheMaxKb", cacheMaxKb);
+        metrics.setGauge("store.cacheUsedKb", cacheUsedKb);
+        metrics.setGauge("store.fileKb", fileKb);
+    }
+
+    private static void closeQuietly(Store store) {
+        try {
+            store.connection.close();
+            LOG.info("Closed status store of " + store.projectName);
+        } catch (SQLException e) {
+            LOG.error("Failed to close status store of " + store.projectName, e);
+        }
+    }
+
+    @Override
+    public synchronized void dispose() {
+        stores.values().forEach(StatusStoreManager::closeQuietly);
+        stores.clear();
+    }
+}
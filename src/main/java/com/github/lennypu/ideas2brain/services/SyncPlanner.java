@@ -0,0 +1,585 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.github.lennypu.ideas2brain.utils.SourceFileIterator;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Computes what a sync of a selection would change in Anki, and applies it as a handful of batched requests.
+ * <p>
+ * One pass over the selection reads the stored statuses and renders only the files that changed. The linked
+ * notes are then checked against Anki with one {@code notesInfo} request per chunk and one {@code multi} of
+ * deck queries, so the plan only contains real differences: new notes, changed fields, notes in the wrong
+ * deck, missing tags and notes of deleted files. Unlike {@link AnkiSyncService#sync}, the plan holds the
+ * rendered Markdown of every changed file, so it is meant for selections that are previewed first.
+ */
+@Service(Service.Level.PROJECT)
+public final class SyncPlanner {
+    private static final Logger LOG = Logger.getInstance(SyncPlanner.class);
+    private static final int NOTES_INFO_CHUNK_SIZE = 1000;
+    private static final int WRITE_BATCH_SIZE = 500;
+    private static final String PLUGIN_TAG = "Ideas2Brain";
+
+    private final Project project;
+
+    public SyncPlanner(Project project) {
+        this.project = project;
+    }
+
+    public static SyncPlanner getInstance(Project project) {
+        return project.getService(SyncPlanner.class);
+    }
+
+    /**
+     * A file as it should appear in Anki
+     */
+    public static final class PlannedNote {
+        public final VirtualFile file;
+        /** The linked note, null for new notes */
+        @Nullable
+        public final Long noteId;
+        public final String deckName;
+        public final String front;
+        /** The rendered Markdown, null for synced files that were not rendered */
+        @Nullable
+        public final String back;
+        public final List<String> tags;
+
+        PlannedNote(VirtualFile file, @Nullable Long noteId, String deckName, String front, @Nullable String back, List<String> tags) {
+            this.file = file;
+            this.noteId = noteId;
+            this.deckName = deckName;
+            this.front = front;
+            this.back = back;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * The changes a sync would make, grouped by kind and by deck or tag set
+     */
+    public static final class SyncPlan {
+        /** New notes by deck */
+        public final Map<String, List<PlannedNote>> adds = new TreeMap<>();
+        /** Linked notes with changed fields, by note ID; only changed fields are sent */
+        public final Map<Long, Map<String, String>> fieldUpdates = new LinkedHashMap<>();
+        /** Notes to mark synced once their fields are written; changed files whose notes already match are marked right away */
+        public final List<PlannedNote> written = new ArrayList<>();
+        /** Linked notes outside their file's deck, by target deck */
+        public final Map<String, List<Long>> deckMoves = new TreeMap<>();
+        /** Linked notes missing path tags, by the space separated tags to add */
+        public final Map<String, List<Long>> tagUpdates = new TreeMap<>();
+        /** Notes of tracked files that no longer exist, by file path */
+        public final Map<String, Long> deletes = new TreeMap<>();
+        public int unchanged;
+        /** Files skipped because their notes were edited in Anki */
+        public int conflicts;
+        /** Files that could not be rendered */
+        public int failed;
+
+        public int getAddCount() {
+            return adds.values().stream().mapToInt(List::size).sum();
+        }
+
+        public int getMoveCount() {
+            return deckMoves.values().stream().mapToInt(List::size).sum();
+        }
+
+        public int getRetagCount() {
+            return tagUpdates.values().stream().mapToInt(List::size).sum();
+        }
+
+        /**
+         * @return true if applying the plan would not change Anki
+         */
+        public boolean isEmpty() {
+            return adds.isEmpty() && fieldUpdates.isEmpty() && written.isEmpty() && deckMoves.isEmpty()
+                    && tagUpdates.isEmpty() && deletes.isEmpty();
+        }
+
+        /**
+         * Estimates the AnkiConnect requests needed to apply the plan, excluding modification time bookkeeping
+         */
+        public int getRequestCount() {
+            int requests = 2 * chunks(getAddCount()) + chunks(fieldUpdates.size());
+            if (!deckMoves.isEmpty()) {
+                requests++;
+            }
+            if (!deckMoves.isEmpty() || !tagUpdates.isEmpty()) {
+                requests++;
+            }
+            return requests + (deletes.isEmpty() ? 0 : 1);
+        }
+
+        private static int chunks(int count) {
+            return (count + WRITE_BATCH_SIZE - 1) / WRITE_BATCH_SIZE;
+        }
+
+        /**
+         * Describes the plan for a dry-run preview
+         */
+        public String describe() {
+            StringBuilder text = new StringBuilder();
+            text.append("Add: ").append(getAddCount()).append(" notes in ").append(adds.size()).append(" decks\n");
+            appendGroups(text, adds, List::size);
+            text.append("Update fields: ").append(fieldUpdates.size()).append(" notes\n");
+            text.append("Move: ").append(getMoveCount()).append(" notes to ").append(deckMoves.size()).append(" decks\n");
+            appendGroups(text, deckMoves, List::size);
+            text.append("Add tags: ").append(getRetagCount()).append(" notes\n");
+            text.append("Delete: ").append(deletes.size()).append(" notes of deleted files\n");
+            text.append("\nUnchanged: ").append(unchanged)
+                    .append(", edited in Anki (skipped): ").append(conflicts)
+                    .append(", failed to render: ").append(failed).append('\n');
+            text.append("AnkiConnect requests: ").append(getRequestCount());
+            return text.toString();
+        }
+
+        private static <T> void appendGroups(StringBuilder text, Map<String, T> groups, ToIntFunction<T> size) {
+            int shown = 0;
+            for (Map.Entry<String, T> group : groups.entrySet()) {
+                if (shown++ == 10) {
+                    text.append("    ... and ").append(groups.size() - 10).append(" more decks\n");
+                    break;
+                }
+                text.append("    ").append(group.getKey()).append(": ").append(size.applyAsInt(group.getValue())).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Counters of an applied plan
+     */
+    public static final class ExecutionResult {
+        public int added;
+        public int updated;
+        public int moved;
+        public int retagged;
+        public int deleted;
+        public int failed;
+    }
+
+    /**
+     * Computes the plan for syncing every Java and Kotlin file under the given roots.
+     * Notes of the selection edited in Anki are detected first and their files left out. Must be called from a background thread.
+     *
+     * @param roots Files and directories to sync
+     * @param indicator The progress indicator, checked for cancellation between files and chunks
+     * @return The plan, or null if AnkiConnect could not be reached
+     */
+    @Nullable
+    public SyncPlan plan(@NotNull Collection<VirtualFile> roots, @NotNull ProgressIndicator indicator) {
+        long start = System.nanoTime();
+        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        String basePath = project.getBasePath();
+        if (basePath == null) {
+            return null;
+        }
+
+        // Only the notes of the selection are polled, however many the project tracks
+        Map<String, String> linkedNotes = fileStatusService.getLinkedNotes();
+        List<Long> selectedNoteIds = new ArrayList<>();
+        linkedNotes.forEach((path, noteId) -> {
+            Long id = parseNoteId(noteId);
+            if (id != null && isUnder(path, roots)) {
+                selectedNoteIds.add(id);
+            }
+        });
+        indicator.setText("Checking for edits made in Anki");
+        if (AnkiChangeDetector.getInstance(project).detectConflicts(selectedNoteIds, indicator) == null) {
+            return null;
+        }
+
+        SyncPlan plan = new SyncPlan();
+        Set<String> seenPaths = new HashSet<>();
+        // Linked notes to compare with Anki, rendered only if their files changed
+        Map<Long, PlannedNote> linked = new LinkedHashMap<>();
+        List<VirtualFile> unrenderedSynced = new ArrayList<>();
+
+        indicator.setText("Rendering changed files");
+        AnkiSyncService.getInstance(project).forEachRendered(
+                new SourceFileIterator(project, roots),
+                file -> {
+                    seenPaths.add(file.getPath());
+                    DatabaseFileStatusService.FileStatus status = fileStatusService.getFileStatus(file);
+                    if (status == DatabaseFileStatusService.FileStatus.CONFLICT) {
+                        plan.conflicts++;
+                        return false;
+                    }
+                    Long noteId = parseNoteId(linkedNotes.get(file.getPath()));
+                    if (status == DatabaseFileStatusService.FileStatus.SYNCED && noteId != null) {
+                        linked.put(noteId, plannedNote(basePath, file, noteId, null));
+                        unrenderedSynced.add(file);
+                        return false;
+                    }
+                    return true;
+                },
+                rendered -> {
+                    if (rendered.markdown == null || rendered.markdown.isEmpty()) {
+                        plan.failed++;
+                        return;
+                    }
+                    Long noteId = parseNoteId(linkedNotes.get(rendered.file.getPath()));
+                    PlannedNote note = plannedNote(basePath, rendered.file, noteId, rendered.markdown);
+                    if (noteId != null) {
+                        linked.put(noteId, note);
+                    } else {
+                        plan.adds.computeIfAbsent(note.deckName, deck -> new ArrayList<>()).add(note);
+                    }
+                },
+                indicator
+        );
+
+        for (Map.Entry<String, String> entry : linkedNotes.entrySet()) {
+            String path = entry.getKey();
+            Long noteId = parseNoteId(entry.getValue());
+            if (noteId != null && !seenPaths.contains(path) && isUnder(path, roots)
+                    && LocalFileSystem.getInstance().findFileByPath(path) == null) {
+                plan.deletes.put(path, noteId);
+            }
+        }
+
+        indicator.setText("Comparing with Anki");
+        List<PlannedNote> missing = new ArrayList<>();
+        Map<String, List<Long>> expectedDecks = new TreeMap<>();
+        if (!compareWithAnki(ankiConnectService, linked, plan, missing, expectedDecks, indicator)
+                || !findDeckMoves(ankiConnectService, expectedDecks, plan)) {
+            return null;
+        }
+
+        // Notes deleted in Anki are added again, synced files among them still need their Markdown
+        Set<VirtualFile> toRender = new HashSet<>();
+        for (PlannedNote note : missing) {
+            if (note.back != null) {
+                addAsNew(plan, note, note.back);
+            } else {
+                toRender.add(note.file);
+            }
+        }
+        if (!toRender.isEmpty()) {
+            AnkiSyncService.getInstance(project).forEachRendered(
+                    unrenderedSynced.stream().filter(toRender::contains).iterator(),
+                    file -> true,
+                    rendered -> {
+                        if (rendered.markdown == null || rendered.markdown.isEmpty()) {
+                            plan.failed++;
+                        } else {
+                            addAsNew(plan, plannedNote(basePath, rendered.file, null, rendered.markdown), rendered.markdown);
+                        }
+                    },
+                    indicator
+            );
+        }
+
+        LOG.info("Planned sync in " + (System.nanoTime() - start) / 1_000_000 + " ms: "
+                + plan.getAddCount() + " adds, " + plan.fieldUpdates.size() + " updates, " + plan.getMoveCount() + " moves, "
+                + plan.getRetagCount() + " retags, " + plan.deletes.size() + " deletes");
+        return plan;
+    }
+
+    /**
+     * Applies a plan with grouped batch requests: added notes and field updates in chunks, deck moves and
+     * tag updates in two requests and deletes in one. Must be called from a background thread.
+     *
+     * @param plan The plan from {@link #plan}
+     * @param indicator The progress indicator, checked for cancellation between batches
+     * @return The result counters
+     */
+    public ExecutionResult execute(@NotNull SyncPlan plan, @NotNull ProgressIndicator indicator) {
+        AnkiConnectService ankiConnectService = ApplicationManager.getApplication().getService(AnkiConnectService.class);
+        DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        AnkiChangeDetector changeDetector = AnkiChangeDetector.getInstance(project);
+        ExecutionResult result = new ExecutionResult();
+        List<Long> writtenNoteIds = new ArrayList<>();
+
+        indicator.setText("Adding notes");
+        List<PlannedNote> additions = new ArrayList<>();
+        plan.adds.values().forEach(additions::addAll);
+        for (int from = 0; from < additions.size(); from += WRITE_BATCH_SIZE) {
+            indicator.checkCanceled();
+            List<PlannedNote> batch = additions.subList(from, Math.min(from + WRITE_BATCH_SIZE, additions.size()));
+            List<AnkiConnectService.NewNote> newNotes = new ArrayList<>(batch.size());
+            for (PlannedNote note : batch) {
+                newNotes.add(new AnkiConnectService.NewNote(note.deckName, note.front, note.back, note.tags));
+            }
+            List<String> noteIds = ankiConnectService.addNotes(newNotes);
+            for (int i = 0; i < batch.size(); i++) {
+                String noteId = noteIds != null ? noteIds.get(i) : null;
+                if (noteId != null) {
+                    fileStatusService.markAsSynced(batch.get(i).file, noteId, batch.get(i).back);
+                    writtenNoteIds.add(Long.parseLong(noteId));
+                    result.added++;
+                } else {
+                    fileStatusService.setFileStatus(batch.get(i).file, DatabaseFileStatusService.FileStatus.ERROR);
+                    result.failed++;
+                }
+            }
+        }
+
+        indicator.setText("Updating notes");
+        Map<Long, PlannedNote> writtenById = new LinkedHashMap<>();
+        for (PlannedNote note : plan.written) {
+            writtenById.put(note.noteId, note);
+        }
+        List<Long> updateIds = new ArrayList<>(plan.fieldUpdates.keySet());
+        for (int from = 0; from < updateIds.size(); from += WRITE_BATCH_SIZE) {
+            indicator.checkCanceled();
+            Map<Long, Map<String, String>> batch = new LinkedHashMap<>();
+            for (Long noteId : updateIds.subList(from, Math.min(from + WRITE_BATCH_SIZE, updateIds.size()))) {
+                batch.put(noteId, plan.fieldUpdates.get(noteId));
+            }
+            Set<Long> updated = ankiConnectService.updateNotesFields(batch);
+            for (Long noteId : batch.keySet()) {
+                PlannedNote note = writtenById.remove(noteId);
+                if (updated != null && updated.contains(noteId)) {
+                    writtenNoteIds.add(noteId);
+                    result.updated++;
+                    if (note != null) {
+                        fileStatusService.markAsSynced(note.file, String.valueOf(noteId), note.back);
+                    }
+                } else {
+                    result.failed++;
+                    if (note != null) {
+                        fileStatusService.setFileStatus(note.file, DatabaseFileStatusService.FileStatus.ERROR);
+                    }
+                }
+            }
+        }
+        // Changed files whose notes already match
+        for (PlannedNote note : writtenById.values()) {
+            fileStatusService.markAsSynced(note.file, String.valueOf(note.noteId), note.back);
+        }
+
+        indicator.checkCanceled();
+        indicator.setText("Moving and retagging notes");
+        List<AnkiConnectService.NoteMove> moves = new ArrayList<>();
+        Set<Long> movedNoteIds = new HashSet<>();
+        plan.deckMoves.forEach((deck, noteIds) -> {
+            AnkiConnectService.NoteMove move = new AnkiConnectService.NoteMove(deck, List.of(), List.of());
+            move.noteIds.addAll(noteIds);
+            movedNoteIds.addAll(noteIds);
+            moves.add(move);
+        });
+        plan.tagUpdates.forEach((tags, noteIds) -> {
+            AnkiConnectService.NoteMove move = new AnkiConnectService.NoteMove(null, List.of(), List.of(tags.split(" ")));
+            move.noteIds.addAll(noteIds);
+            movedNoteIds.addAll(noteIds);
+            moves.add(move);
+        });
+        if (!moves.isEmpty()) {
+            boolean[] moved = new boolean[1];
+            changeDetector.runPluginChange(movedNoteIds, () -> moved[0] = ankiConnectService.moveNotes(moves));
+            if (moved[0]) {
+                result.moved = plan.getMoveCount();
+                result.retagged = plan.getRetagCount();
+            } else {
+                result.failed += plan.getMoveCount() + plan.getRetagCount();
+            }
+        }
+
+        indicator.checkCanceled();
+        indicator.setText("Deleting notes of deleted files");
+        if (!plan.deletes.isEmpty()) {
+            if (ankiConnectService.deleteNotes(plan.deletes.values())) {
+                fileStatusService.removePaths(plan.deletes.keySet());
+                result.deleted = plan.deletes.size();
+            } else {
+                result.failed += plan.deletes.size();
+            }
+        }
+
+        indicator.setText("Recording note modification times");
+        changeDetector.recordModTimes(writtenNoteIds);
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        metrics.addToCounter("sync.files.synced", result.added + result.updated);
+        metrics.addToCounter("sync.files.failed", result.failed);
+        return result;
+    }
+
+    /**
+     * Fetches the linked notes in chunks and records field and tag differences.
+     * Notes missing from Anki go to {@code missing}; the others are grouped by the deck they belong in.
+     *
+     * @return false if a request failed
+     */
+    private static boolean compareWithAnki(AnkiConnectService ankiConnectService,
+                                           Map<Long, PlannedNote> linked,
+                                           SyncPlan plan,
+                                           List<PlannedNote> missing,
+                                           Map<String, List<Long>> expectedDecks,
+                                           ProgressIndicator indicator) {
+        List<Long> noteIds = new ArrayList<>(linked.keySet());
+        for (int from = 0; from < noteIds.size(); from += NOTES_INFO_CHUNK_SIZE) {
+            indicator.checkCanceled();
+            List<Long> chunk = noteIds.subList(from, Math.min(from + NOTES_INFO_CHUNK_SIZE, noteIds.size()));
+            JsonArray infos = ankiConnectService.notesInfo(chunk);
+            if (infos == null || infos.size() != chunk.size()) {
+                return false;
+            }
+
+            for (int i = 0; i < chunk.size(); i++) {
+                Long noteId = chunk.get(i);
+                PlannedNote note = linked.get(noteId);
+                JsonElement element = infos.get(i);
+                if (!element.isJsonObject() || !element.getAsJsonObject().has("noteId")) {
+                    missing.add(note);
+                    continue;
+                }
+                JsonObject info = element.getAsJsonObject();
+
+                Map<String, String> changedFields = new LinkedHashMap<>();
+                if (!note.front.equals(fieldValue(info, "Front"))) {
+                    changedFields.put("Front", note.front);
+                }
+                // Anki holds the Back field as sent, HTML for notes of the standard note type
+                String model = info.has("modelName") ? info.get("modelName").getAsString() : null;
+                if (note.back != null && !AnkiConnectService.toBackField(note.back, model).equals(fieldValue(info, "Back"))) {
+                    changedFields.put("Back", note.back);
+                }
+                if (!changedFields.isEmpty()) {
+                    plan.fieldUpdates.put(noteId, changedFields);
+                }
+                if (note.back != null) {
+                    plan.written.add(note);
+                }
+
+                Set<String> currentTags = new HashSet<>();
+                if (info.has("tags") && info.get("tags").isJsonArray()) {
+                    info.getAsJsonArray("tags").forEach(tag -> currentTags.add(tag.getAsString().toLowerCase(Locale.ROOT)));
+                }
+                List<String> tagsToAdd = new ArrayList<>();
+                for (String tag : note.tags) {
+                    if (!currentTags.contains(tag.toLowerCase(Locale.ROOT))) {
+                        tagsToAdd.add(tag);
+                    }
+                }
+                if (!currentTags.contains(PLUGIN_TAG.toLowerCase(Locale.ROOT))) {
+                    tagsToAdd.add(PLUGIN_TAG);
+                }
+                if (!tagsToAdd.isEmpty()) {
+                    plan.tagUpdates.computeIfAbsent(String.join(" ", tagsToAdd), tags -> new ArrayList<>()).add(noteId);
+                }
+
+                expectedDecks.computeIfAbsent(note.deckName, deck -> new ArrayList<>()).add(noteId);
+                if (changedFields.isEmpty() && tagsToAdd.isEmpty() && note.back == null) {
+                    plan.unchanged++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds linked notes outside the deck of their file with one query per deck, all in a single request
+     *
+     * @return false if the request failed
+     */
+    private static boolean findDeckMoves(AnkiConnectService ankiConnectService, Map<String, List<Long>> expectedDecks, SyncPlan plan) {
+        if (expectedDecks.isEmpty()) {
+            return true;
+        }
+
+        List<String> decks = new ArrayList<>(expectedDecks.keySet());
+        List<String> queries = new ArrayList<>(decks.size());
+        for (String deck : decks) {
+            String escaped = escapeSearchText(deck);
+            StringBuilder ids = new StringBuilder();
+            for (Long noteId : expectedDecks.get(deck)) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(noteId);
+            }
+            // deck: also matches subdecks
+            queries.add("\"deck:" + escaped + "\" -\"deck:" + escaped + "::*\" nid:" + ids);
+        }
+
+        List<List<Long>> inDeck = ankiConnectService.findNotesBatch(queries);
+        if (inDeck == null || inDeck.size() != decks.size()) {
+            return false;
+        }
+        for (int i = 0; i < decks.size(); i++) {
+            Set<Long> found = new HashSet<>(inDeck.get(i));
+            for (Long noteId : expectedDecks.get(decks.get(i))) {
+                if (!found.contains(noteId)) {
+                    plan.deckMoves.computeIfAbsent(decks.get(i), deck -> new ArrayList<>()).add(noteId);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void addAsNew(SyncPlan plan, PlannedNote note, String back) {
+        plan.adds.computeIfAbsent(note.deckName, deck -> new ArrayList<>())
+                .add(new PlannedNote(note.file, null, note.deckName, note.front, back, note.tags));
+    }
+
+    private static PlannedNote plannedNote(String basePath, VirtualFile file, @Nullable Long noteId, @Nullable String back) {
+        return new PlannedNote(
+                file,
+                noteId,
+                NoteMappingUtil.getDeckNameFromFilePath(basePath, file.getPath()),
+                file.getNameWithoutExtension(),
+                back,
+                NoteMappingUtil.getTagsFromFilePath(basePath, file.getPath()));
+    }
+
+    @Nullable
+    private static String fieldValue(JsonObject info, String field) {
+        if (!info.has("fields") || !info.getAsJsonObject("fields").has(field)) {
+            return null;
+        }
+        return info.getAsJsonObject("fields").getAsJsonObject(field).get("value").getAsString();
+    }
+
+    /**
+     * Escapes the characters Anki treats as wildcards or quotes in search terms
+     */
+    private static String escapeSearchText(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"").replace("_", "\\_").replace("*", "\\*");
+    }
+
+    private static boolean isUnder(String path, Collection<VirtualFile> roots) {
+        for (VirtualFile root : roots) {
+            if (path.equals(root.getPath()) || path.startsWith(root.getPath() + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static Long parseNoteId(@Nullable String noteId) {
+        if (noteId == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(noteId);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
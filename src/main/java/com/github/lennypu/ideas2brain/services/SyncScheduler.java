@@ -0,0 +1,375 @@
+package com.github.lennypu.ideas2brain.services;
+
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central scheduler for the plugin's background work.
+ * <p>
+ * Interactive work, such as a user-triggered sync, runs on its own thread and registers as an
+ * {@link Activity}. Everything else is split into chunks and queued per {@link Priority}. Workers always
+ * take the next chunk from the most urgent non-empty queue and put unfinished jobs back at the end of
+ * their queue, so event work overtakes running maintenance at the next chunk boundary. While an
+ * interactive activity is open, maintenance chunks are held back entirely, and maintenance jobs that
+ * cannot be chunked yield their worker through {@link #yieldToInteractive()}.
+ * <p>
+ * Submitting a job whose key is already queued returns the queued job's future, promoting it if the new
+ * submission is more urgent; {@link #submitForFile} keys work by file, so the same file is handled once
+ * whichever queues asked for it. Jobs submitted with {@link #submitOrdered} never collapse and run one
+ * at a time in submission order per lane.
+ */
+@Service(Service.Level.APP)
+public final class SyncScheduler implements Disposable {
+    private static final Logger LOG = Logger.getInstance(SyncScheduler.class);
+    private static final int WORKERS = 2;
+
+    /**
+     * Priority classes of queued work, most urgent first. Interactive work is not queued, see {@link #beginInteractive()}.
+     */
+    public enum Priority {
+        /** Follows up on file system or project events */
+        EVENT,
+        /** Periodic or speculative work nobody waits for */
+        MAINTENANCE
+    }
+
+    /**
+     * A unit of work that runs in chunks
+     */
+    @FunctionalInterface
+    public interface ChunkedJob {
+        /**
+         * Runs the next chunk, which should take no more than a few hundred milliseconds
+         *
+         * @param indicator Cancelled when the job is cancelled or the application shuts down
+         * @return true if more chunks remain
+         */
+        boolean runChunk(@NotNull ProgressIndicator indicator);
+    }
+
+    private final Map<Priority, Deque<Job>> queues = new EnumMap<>(Priority.class);
+    private final Map<String, Job> jobsByKey = new HashMap<>();
+    /** The job each ordered lane is running, from when it is polled until it finishes */
+    private final Map<String, Job> busyLanes = new HashMap<>();
+    private final ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Ideas2Brain Scheduler", WORKERS);
+    private final AtomicLong orderedJobs = new AtomicLong();
+    private int runningWorkers;
+    private int interactiveActivities;
+
+    public SyncScheduler() {
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    public static SyncScheduler getInstance() {
+        return ApplicationManager.getApplication().getService(SyncScheduler.class);
+    }
+
+    /**
+     * Queues a job
+     *
+     * @param priority The priority class
+     * @param key Identifies the work, for example {@code "stampScan:" + projectPath}; duplicates are collapsed,
+     *            so the job must read the state it works on when it runs, not when it is submitted
+     * @param job The job
+     * @return Completes when the job has finished, exceptionally if it failed or was cancelled
+     */
+    public CompletableFuture<Void> submit(@NotNull Priority priority, @NotNull String key, @NotNull ChunkedJob job) {
+        synchronized (this) {
+            Job queued = jobsByKey.get(key);
+            // A running job may already have read stale state, so only waiting jobs absorb duplicates
+            if (queued != null && queued.waiting) {
+                if (priority.ordinal() < queued.priority.ordinal() && queues.get(queued.priority).remove(queued)) {
+                    queued.priority = priority;
+                    queues.get(priority).addLast(queued);
+                    publishQueueSizes();
+                }
+                return queued.future;
+            }
+
+            Job newJob = new Job(key, null, priority, job);
+            jobsByKey.put(key, newJob);
+            enqueue(newJob);
+            startWorkers();
+            return newJob.future;
+        }
+    }
+
+    /**
+     * Queues a job that runs in a single chunk
+     */
+    public CompletableFuture<Void> submit(@NotNull Priority priority, @NotNull String key, @NotNull Runnable runnable) {
+        return submit(priority, key, indicator -> {
+            runnable.run();
+            return false;
+        });
+    }
+
+    /**
+     * Queues a job working on a single file. Requests for the same file from any queue collapse into
+     * one job, which runs at the most urgent priority requested.
+     *
+     * @param priority The priority class
+     * @param filePath The file the job works on
+     * @param job The job, which must read the file's state when it runs
+     */
+    public CompletableFuture<Void> submitForFile(@NotNull Priority priority, @NotNull String filePath, @NotNull ChunkedJob job) {
+        return submit(priority, "file:" + filePath, job);
+    }
+
+    /**
+     * Queues a single-chunk job that must never be collapsed with other work and must run after every job
+     * submitted earlier to the same lane, such as a note move whose outcome depends on the order of moves.
+     * Jobs of one lane run one at a time, jobs of different lanes still run concurrently.
+     *
+     * @param priority The priority class
+     * @param lane Identifies the jobs to serialize, for example {@code "vfs:" + projectPath}
+     * @param runnable The job
+     */
+    public CompletableFuture<Void> submitOrdered(@NotNull Priority priority, @NotNull String lane, @NotNull Runnable runnable) {
+        synchronized (this) {
+            Job newJob = new Job("ordered:" + orderedJobs.incrementAndGet(), lane, priority, indicator -> {
+                runnable.run();
+                return false;
+            });
+            jobsByKey.put(newJob.key, newJob);
+            enqueue(newJob);
+            startWorkers();
+            return newJob.future;
+        }
+    }
+
+    /**
+     * Marks the start of an interactive operation that runs on its own thread, such as a user-triggered sync.
+     * Maintenance work is held back until the returned activity is closed.
+     *
+     * @return The activity, to be closed in a finally block or try-with-resources
+     */
+    public Activity beginInteractive() {
+        synchronized (this) {
+            interactiveActivities++;
+        }
+        return new Activity();
+    }
+
+    /**
+     * Gives the worker back while interactive work is active: the calling job is abandoned and queued
+     * again, to run from its start once the interactive work is done. Does nothing otherwise.
+     * Meant to be called at safe points of maintenance jobs that cannot easily be split into chunks,
+     * and only from within a job run by this scheduler.
+     */
+    public void yieldToInteractive() {
+        synchronized (this) {
+            if (interactiveActivities > 0) {
+                throw YieldException.INSTANCE;
+            }
+        }
+    }
+
+    /**
+     * Unwinds a job that yields to interactive work
+     */
+    private static final class YieldException extends RuntimeException {
+        static final YieldException INSTANCE = new YieldException();
+
+        private YieldException() {
+            super("Yielded to interactive work", null, false, false);
+        }
+    }
+
+    /**
+     * Closes an interactive operation started with {@link #beginInteractive()}
+     */
+    public final class Activity implements AutoCloseable {
+        private boolean closed;
+
+        private Activity() {
+        }
+
+        @Override
+        public void close() {
+            synchronized (SyncScheduler.this) {
+                if (!closed) {
+                    closed = true;
+                    interactiveActivities--;
+                    startWorkers();
+                }
+            }
+        }
+    }
+
+    // Must hold the lock
+    private void enqueue(Job job) {
+        job.waiting = true;
+        queues.get(job.priority).addLast(job);
+        publishQueueSizes();
+    }
+
+    // Must hold the lock
+    private void startWorkers() {
+        while (runningWorkers < WORKERS && hasRunnableJob()) {
+            runningWorkers++;
+            executor.execute(this::work);
+        }
+    }
+
+    // Must hold the lock
+    private boolean hasRunnableJob() {
+        return findNext(false) != null;
+    }
+
+    // Must hold the lock
+    private Job pollNext() {
+        Job job = findNext(true);
+        if (job != null) {
+            job.waiting = false;
+            if (job.lane != null) {
+                busyLanes.put(job.lane, job);
+            }
+            publishQueueSizes();
+        }
+        return job;
+    }
+
+    /**
+     * Finds the first job of the most urgent queue that may run now, skipping jobs whose lane is busy
+     * with another job so that each lane keeps its order
+     */
+    // Must hold the lock
+    private Job findNext(boolean remove) {
+        for (Priority priority : Priority.values()) {
+            if (priority == Priority.MAINTENANCE && interactiveActivities > 0) {
+                break;
+            }
+            Iterator<Job> iterator = queues.get(priority).iterator();
+            while (iterator.hasNext()) {
+                Job job = iterator.next();
+                Job laneJob = job.lane != null ? busyLanes.get(job.lane) : null;
+                if (laneJob == null || laneJob == job) {
+                    if (remove) {
+                        iterator.remove();
+                    }
+                    return job;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void work() {
+        while (true) {
+            Job job;
+            synchronized (this) {
+                job = pollNext();
+                if (job == null) {
+                    runningWorkers--;
+                    return;
+                }
+            }
+
+            boolean more;
+            try {
+                more = ProgressManager.getInstance().runProcess(() -> job.job.runChunk(job.indicator), job.indicator);
+            } catch (YieldException e) {
+                synchronized (this) {
+                    // Held back until the interactive work is done, the worker is free for other jobs
+                    enqueue(job);
+                }
+                continue;
+            } catch (ProcessCanceledException e) {
+                finish(job, e);
+                continue;
+            } catch (Throwable t) {
+                LOG.warn("Scheduled job failed: " + job.key, t);
+                finish(job, t);
+                continue;
+            }
+
+            synchronized (this) {
+                if (more && !job.indicator.isCanceled()) {
+                    // Back to the end of its queue, anything more urgent runs first
+                    enqueue(job);
+                    continue;
+                }
+            }
+            finish(job, job.indicator.isCanceled() ? new ProcessCanceledException() : null);
+        }
+    }
+
+    private void finish(Job job, Throwable failure) {
+        synchronized (this) {
+            jobsByKey.remove(job.key, job);
+            if (job.lane != null && busyLanes.remove(job.lane, job)) {
+                // The lane's next job may have been skipped by every worker
+                startWorkers();
+            }
+        }
+        SyncMetrics.getInstance().incrementCounter("scheduler.jobs." + job.priority.name().toLowerCase(Locale.ROOT));
+        if (failure == null) {
+            job.future.complete(null);
+        } else {
+            job.future.completeExceptionally(failure);
+        }
+    }
+
+    private void publishQueueSizes() {
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        queues.forEach((priority, queue) ->
+                metrics.setGauge("scheduler.queue." + priority.name().toLowerCase(Locale.ROOT), queue.size()));
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            for (Job job : jobsByKey.values()) {
+                job.indicator.cancel();
+                job.future.completeExceptionally(new ProcessCanceledException());
+            }
+            queues.values().forEach(Deque::clear);
+            jobsByKey.clear();
+            busyLanes.clear();
+        }
+        executor.shutdownNow();
+    }
+
+    private static final class Job {
+        final String key;
+        /** The lane of an ordered job, null for other jobs */
+        @Nullable
+        final String lane;
+        final ChunkedJob job;
+        final ProgressIndicator indicator = new EmptyProgressIndicator();
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        Priority priority;
+        boolean waiting;
+
+        Job(String key, @Nullable String lane, Priority priority, ChunkedJob job) {
+            this.key = key;
+            this.lane = lane;
+            this.priority = priority;
+            this.job = job;
+        }
+    }
+}
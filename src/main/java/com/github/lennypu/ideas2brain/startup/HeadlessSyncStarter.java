@@ -0,0 +1,92 @@
+package com.github.lennypu.ideas2brain.startup;
+
+import com.github.lennypu.ideas2brain.services.AnkiConnectService;
+import com.github.lennypu.ideas2brain.services.HeadlessSyncRunner;
+import com.github.lennypu.ideas2brain.utils.NoteMappingUtil;
+import com.google.gson.GsonBuilder;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Command-line entry point syncing a directory tree to Anki without opening a project:
+ * <pre>
+ * idea ideas2brain-sync &lt;directory&gt; [--project-id &lt;id&gt;] [--endpoint &lt;url&gt;] [--batch-size &lt;n&gt;] [--report &lt;file&gt;]
+ * </pre>
+ * Without {@code --project-id}, the identifier is read from {@code .idea/ideas2brain.id} under the directory;
+ * the run fails if neither is present, as a new identifier would duplicate every note on each fresh checkout.
+ * The JSON report goes to the report file, or to standard output. Exits with 0 if every file was
+ * synced, 1 if some failed and 2 on usage errors.
+ */
+public final class HeadlessSyncStarter implements ApplicationStarter {
+    private static final Logger LOG = Logger.getInstance(HeadlessSyncStarter.class);
+
+    @Override
+    public void main(@NotNull List<String> args) {
+        System.exit(run(args.subList(1, args.size())));
+    }
+
+    private static final String USAGE =
+            "Usage: ideas2brain-sync <directory> [--project-id <id>] [--endpoint <url>] [--batch-size <n>] [--report <file>]";
+
+    private static int run(List<String> args) {
+        Path root = null;
+        String projectId = null;
+        Path reportFile = null;
+        int batchSize = HeadlessSyncRunner.DEFAULT_BATCH_SIZE;
+        try {
+            for (int i = 0; i < args.size(); i++) {
+                String arg = args.get(i);
+                switch (arg) {
+                    case "--project-id" -> projectId = args.get(++i);
+                    case "--endpoint" -> System.setProperty(AnkiConnectService.ENDPOINT_PROPERTY, args.get(++i));
+                    case "--batch-size" -> batchSize = Integer.parseInt(args.get(++i));
+                    case "--report" -> reportFile = Paths.get(args.get(++i));
+                    default -> root = Paths.get(arg);
+                }
+            }
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            root = null;
+        }
+        if (root == null || !Files.isDirectory(root)) {
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (projectId == null) {
+            projectId = NoteMappingUtil.readProjectId(root.toAbsolutePath().normalize().toString());
+        }
+        if (projectId == null) {
+            System.err.println("No project identifier: pass --project-id, or commit .idea/ideas2brain.id from the IDE project");
+            System.err.println(USAGE);
+            return 2;
+        }
+
+        HeadlessSyncRunner runner;
+        try {
+            runner = new HeadlessSyncRunner(root, projectId, batchSize);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        }
+        try {
+            HeadlessSyncRunner.Report report = runner.run();
+            String json = new GsonBuilder().setPrettyPrinting().create().toJson(runner.toJson(report));
+            if (reportFile != null) {
+                Files.writeString(reportFile, json, StandardCharsets.UTF_8);
+            } else {
+                System.out.println(json);
+            }
+            return report.isClean() ? 0 : 1;
+        } catch (Exception e) {
+            LOG.warn("Headless sync failed", e);
+            System.err.println("Headless sync failed: " + e.getMessage());
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.github.lennypu.ideas2brain.startup;
+
+import com.github.lennypu.ideas2brain.services.AnkiReconciliationService;
+import com.github.lennypu.ideas2brain.services.LegacyStatusMigration;
+import com.github.lennypu.ideas2brain.services.OfflineChangeScanner;
+import com.github.lennypu.ideas2brain.services.PreRenderService;
+import com.github.lennypu.ideas2brain.services.ProjectPathRouter;
+import com.github.lennypu.ideas2brain.services.SyncScheduler;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Starts the plugin's background work once a project is opened
+ */
+public class Ideas2BrainStartupActivity implements StartupActivity.DumbAware {
+    @Override
+    public void runActivity(@NotNull Project project) {
+        ProjectPathRouter.getInstance().invalidate();
+        LegacyStatusMigration.removeIfPresent(project);
+        SyncScheduler.getInstance().submit(SyncScheduler.Priority.MAINTENANCE, "stampScan:" + project.getLocationHash(), () -> {
+            if (!project.isDisposed()) {
+                OfflineChangeScanner.scan(project);
+            }
+        });
+        AnkiReconciliationService.getInstance(project).reschedule();
+        PreRenderService.getInstance(project).start();
+    }
+}
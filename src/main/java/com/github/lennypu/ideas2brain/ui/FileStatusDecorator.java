@@ -1,6 +1,7 @@
 package com.github.lennypu.ideas2brain.ui;
 
 import com.github.lennypu.ideas2brain.services.DatabaseFileStatusService;
+import com.github.lennypu.ideas2brain.services.DirectoryStatusRollup;
 import com.intellij.ide.projectView.PresentationData;
 import com.intellij.ide.projectView.ProjectViewNode;
 import com.intellij.ide.projectView.ProjectViewNodeDecorator;
@@ -16,7 +17,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 
 /**
- * Decorator for showing file sync status in Project View
+ * Decorator for showing file sync status in Project View.
+ * Directories show the counts of their synced, modified, failed and conflicting files.
  */
 public class FileStatusDecorator implements ProjectViewNodeDecorator {
 
@@ -29,7 +31,7 @@ public class FileStatusDecorator implements ProjectViewNodeDecorator {
     @Override
     public void decorate(@NotNull ProjectViewNode<?> node, @NotNull PresentationData data) {
         VirtualFile file = node.getVirtualFile();
-        if (file == null || file.isDirectory()) {
+        if (file == null) {
             return;
         }
 
@@ -39,6 +41,10 @@ public class FileStatusDecorator implements ProjectViewNodeDecorator {
         }
 
         DatabaseFileStatusService fileStatusService = DatabaseFileStatusService.getInstance(project);
+        if (file.isDirectory()) {
+            decorateDirectory(fileStatusService.getDirectoryCounts(file), data);
+            return;
+        }
         if (!fileStatusService.isJavaOrKotlinFile(file)) {
             return;
         }
@@ -77,6 +83,37 @@ public class FileStatusDecorator implements ProjectViewNodeDecorator {
 //        }
     }
 
+    /**
+     * Shows the status counts of a directory's tracked files next to its name
+     * 
+     * @param counts The rolled up counts of the directory
+     * @param data The presentation to decorate
+     */
+    private void decorateDirectory(DirectoryStatusRollup.Counts counts, PresentationData data) {
+        int synced = counts.get(DatabaseFileStatusService.FileStatus.SYNCED);
+        int modified = counts.get(DatabaseFileStatusService.FileStatus.MODIFIED_AFTER_SYNC);
+        int errors = counts.get(DatabaseFileStatusService.FileStatus.ERROR);
+        int conflicts = counts.get(DatabaseFileStatusService.FileStatus.CONFLICT);
+        if (synced == 0 && modified == 0 && errors == 0 && conflicts == 0) {
+            return;
+        }
+
+        StringBuilder badge = new StringBuilder();
+        badge.append(synced).append(" synced");
+        if (modified > 0) {
+            badge.append(", ").append(modified).append(" modified");
+        }
+        if (errors > 0) {
+            badge.append(", ").append(errors).append(errors == 1 ? " error" : " errors");
+        }
+        if (conflicts > 0) {
+            badge.append(", ").append(conflicts).append(" edited in Anki");
+        }
+
+        String location = data.getLocationString();
+        data.setLocationString(location == null || location.isEmpty() ? badge.toString() : location + ", " + badge);
+    }
+
     /**
      * Gets the appropriate synced icon for a Java file based on its content
      * 
@@ -0,0 +1,128 @@
+package com.github.lennypu.ideas2brain.ui;
+
+import com.github.lennypu.ideas2brain.services.AnkiReconciliationService;
+import com.github.lennypu.ideas2brain.services.Ideas2BrainSettings;
+import com.github.lennypu.ideas2brain.services.PreRenderService;
+import com.github.lennypu.ideas2brain.services.StatusStoreManager;
+import com.github.lennypu.ideas2brain.utils.NoteMappingRules;
+import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.options.ConfigurationException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.ui.JBIntSpinner;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.components.JBTextArea;
+import com.intellij.ui.components.JBTextField;
+import com.intellij.util.ui.FormBuilder;
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+
+/**
+ * Settings page under Tools | Ideas2Brain
+ */
+public class Ideas2BrainConfigurable implements Configurable {
+    private JBIntSpinner reconcileIntervalSpinner;
+    private JBTextField ankiConnectUrlField;
+    private JBCheckBox preRenderCheckBox;
+    private JBIntSpinner storeCacheSpinner;
+    private JBTextArea mappingRulesArea;
+    private JBCheckBox renderHtmlCheckBox;
+    private JPanel panel;
+
+    @Override
+    public @Nls String getDisplayName() {
+        return "Ideas2Brain";
+    }
+
+    @Override
+    public @Nullable JComponent createComponent() {
+        reconcileIntervalSpinner = new JBIntSpinner(0, 0, 24 * 60);
+        ankiConnectUrlField = new JBTextField();
+        preRenderCheckBox = new JBCheckBox("Render files that need a sync ahead of time while the IDE is idle");
+        storeCacheSpinner = new JBIntSpinner(32, 4, 1024);
+        mappingRulesArea = new JBTextArea(6, 40);
+        renderHtmlCheckBox = new JBCheckBox("Render Markdown to HTML in the IDE and use the standard Basic note type");
+        panel = FormBuilder.createFormBuilder()
+                .addLabeledComponent("AnkiConnect URL:", ankiConnectUrlField)
+                .addLabeledComponent("Reconcile with Anki every (minutes, 0 = off):", reconcileIntervalSpinner)
+                .addComponent(preRenderCheckBox)
+                .addLabeledComponent("Status database cache for all projects (MB):", storeCacheSpinner)
+                .addComponent(renderHtmlCheckBox)
+                .addTooltip("No Markdown add-on is needed in Anki. Existing notes keep their note type.")
+                .addLabeledComponent("Deck and tag rules:", new JBScrollPane(mappingRulesArea), true)
+                .addTooltip("One per line: strip src/main/java | deck com/acme = Acme | tag * = module::$1. "
+                        + "* matches one directory, $1 is what it matched. Applies to notes as they are next synced or moved.")
+                .addComponentFillVertically(new JPanel(), 0)
+                .getPanel();
+        reset();
+        return panel;
+    }
+
+    @Override
+    public boolean isModified() {
+        Ideas2BrainSettings.State state = Ideas2BrainSettings.getInstance().getState();
+        return reconcileIntervalSpinner.getNumber() != state.reconcileIntervalMinutes
+                || !ankiConnectUrlField.getText().trim().equals(state.ankiConnectUrl)
+                || preRenderCheckBox.isSelected() != state.preRenderInBackground
+                || storeCacheSpinner.getNumber() != state.statusStoreCacheMb
+                || !mappingRulesArea.getText().equals(state.noteMappingRules)
+                || renderHtmlCheckBox.isSelected() != state.renderHtmlLocally;
+    }
+
+    @Override
+    public void apply() throws ConfigurationException {
+        try {
+            NoteMappingRules.compile(mappingRulesArea.getText());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(e.getMessage(), "Invalid Deck and Tag Rules");
+        }
+
+        Ideas2BrainSettings.State state = Ideas2BrainSettings.getInstance().getState();
+        boolean scheduleChanged = reconcileIntervalSpinner.getNumber() != state.reconcileIntervalMinutes;
+        state.reconcileIntervalMinutes = reconcileIntervalSpinner.getNumber();
+        state.ankiConnectUrl = ankiConnectUrlField.getText().trim();
+        boolean preRenderEnabled = preRenderCheckBox.isSelected() && !state.preRenderInBackground;
+        state.preRenderInBackground = preRenderCheckBox.isSelected();
+        boolean storeCacheChanged = storeCacheSpinner.getNumber() != state.statusStoreCacheMb;
+        state.statusStoreCacheMb = storeCacheSpinner.getNumber();
+        state.noteMappingRules = mappingRulesArea.getText();
+        state.renderHtmlLocally = renderHtmlCheckBox.isSelected();
+        if (storeCacheChanged) {
+            StatusStoreManager.getInstance().rebalance();
+        }
+
+        for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+            if (scheduleChanged) {
+                AnkiReconciliationService.getInstance(project).reschedule();
+            }
+            if (preRenderEnabled) {
+                PreRenderService.getInstance(project).restart();
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        Ideas2BrainSettings.State state = Ideas2BrainSettings.getInstance().getState();
+        reconcileIntervalSpinner.setNumber(state.reconcileIntervalMinutes);
+        ankiConnectUrlField.setText(state.ankiConnectUrl);
+        preRenderCheckBox.setSelected(state.preRenderInBackground);
+        storeCacheSpinner.setNumber(state.statusStoreCacheMb);
+        mappingRulesArea.setText(state.noteMappingRules);
+        renderHtmlCheckBox.setSelected(state.renderHtmlLocally);
+    }
+
+    @Override
+    public void disposeUIResources() {
+        reconcileIntervalSpinner = null;
+        ankiConnectUrlField = null;
+        preRenderCheckBox = null;
+        storeCacheSpinner = null;
+        mappingRulesArea = null;
+        renderHtmlCheckBox = null;
+        panel = null;
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.lennypu.ideas2brain.ui;
+
+import com.github.lennypu.ideas2brain.services.NoteSearchIndex;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBList;
+import com.intellij.util.Alarm;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tool window panel searching the Markdown of synced notes as the user types
+ */
+public class NoteSearchPanel extends JPanel implements Disposable {
+    private static final int SEARCH_DELAY_MS = 30;
+    private static final int MAX_HITS = 200;
+
+    private final Project project;
+    private final SearchTextField searchField = new SearchTextField(false);
+    private final DefaultListModel<NoteSearchIndex.SearchHit> model = new DefaultListModel<>();
+    private final JBList<NoteSearchIndex.SearchHit> resultList = new JBList<>(model);
+    private final Alarm searchAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    private volatile String latestQuery = "";
+
+    public NoteSearchPanel(@NotNull Project project) {
+        super(new BorderLayout());
+        this.project = project;
+
+        searchField.addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                scheduleSearch(searchField.getText());
+            }
+        });
+
+        resultList.setEmptyText("Type to search synced notes");
+        resultList.setCellRenderer(new ColoredListCellRenderer<>() {
+            @Override
+            protected void customizeCellRenderer(@NotNull JList<? extends NoteSearchIndex.SearchHit> list,
+                                                 NoteSearchIndex.SearchHit hit, int index,
+                                                 boolean selected, boolean hasFocus) {
+                append(hit.member, SimpleTextAttributes.REGULAR_BOLD_ATTRIBUTES);
+                append("  " + hit.filePath.substring(hit.filePath.lastIndexOf('/') + 1), SimpleTextAttributes.GRAYED_ATTRIBUTES);
+                if (!hit.snippet.isEmpty()) {
+                    append("  " + hit.snippet, SimpleTextAttributes.REGULAR_ATTRIBUTES);
+                }
+            }
+        });
+        resultList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    openSelected();
+                }
+            }
+        });
+        resultList.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+                    openSelected();
+                }
+            }
+        });
+
+        add(searchField, BorderLayout.NORTH);
+        add(ScrollPaneFactory.createScrollPane(resultList), BorderLayout.CENTER);
+    }
+
+    private void scheduleSearch(String query) {
+        latestQuery = query;
+        searchAlarm.cancelAllRequests();
+        searchAlarm.addRequest(() -> {
+            if (!query.equals(latestQuery)) {
+                return;
+            }
+            long start = System.nanoTime();
+            List<NoteSearchIndex.SearchHit> hits = NoteSearchIndex.getInstance(project).search(query, MAX_HITS);
+            SyncMetrics.getInstance().setGauge("search.lastQueryMicros", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            ApplicationManager.getApplication().invokeLater(() -> {
+                // Drop results of queries the user has already typed past
+                if (query.equals(latestQuery)) {
+                    showHits(hits);
+                }
+            }, ModalityState.any(), o -> project.isDisposed());
+        }, SEARCH_DELAY_MS);
+    }
+
+    private void showHits(List<NoteSearchIndex.SearchHit> hits) {
+        model.clear();
+        model.addAll(hits);
+        resultList.setEmptyText(latestQuery.isBlank() ? "Type to search synced notes" : "No matching notes");
+    }
+
+    private void openSelected() {
+        NoteSearchIndex.SearchHit hit = resultList.getSelectedValue();
+        if (hit == null) {
+            return;
+        }
+        VirtualFile file = LocalFileSystem.getInstance().findFileByPath(hit.filePath);
+        if (file == null) {
+            return;
+        }
+        new OpenFileDescriptor(project, file, findMemberOffset(file, hit.member)).navigate(true);
+    }
+
+    /**
+     * Finds the declaration of a member by its name, the first word of its heading
+     */
+    private static int findMemberOffset(VirtualFile file, String member) {
+        Document document = FileDocumentManager.getInstance().getDocument(file);
+        String name = member.split("[\\s(<]", 2)[0];
+        if (document == null || name.isEmpty()) {
+            return 0;
+        }
+        return Math.max(0, document.getCharsSequence().toString().indexOf(name));
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.lennypu.ideas2brain.ui;
+
+import com.github.lennypu.ideas2brain.services.StatusStoreManager;
+import com.github.lennypu.ideas2brain.utils.LatencyHistogram;
+import com.github.lennypu.ideas2brain.utils.SyncMetrics;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.ide.CopyPasteManager;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.table.JBTable;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tool window panel showing live sync metrics
+ */
+public class SyncStatisticsPanel extends JPanel implements Disposable {
+    private static final Gson PRETTY_GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final int REFRESH_INTERVAL_MS = 1000;
+    /** The store gauges query every status database and stat its file, so they refresh far less often */
+    private static final long STORE_GAUGES_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final MetricsTableModel model = new MetricsTableModel();
+    private final Timer refreshTimer;
+    private final AtomicBoolean publishingGauges = new AtomicBoolean();
+    // Only touched on the EDT
+    private boolean wasShowing;
+    private long lastGaugesPublished;
+
+    public SyncStatisticsPanel() {
+        super(new BorderLayout());
+
+        JButton copyButton = new JButton("Copy as JSON");
+        copyButton.addActionListener(e -> CopyPasteManager.getInstance().setContents(
+                new StringSelection(PRETTY_GSON.toJson(SyncMetrics.getInstance().toJson()))));
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            SyncMetrics.getInstance().reset();
+            refresh();
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        buttons.add(copyButton);
+        buttons.add(resetButton);
+
+        add(buttons, BorderLayout.NORTH);
+        add(ScrollPaneFactory.createScrollPane(new JBTable(model)), BorderLayout.CENTER);
+
+        // Only repaint while visible, the metrics themselves are collected regardless
+        refreshTimer = new Timer(REFRESH_INTERVAL_MS, e -> {
+            boolean showing = isShowing();
+            if (showing) {
+                publishStoreGauges(!wasShowing);
+                refresh();
+            }
+            wasShowing = showing;
+        });
+        refreshTimer.start();
+        refresh();
+    }
+
+    /**
+     * Publishes the store gauges off the EDT when the tab was just opened or the last values are old,
+     * never with a previous query still running. They are shown with the next refresh.
+     */
+    private void publishStoreGauges(boolean opened) {
+        long now = System.nanoTime();
+        if (!opened && now - lastGaugesPublished < STORE_GAUGES_INTERVAL_NANOS) {
+            return;
+        }
+        if (!publishingGauges.compareAndSet(false, true)) {
+            return;
+        }
+        lastGaugesPublished = now;
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            try {
+                StatusStoreManager.getInstance().publishGauges();
+            } finally {
+                publishingGauges.set(false);
+            }
+        });
+    }
+
+    private void refresh() {
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        JsonObject snapshot = metrics.toJson();
+        List<String[]> rows = new ArrayList<>();
+
+        for (SyncMetrics.Stage stage : SyncMetrics.Stage.values()) {
+            LatencyHistogram histogram = metrics.getHistogram(stage);
+            rows.add(new String[]{
+                    "stage." + stage.name().toLowerCase(),
+                    String.valueOf(histogram.getCount()),
+                    String.format("mean %.2f ms, p50 %.2f ms, p95 %.2f ms, max %.2f ms",
+                            histogram.getMeanMillis(),
+                            histogram.getPercentileMillis(50),
+                            histogram.getPercentileMillis(95),
+                            histogram.getMaxMillis())
+            });
+        }
+        addSection(rows, "anki.", snapshot.getAsJsonObject("ankiRequests"));
+        addSection(rows, "", snapshot.getAsJsonObject("counters"));
+        addSection(rows, "", snapshot.getAsJsonObject("gauges"));
+
+        for (Map.Entry<String, JsonElement> entry : snapshot.getAsJsonObject("caches").entrySet()) {
+            JsonObject cache = entry.getValue().getAsJsonObject();
+            rows.add(new String[]{
+                    "cache." + entry.getKey(),
+                    String.format("%.1f %%", cache.get("hitRate").getAsDouble() * 100),
+                    cache.get("hits").getAsLong() + " hits, " + cache.get("misses").getAsLong() + " misses"
+            });
+        }
+
+        model.setRows(rows);
+    }
+
+    private static void addSection(List<String[]> rows, String prefix, JsonObject section) {
+        for (Map.Entry<String, JsonElement> entry : section.entrySet()) {
+            rows.add(new String[]{prefix + entry.getKey(), entry.getValue().getAsString(), ""});
+        }
+    }
+
+    @Override
+    public void dispose() {
+        refreshTimer.stop();
+    }
+
+    private static final class MetricsTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Metric", "Value", "Details"};
+        private List<String[]> rows = List.of();
+
+        void setRows(List<String[]> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Object getValueAt(int rowIndex, int columnIndex) {
+            return rows.get(rowIndex)[columnIndex];
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.lennypu.ideas2brain.ui;
+
+import com.github.lennypu.ideas2brain.action.SyncToAnkiAction;
+import com.github.lennypu.ideas2brain.services.DatabaseFileStatusService;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.ScrollPaneFactory;
+import com.intellij.ui.SearchTextField;
+import com.intellij.ui.table.JBTable;
+import com.intellij.util.Alarm;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tool window panel listing every tracked file, paged from the status database so it opens instantly
+ * however many rows there are. Sorting and filtering run as database queries.
+ */
+public class TrackedFilesPanel extends JPanel implements Disposable {
+    private static final int FILTER_DELAY_MS = 200;
+    private static final String ALL_STATUSES = "All statuses";
+
+    private final Project project;
+    private final TrackedFilesTableModel model;
+    private final JBTable table;
+    private final ComboBox<String> statusFilter = new ComboBox<>();
+    private final SearchTextField pathFilter = new SearchTextField(false);
+    private final Alarm filterAlarm = new Alarm(this);
+
+    public TrackedFilesPanel(@NotNull Project project) {
+        super(new BorderLayout());
+        this.project = project;
+        this.model = new TrackedFilesTableModel(project);
+        this.table = new JBTable(model);
+
+        table.getEmptyText().setText("No tracked files");
+        table.getTableHeader().setReorderingAllowed(false);
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.convertColumnIndexToModel(table.columnAtPoint(e.getPoint()));
+                if (column >= 0) {
+                    sortBy(TrackedFilesTableModel.SORT_COLUMNS[column]);
+                }
+            }
+        });
+
+        statusFilter.addItem(ALL_STATUSES);
+        for (DatabaseFileStatusService.FileStatus status : DatabaseFileStatusService.FileStatus.values()) {
+            statusFilter.addItem(status.name());
+        }
+        statusFilter.addActionListener(e -> applyFilter());
+        pathFilter.addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                filterAlarm.cancelAllRequests();
+                filterAlarm.addRequest(TrackedFilesPanel.this::applyFilter, FILTER_DELAY_MS);
+            }
+        });
+        pathFilter.getTextEditor().setToolTipText("Path contains; start with / to match a path prefix");
+
+        JButton resyncButton = new JButton("Re-Sync Selected");
+        resyncButton.addActionListener(e -> resyncSelected());
+        JButton forgetButton = new JButton("Forget Selected");
+        forgetButton.addActionListener(e -> forgetSelected());
+        JButton refreshButton = new JButton("Refresh");
+        refreshButton.addActionListener(e -> model.refresh());
+
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        controls.add(statusFilter);
+        controls.add(pathFilter);
+        controls.add(resyncButton);
+        controls.add(forgetButton);
+        controls.add(refreshButton);
+
+        add(controls, BorderLayout.NORTH);
+        add(ScrollPaneFactory.createScrollPane(table), BorderLayout.CENTER);
+
+        // Only the row count is queried now, pages follow as the table paints them
+        model.refresh();
+    }
+
+    private void sortBy(DatabaseFileStatusService.TrackedFileSort sort) {
+        DatabaseFileStatusService.TrackedFileQuery query = model.getQuery();
+        boolean ascending = query.sort != sort || !query.ascending;
+        model.setQuery(new DatabaseFileStatusService.TrackedFileQuery(query.status, query.pathFilter, sort, ascending));
+        table.getTableHeader().repaint();
+    }
+
+    private void applyFilter() {
+        String selected = (String) statusFilter.getSelectedItem();
+        DatabaseFileStatusService.FileStatus status = selected == null || ALL_STATUSES.equals(selected)
+                ? null
+                : DatabaseFileStatusService.FileStatus.valueOf(selected);
+        DatabaseFileStatusService.TrackedFileQuery query = model.getQuery();
+        model.setQuery(new DatabaseFileStatusService.TrackedFileQuery(status, pathFilter.getText().trim(), query.sort, query.ascending));
+    }
+
+    /**
+     * Syncs the selected files again, including files that are already synced
+     */
+    private void resyncSelected() {
+        int[] rows = table.getSelectedRows();
+        if (rows.length == 0) {
+            return;
+        }
+        DatabaseFileStatusService.TrackedFileQuery query = model.getQuery();
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Collecting selected files", true) {
+            private final List<VirtualFile> files = new ArrayList<>();
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                List<String> paths = TrackedFilesTableModel.fetchPaths(project, query, rows);
+                // Synced files are skipped by a sync unless they are marked modified
+                DatabaseFileStatusService.getInstance(project).markModified(paths);
+                for (String path : paths) {
+                    indicator.checkCanceled();
+                    VirtualFile file = LocalFileSystem.getInstance().findFileByPath(path);
+                    if (file != null) {
+                        files.add(file);
+                    }
+                }
+            }
+
+            @Override
+            public void onSuccess() {
+                model.refresh();
+                if (!files.isEmpty()) {
+                    SyncToAnkiAction.syncInBackground(project, files, false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops tracking the selected files, leaving their notes in Anki
+     */
+    private void forgetSelected() {
+        int[] rows = table.getSelectedRows();
+        if (rows.length == 0) {
+            return;
+        }
+        int answer = Messages.showYesNoDialog(
+                project,
+                "Stop tracking " + rows.length + " files? Their notes stay in Anki and are no longer updated.",
+                "Forget Tracked Files",
+                Messages.getQuestionIcon()
+        );
+        if (answer != Messages.YES) {
+            return;
+        }
+        DatabaseFileStatusService.TrackedFileQuery query = model.getQuery();
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Forgetting tracked files", false) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                List<String> paths = TrackedFilesTableModel.fetchPaths(project, query, rows);
+                DatabaseFileStatusService.getInstance(project).forgetFiles(paths);
+            }
+
+            @Override
+            public void onSuccess() {
+                model.refresh();
+            }
+        });
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
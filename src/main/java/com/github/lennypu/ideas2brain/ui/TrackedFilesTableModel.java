@@ -0,0 +1,189 @@
+package com.github.lennypu.ideas2brain.ui;
+
+import com.github.lennypu.ideas2brain.services.DatabaseFileStatusService;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.table.AbstractTableModel;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Table model over the tracked files that only holds the pages around what the table has shown recently.
+ * The row count and every page come from indexed database queries on a pooled thread; cells of pages that
+ * are still loading render empty until their page arrives. Changing the query drops all pages.
+ */
+public class TrackedFilesTableModel extends AbstractTableModel {
+    static final int PAGE_SIZE = 200;
+    /** Enough for several screens of scrolling in either direction */
+    private static final int MAX_PAGES = 20;
+    private static final String[] COLUMNS = {"Path", "Status", "Note ID", "Last Change"};
+    static final DatabaseFileStatusService.TrackedFileSort[] SORT_COLUMNS = {
+            DatabaseFileStatusService.TrackedFileSort.PATH,
+            DatabaseFileStatusService.TrackedFileSort.STATUS,
+            DatabaseFileStatusService.TrackedFileSort.NOTE_ID,
+            DatabaseFileStatusService.TrackedFileSort.LAST_CHANGE
+    };
+
+    private final Project project;
+    private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+    // Only touched on the EDT
+    private final Map<Integer, List<DatabaseFileStatusService.TrackedFile>> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<DatabaseFileStatusService.TrackedFile>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> loadingPages = new HashSet<>();
+    private DatabaseFileStatusService.TrackedFileQuery query = new DatabaseFileStatusService.TrackedFileQuery(
+            null, "", DatabaseFileStatusService.TrackedFileSort.PATH, true);
+    private int rowCount;
+    /** Incremented on every query change, so results of older queries are dropped */
+    private int generation;
+
+    public TrackedFilesTableModel(@NotNull Project project) {
+        this.project = project;
+    }
+
+    public DatabaseFileStatusService.TrackedFileQuery getQuery() {
+        return query;
+    }
+
+    /**
+     * Switches to a new filter or order and reloads the row count. Must be called on the EDT.
+     */
+    public void setQuery(@NotNull DatabaseFileStatusService.TrackedFileQuery query) {
+        this.query = query;
+        refresh();
+    }
+
+    /**
+     * Drops all pages and reloads the row count. Must be called on the EDT.
+     */
+    public void refresh() {
+        int requestGeneration = ++generation;
+        DatabaseFileStatusService.TrackedFileQuery requestQuery = query;
+        pages.clear();
+        loadingPages.clear();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            int count = DatabaseFileStatusService.getInstance(project).countTrackedFiles(requestQuery);
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (requestGeneration == generation) {
+                    rowCount = count;
+                    fireTableDataChanged();
+                }
+            }, ModalityState.any(), o -> project.isDisposed());
+        });
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        if (SORT_COLUMNS[column] != query.sort) {
+            return COLUMNS[column];
+        }
+        return COLUMNS[column] + (query.ascending ? " \u25B2" : " \u25BC");
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        DatabaseFileStatusService.TrackedFile row = getRow(rowIndex);
+        if (row == null) {
+            return "";
+        }
+        return switch (columnIndex) {
+            case 0 -> row.filePath;
+            case 1 -> row.status.name();
+            case 2 -> row.noteId != null ? row.noteId : "";
+            default -> row.lastModified > 0 ? dateFormat.format(new Date(row.lastModified)) : "";
+        };
+    }
+
+    /**
+     * Gets a loaded row, scheduling its page if it is not loaded yet
+     *
+     * @return The row, or null while its page loads
+     */
+    @Nullable
+    public DatabaseFileStatusService.TrackedFile getRow(int rowIndex) {
+        int page = rowIndex / PAGE_SIZE;
+        List<DatabaseFileStatusService.TrackedFile> rows = pages.get(page);
+        if (rows == null) {
+            loadPage(page);
+            return null;
+        }
+        int index = rowIndex - page * PAGE_SIZE;
+        return index < rows.size() ? rows.get(index) : null;
+    }
+
+    private void loadPage(int page) {
+        if (!loadingPages.add(page)) {
+            return;
+        }
+        int requestGeneration = generation;
+        DatabaseFileStatusService.TrackedFileQuery requestQuery = query;
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            List<DatabaseFileStatusService.TrackedFile> rows = DatabaseFileStatusService.getInstance(project)
+                    .getTrackedFiles(requestQuery, page * PAGE_SIZE, PAGE_SIZE);
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                loadingPages.remove(page);
+                pages.put(page, rows);
+                int first = page * PAGE_SIZE;
+                int last = Math.min(first + PAGE_SIZE, rowCount) - 1;
+                if (first <= last) {
+                    fireTableRowsUpdated(first, last);
+                }
+            }, ModalityState.any(), o -> project.isDisposed());
+        });
+    }
+
+    /**
+     * Gets the paths of table rows with one query over the window they span. Must be called off the EDT,
+     * the query and row indexes are captured by the caller on the EDT.
+     *
+     * @param project The project
+     * @param query The query the rows belong to
+     * @param rowIndexes The selected rows, in ascending order as returned by the table
+     * @return The paths of the rows that still exist
+     */
+    static List<String> fetchPaths(@NotNull Project project,
+                                   @NotNull DatabaseFileStatusService.TrackedFileQuery query,
+                                   int @NotNull [] rowIndexes) {
+        if (rowIndexes.length == 0) {
+            return List.of();
+        }
+        int first = rowIndexes[0];
+        int last = rowIndexes[rowIndexes.length - 1];
+        List<DatabaseFileStatusService.TrackedFile> rows = DatabaseFileStatusService.getInstance(project)
+                .getTrackedFiles(query, first, last - first + 1);
+        List<String> paths = new ArrayList<>(rowIndexes.length);
+        for (int rowIndex : rowIndexes) {
+            int index = rowIndex - first;
+            if (index < rows.size()) {
+                paths.add(rows.get(index).filePath);
+            }
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,124 @@
+package com.github.lennypu.ideas2brain.utils;
+
+import com.intellij.openapi.progress.ProgressManager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Additive-increase, multiplicative-decrease limit on concurrent requests.
+ * <p>
+ * The limit grows by about one per round trip while requests use it fully and their latency stays
+ * close to the lowest latency seen recently for the same kind of request. It is cut by a fixed factor when
+ * a request fails or takes much longer than that baseline, at most once per round trip, so a burst of slow
+ * responses counts once. Baselines are kept per kind, so large batches are only compared with batches of
+ * their size and not with cheap single requests.
+ */
+public final class AdaptiveLimiter {
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final double BACKOFF_RATIO = 0.7;
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    private final String gaugeName;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private double limit;
+    private int inFlight;
+    private final Map<String, Long> baselineNanos = new HashMap<>();
+    private long lastDecreaseNanos;
+
+    /**
+     * @param gaugeName Name of the {@link SyncMetrics} gauge showing the current limit
+     * @param initialLimit The starting limit
+     * @param minLimit The lowest limit, at least one
+     * @param maxLimit The highest limit
+     */
+    public AdaptiveLimiter(String gaugeName, int initialLimit, int minLimit, int maxLimit) {
+        this.gaugeName = gaugeName;
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        publish();
+    }
+
+    /**
+     * Waits for a free slot. Checks for cancellation of the current progress indicator while waiting.
+     *
+     * @return The {@link System#nanoTime()} at which the slot was taken, to be passed to {@link #release}
+     */
+    public long acquire() {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                ProgressManager.checkCanceled();
+                released.awaitNanos(WAIT_SLICE_NANOS);
+            }
+            inFlight++;
+            return System.nanoTime();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a request slot", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a slot and adapts the limit to the outcome of the request
+     *
+     * @param kind Groups requests of similar cost, such as an action and its batch size, which share a latency baseline
+     * @param acquiredNanos The value returned by {@link #acquire}
+     * @param success Whether the request succeeded
+     */
+    public void release(String kind, long acquiredNanos, boolean success) {
+        long now = System.nanoTime();
+        long latency = now - acquiredNanos;
+        lock.lock();
+        try {
+            boolean saturated = inFlight >= (int) limit;
+            inFlight--;
+
+            long baseline = baselineNanos.getOrDefault(kind, Long.MAX_VALUE);
+            if (success) {
+                // Let the baseline drift up slowly so it follows lasting changes in Anki's speed
+                baseline = latency < baseline ? latency : baseline + (latency - baseline) / 64;
+                baselineNanos.put(kind, baseline);
+            }
+
+            boolean congested = !success || latency > baseline * LATENCY_TOLERANCE;
+            if (congested) {
+                long roundTrip = baseline == Long.MAX_VALUE ? latency : Math.min(latency, baseline * 4);
+                if (now - lastDecreaseNanos > roundTrip) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    lastDecreaseNanos = now;
+                }
+            } else if (saturated) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+
+            publish();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void publish() {
+        SyncMetrics.getInstance().setGauge(gaugeName, (long) limit);
+    }
+}
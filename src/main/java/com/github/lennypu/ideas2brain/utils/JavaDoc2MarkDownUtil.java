@@ -7,8 +7,12 @@ import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.FieldDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.comments.Comment;
+import com.github.javaparser.ast.comments.JavadocComment;
 import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+import com.github.lennypu.ideas2brain.jfr.MarkdownRenderEvent;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -18,15 +22,42 @@ import java.util.Optional;
 import static com.github.javaparser.utils.PositionUtils.sortByBeginPosition;
 
 public class JavaDoc2MarkDownUtil {
+    /**
+     * Version of the Markdown output, part of the render cache key.
+     * Increment on any change that alters the output for the same input.
+     */
+    public static final int RENDERER_VERSION = 2;
 
     public static String JavaFileStream2MarkDownString(InputStream inputStream) {
-        CompilationUnit unit = StaticJavaParser.parse(inputStream);
+        return JavaFileStream2MarkDownString(inputStream, null);
+    }
+
+    /**
+     * Converts the comments of a Java source file to Markdown
+     *
+     * @param inputStream The source file content
+     * @param sourceName The file the content was read from, reported to Flight Recorder; may be null
+     * @return The Markdown document
+     */
+    public static String JavaFileStream2MarkDownString(InputStream inputStream, String sourceName) {
+        MarkdownRenderEvent event = new MarkdownRenderEvent();
+        event.begin();
+
+        SyncMetrics metrics = SyncMetrics.getInstance();
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        long parseStart = System.nanoTime();
+        CompilationUnit unit = StaticJavaParser.parse(countingStream);
+        metrics.recordLatency(SyncMetrics.Stage.PARSE, parseStart);
+
+        long renderStart = System.nanoTime();
         StringBuilder stringBuilder = new StringBuilder("");
-        new VoidVisitorAdapter<StringBuilder>(){
+        var visitor = new VoidVisitorAdapter<StringBuilder>(){
             int currentLevel = 1;  // 当前的层级，初始为1
+            int memberCount = 0;
 
             @Override
             public void visit(ClassOrInterfaceDeclaration n, StringBuilder arg) {
+                memberCount++;
                 extractComments(n, n.getComment(), n.getNameAsString(), stringBuilder, currentLevel);
 
                 currentLevel++;
@@ -36,6 +67,7 @@ public class JavaDoc2MarkDownUtil {
 
             @Override
             public void visit(FieldDeclaration n, StringBuilder arg) {
+                memberCount++;
                 extractComments(n, n.getComment(), n.getVariables().get(0).getNameAsString(), stringBuilder, currentLevel);
                 currentLevel++;
                 super.visit(n, arg);
@@ -43,13 +75,23 @@ public class JavaDoc2MarkDownUtil {
             }
             @Override
             public void visit(MethodDeclaration n, StringBuilder arg) {
+                memberCount++;
                 extractComments(n, n.getComment(), n.getNameAsString(), stringBuilder, currentLevel);
                 currentLevel++;
                 super.visit(n, arg);
                 currentLevel--;
             }
-        }.visit(unit, stringBuilder);
+        };
+        visitor.visit(unit, stringBuilder);
+        metrics.recordLatency(SyncMetrics.Stage.RENDER, renderStart);
 
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = sourceName;
+            event.bytes = countingStream.count;
+            event.members = visitor.memberCount;
+            event.commit();
+        }
 
         return stringBuilder.toString();
     }
@@ -60,24 +102,41 @@ public class JavaDoc2MarkDownUtil {
             throw new RuntimeException("The depth of Markdown headings cannot exceed 6");
         }
 
-        if ("Test_A_A".equals(nameAsString)) {
-            System.out.println("");
-        }
         if (commentOptional.isPresent()) {
             List<Comment> result = new ArrayList<>();
             JavaDoc2MarkDownUtil.getOrphanCommentsBeforeThisChildNode(n, result);
             stringBuilder.append("#".repeat(currentLevel)).append(" ").append(nameAsString).append(System.lineSeparator());
             result.add(commentOptional.get());
-            result.stream().map(e -> {
-                String content = e.getContent();
-                if (e.getContent().startsWith("/")) {
-                    return content.substring(1).trim();
+            for (Comment comment : result) {
+                String content = comment.getContent();
+                if (content.isBlank()) {
+                    continue;
                 }
-                return content.trim();
-            }).filter(e -> !"".equals(e)).forEach(e -> stringBuilder.append(e.trim()).append(System.lineSeparator()));
+                if (comment instanceof JavadocComment) {
+                    renderJavadoc(content, stringBuilder);
+                } else {
+                    String text = content.startsWith("/") ? content.substring(1).trim() : content.trim();
+                    if (!text.isEmpty()) {
+                        stringBuilder.append(text).append(System.lineSeparator());
+                    }
+                }
+            }
         }
     }
 
+    /**
+     * Renders the content of a Javadoc comment, without its delimiters, to Markdown.
+     * Parameters and exceptions become tables, other block tags labelled paragraphs, {@code {@code}} and
+     * {@code {@link}} code spans, and common HTML tags and entities their Markdown equivalents.
+     * The comment is read once and written straight to the output.
+     *
+     * @param content The comment content
+     * @param out The buffer to append to; the output ends with a line separator
+     */
+    public static void renderJavadoc(String content, StringBuilder out) {
+        new JavadocRenderer(content, out).run();
+    }
+
 
     /**
      *
@@ -129,4 +188,612 @@ public class JavaDoc2MarkDownUtil {
             result.add((Comment) nodeToPrint);
         }
     }
+
+    /**
+     * Single pass Javadoc to Markdown renderer. Reads the comment character by character, matching tag names
+     * in place against the constant templates below, and appends to the output as it goes; only whitespace
+     * and line breaks are held back, as flags, until the next character decides how they are written.
+     */
+    private static final class JavadocRenderer {
+        private static final String NL = System.lineSeparator();
+        private static final String PARAMS_HEADER = "| Parameter | Description |" + NL + "| --- | --- |" + NL;
+        private static final String THROWS_HEADER = "| Exception | Description |" + NL + "| --- | --- |" + NL;
+        private static final String FENCE = "```";
+        private static final String[] ENTITIES = {"&lt;", "&gt;", "&amp;", "&quot;", "&apos;", "&#39;", "&nbsp;", "&#64;"};
+        private static final char[] ENTITY_CHARS = {'<', '>', '&', '"', '\'', '\'', ' ', '@'};
+
+        private enum Kind { PARAM, THROWS, LABEL, REFERENCE }
+
+        private enum Html {
+            P("p"), BR("br"), CODE("code"), TT("tt"), B("b"), STRONG("strong"), I("i"), EM("em"),
+            PRE("pre"), UL("ul"), OL("ol"), LI("li"), A("a");
+
+            private static final Html[] ALL = values();
+            final String tag;
+
+            Html(String tag) {
+                this.tag = tag;
+            }
+        }
+
+        private static final class BlockTag {
+            final String name;
+            final Kind kind;
+            final String prefix;
+
+            BlockTag(String name, Kind kind, String prefix) {
+                this.name = name;
+                this.kind = kind;
+                this.prefix = prefix;
+            }
+        }
+
+        private static final BlockTag[] BLOCK_TAGS = {
+                new BlockTag("param", Kind.PARAM, null),
+                new BlockTag("return", Kind.LABEL, "**Returns:** "),
+                new BlockTag("throws", Kind.THROWS, null),
+                new BlockTag("exception", Kind.THROWS, null),
+                new BlockTag("see", Kind.REFERENCE, "**See:** "),
+                new BlockTag("since", Kind.LABEL, "**Since:** "),
+                new BlockTag("deprecated", Kind.LABEL, "**Deprecated:** "),
+                new BlockTag("author", Kind.LABEL, "**Author:** "),
+                new BlockTag("version", Kind.LABEL, "**Version:** ")
+        };
+
+        private final String c;
+        private final int n;
+        private final StringBuilder out;
+        private int i;
+        private boolean lineStart = true;
+        /** Line breaks wanted before the next text: 1 for a new line, 2 for a new paragraph */
+        private int pendingBreaks;
+        private boolean pendingSpace;
+        /** Line breaks already at the end of the output; the heading before the comment ends with one */
+        private int trailingBreaks = 1;
+        private boolean wroteText;
+        /** The table being written, PARAM or THROWS, or null */
+        private Kind table;
+        /** Inside a table cell, where line breaks become spaces and pipes are escaped */
+        private boolean cell;
+        private boolean pre;
+        /** Inside a {@code <pre>{@code ...}</pre>} block, whose closing brace is dropped */
+        private boolean preCode;
+        private int preDepth;
+        private int hrefStart = -1;
+        private int hrefEnd;
+
+        JavadocRenderer(String content, StringBuilder out) {
+            this.c = content;
+            this.n = content.length();
+            this.out = out;
+        }
+
+        void run() {
+            while (i < n) {
+                if (lineStart) {
+                    lineStart = false;
+                    skipLinePrefix();
+                    if (!pre && i + 1 < n && c.charAt(i) == '@' && Character.isLetter(c.charAt(i + 1))) {
+                        blockTag();
+                    }
+                    continue;
+                }
+                char ch = c.charAt(i);
+                if (ch == '\n') {
+                    lineBreak();
+                    lineStart = true;
+                    i++;
+                } else if (ch == '\r') {
+                    i++;
+                } else if (pre) {
+                    preChar(ch);
+                } else if (ch == ' ' || ch == '\t') {
+                    pendingSpace |= wroteText;
+                    i++;
+                } else if (ch == '{' && i + 1 < n && c.charAt(i + 1) == '@') {
+                    inlineTag();
+                } else if ((ch == '<' && htmlTag()) || (ch == '&' && entity())) {
+                    // Consumed
+                } else {
+                    text(ch);
+                    i++;
+                }
+            }
+            if (pre) {
+                closePre();
+            }
+            endRow();
+            if (trailingBreaks == 0) {
+                out.append(NL);
+            }
+        }
+
+        /**
+         * Skips the indentation, the leading asterisks and one space of a line. Inside {@code <pre>} the
+         * indentation after the asterisks is kept.
+         */
+        private void skipLinePrefix() {
+            int j = i;
+            while (j < n && (c.charAt(j) == ' ' || c.charAt(j) == '\t')) {
+                j++;
+            }
+            if (j < n && c.charAt(j) == '*') {
+                while (j < n && c.charAt(j) == '*') {
+                    j++;
+                }
+                if (j < n && c.charAt(j) == ' ') {
+                    j++;
+                }
+                i = j;
+            } else if (!pre) {
+                i = j;
+            }
+        }
+
+        private void lineBreak() {
+            if (pre) {
+                out.append(NL);
+                trailingBreaks = Math.min(2, trailingBreaks + 1);
+            } else if (cell) {
+                pendingSpace = true;
+            } else if (wroteText) {
+                pendingBreaks = Math.min(2, pendingBreaks + 1);
+            }
+        }
+
+        private void flushPending() {
+            if (pendingBreaks > 0) {
+                for (int k = trailingBreaks; k < pendingBreaks; k++) {
+                    out.append(NL);
+                }
+                pendingBreaks = 0;
+            } else if (pendingSpace) {
+                out.append(' ');
+            }
+            pendingSpace = false;
+        }
+
+        private void text(char ch) {
+            flushPending();
+            if (cell && ch == '|') {
+                out.append('\\');
+            }
+            out.append(ch);
+            trailingBreaks = 0;
+            wroteText = true;
+        }
+
+        /** Opening markup takes the pending whitespace before it */
+        private void openMarkup(String markup) {
+            flushPending();
+            out.append(markup);
+            trailingBreaks = 0;
+            wroteText = true;
+        }
+
+        /** Closing markup leaves the pending whitespace after it */
+        private void closeMarkup(String markup) {
+            out.append(markup);
+            trailingBreaks = 0;
+        }
+
+        private void endRow() {
+            if (cell) {
+                out.append(" |").append(NL);
+                cell = false;
+                trailingBreaks = 1;
+                pendingBreaks = 0;
+                pendingSpace = false;
+            }
+        }
+
+        private void blockTag() {
+            int nameStart = i + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < n && Character.isLetter(c.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            BlockTag tag = null;
+            for (BlockTag candidate : BLOCK_TAGS) {
+                if (regionIs(nameStart, nameEnd, candidate.name, false)) {
+                    tag = candidate;
+                    break;
+                }
+            }
+            i = nameEnd;
+            skipSpaces();
+            endRow();
+
+            Kind kind = tag != null ? tag.kind : Kind.LABEL;
+            if (kind == Kind.PARAM || kind == Kind.THROWS) {
+                if (table != kind) {
+                    pendingBreaks = wroteText ? 2 : 0;
+                    flushPending();
+                    out.append(kind == Kind.PARAM ? PARAMS_HEADER : THROWS_HEADER);
+                    table = kind;
+                }
+                out.append("| `");
+                while (i < n && !Character.isWhitespace(c.charAt(i))) {
+                    char ch = c.charAt(i++);
+                    if (ch == '|') {
+                        out.append('\\');
+                    }
+                    out.append(ch);
+                }
+                out.append("` |");
+                cell = true;
+                pendingSpace = true;
+                trailingBreaks = 0;
+                wroteText = true;
+                return;
+            }
+
+            table = null;
+            pendingBreaks = wroteText ? 2 : 0;
+            flushPending();
+            if (tag != null) {
+                out.append(tag.prefix);
+            } else {
+                out.append("**@").append(c, nameStart, nameEnd).append(":** ");
+            }
+            trailingBreaks = 0;
+            wroteText = true;
+            if (kind == Kind.REFERENCE && i < n && c.charAt(i) != '<' && c.charAt(i) != '"') {
+                int refStart = i;
+                int depth = 0;
+                while (i < n && (depth > 0 || !Character.isWhitespace(c.charAt(i)))) {
+                    char ch = c.charAt(i++);
+                    if (ch == '(') {
+                        depth++;
+                    } else if (ch == ')') {
+                        depth--;
+                    }
+                }
+                reference(refStart, i);
+            }
+        }
+
+        private void inlineTag() {
+            int nameStart = i + 2;
+            int nameEnd = nameStart;
+            while (nameEnd < n && Character.isLetter(c.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            int bodyStart = nameEnd < n && Character.isWhitespace(c.charAt(nameEnd)) ? nameEnd + 1 : nameEnd;
+            int end = matchingBrace(bodyStart);
+            if (end < 0) {
+                text('{');
+                i++;
+                return;
+            }
+
+            if (regionIs(nameStart, nameEnd, "code", false)) {
+                codeSpan(bodyStart, end, false);
+            } else if (regionIs(nameStart, nameEnd, "link", false) || regionIs(nameStart, nameEnd, "linkplain", false)) {
+                boolean plain = nameEnd - nameStart == 9;
+                int refEnd = bodyStart;
+                int depth = 0;
+                while (refEnd < end && (depth > 0 || !Character.isWhitespace(c.charAt(refEnd)))) {
+                    char ch = c.charAt(refEnd++);
+                    if (ch == '(') {
+                        depth++;
+                    } else if (ch == ')') {
+                        depth--;
+                    }
+                }
+                int labelStart = refEnd;
+                while (labelStart < end && Character.isWhitespace(c.charAt(labelStart))) {
+                    labelStart++;
+                }
+                if (labelStart < end) {
+                    if (plain) {
+                        plainText(labelStart, end);
+                    } else {
+                        codeSpan(labelStart, end, false);
+                    }
+                } else {
+                    reference(bodyStart, refEnd);
+                }
+            } else if (regionIs(nameStart, nameEnd, "value", false)) {
+                if (bodyStart < end) {
+                    reference(bodyStart, end);
+                }
+            } else if (!regionIs(nameStart, nameEnd, "inheritDoc", false)) {
+                // {@literal}, {@summary} and unknown tags keep their text
+                plainText(bodyStart, end);
+            }
+            i = end + 1;
+        }
+
+        /**
+         * Writes a program element reference as a code span, with members joined by a dot as in source
+         */
+        private void reference(int start, int end) {
+            if (start < end && c.charAt(start) == '#') {
+                start++;
+            }
+            codeSpan(start, end, true);
+        }
+
+        private void codeSpan(int start, int end, boolean reference) {
+            if (start >= end) {
+                return;
+            }
+            int backtick = c.indexOf('`', start);
+            boolean doubled = backtick >= 0 && backtick < end;
+            openMarkup(doubled ? "`` " : "`");
+            for (int k = start; k < end; k++) {
+                char ch = c.charAt(k);
+                if (ch == '\n') {
+                    out.append(' ');
+                    k = skipContinuation(k + 1) - 1;
+                } else if (ch == '\r') {
+                    continue;
+                } else if (reference && ch == '#') {
+                    out.append('.');
+                } else {
+                    if (cell && ch == '|') {
+                        out.append('\\');
+                    }
+                    out.append(ch);
+                }
+            }
+            closeMarkup(doubled ? " ``" : "`");
+        }
+
+        private void plainText(int start, int end) {
+            for (int k = start; k < end; k++) {
+                char ch = c.charAt(k);
+                if (ch == '\n' || ch == ' ' || ch == '\t') {
+                    pendingSpace |= wroteText;
+                    if (ch == '\n') {
+                        k = skipContinuation(k + 1) - 1;
+                    }
+                } else if (ch != '\r') {
+                    text(ch);
+                }
+            }
+        }
+
+        /** Skips the prefix of a continuation line inside an inline tag */
+        private int skipContinuation(int k) {
+            while (k < n && (c.charAt(k) == ' ' || c.charAt(k) == '\t' || c.charAt(k) == '*')) {
+                k++;
+            }
+            return k;
+        }
+
+        private int matchingBrace(int from) {
+            int depth = 1;
+            for (int k = from; k < n; k++) {
+                char ch = c.charAt(k);
+                if (ch == '{') {
+                    depth++;
+                } else if (ch == '}' && --depth == 0) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Translates a known lower case HTML tag at the current position. Anything else, such as the angle brackets of
+         * generic types in prose, stays text.
+         *
+         * @return Whether a tag was consumed
+         */
+        private boolean htmlTag() {
+            int j = i + 1;
+            boolean closing = j < n && c.charAt(j) == '/';
+            if (closing) {
+                j++;
+            }
+            int nameStart = j;
+            while (j < n && Character.isLetter(c.charAt(j))) {
+                j++;
+            }
+            int nameEnd = j;
+            int close = c.indexOf('>', nameEnd);
+            if (nameEnd == nameStart || close < 0) {
+                return false;
+            }
+            char next = c.charAt(nameEnd);
+            if (next != '>' && next != '/' && !Character.isWhitespace(next)) {
+                return false;
+            }
+            Html tag = null;
+            for (Html candidate : Html.ALL) {
+                if (regionIs(nameStart, nameEnd, candidate.tag, false)) {
+                    tag = candidate;
+                    break;
+                }
+            }
+            if (tag == null) {
+                return false;
+            }
+            i = close + 1;
+
+            switch (tag) {
+                case P -> paragraph(2);
+                case BR -> paragraph(1);
+                case UL, OL -> paragraph(2);
+                case LI -> {
+                    if (cell) {
+                        pendingSpace |= wroteText;
+                    } else if (!closing) {
+                        if (wroteText) {
+                            pendingBreaks = Math.max(pendingBreaks, 1);
+                        }
+                        openMarkup("- ");
+                        pendingSpace = false;
+                    }
+                }
+                case CODE, TT -> markup("`", closing);
+                case B, STRONG -> markup("**", closing);
+                case I, EM -> markup("*", closing);
+                case A -> {
+                    if (!closing) {
+                        int href = c.indexOf("href=", nameEnd);
+                        if (href >= 0 && href + 5 < close && (c.charAt(href + 5) == '"' || c.charAt(href + 5) == '\'')) {
+                            hrefStart = href + 6;
+                            hrefEnd = c.indexOf(c.charAt(href + 5), hrefStart);
+                            if (hrefEnd < 0 || hrefEnd > close) {
+                                hrefStart = -1;
+                            } else {
+                                openMarkup("[");
+                            }
+                        }
+                    } else if (hrefStart >= 0) {
+                        out.append("](").append(c, hrefStart, hrefEnd).append(')');
+                        hrefStart = -1;
+                        trailingBreaks = 0;
+                    }
+                }
+                case PRE -> {
+                    if (!closing) {
+                        openPre();
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void paragraph(int breaks) {
+            if (cell) {
+                pendingSpace |= wroteText;
+            } else if (wroteText) {
+                pendingBreaks = Math.max(pendingBreaks, breaks);
+            }
+        }
+
+        private void markup(String markup, boolean closing) {
+            if (closing) {
+                closeMarkup(markup);
+            } else {
+                openMarkup(markup);
+            }
+        }
+
+        private void openPre() {
+            endRow();
+            if (wroteText) {
+                pendingBreaks = 2;
+            }
+            flushPending();
+            out.append(FENCE).append(NL);
+            trailingBreaks = 1;
+            wroteText = true;
+            pre = true;
+            preDepth = 0;
+            // <pre>{@code ...}</pre> is the usual way to show code with braces and angle brackets
+            int k = skipContinuation(i);
+            preCode = c.startsWith("{@code", k);
+            if (preCode) {
+                i = k + 6;
+            }
+            while (i < n && (c.charAt(i) == ' ' || c.charAt(i) == '\t' || c.charAt(i) == '\r')) {
+                i++;
+            }
+            if (i < n && c.charAt(i) == '\n') {
+                i++;
+                lineStart = true;
+            }
+        }
+
+        private void preChar(char ch) {
+            if (ch == '<' && c.regionMatches(true, i, "</pre>", 0, 6)) {
+                closePre();
+                i += 6;
+                return;
+            }
+            if (preCode) {
+                if (ch == '{') {
+                    preDepth++;
+                } else if (ch == '}' && preDepth-- == 0) {
+                    preCode = false;
+                    i++;
+                    return;
+                }
+            } else if (ch == '&' && entity()) {
+                return;
+            }
+            out.append(ch);
+            trailingBreaks = 0;
+            i++;
+        }
+
+        private void closePre() {
+            if (trailingBreaks == 0) {
+                out.append(NL);
+            }
+            out.append(FENCE).append(NL);
+            trailingBreaks = 1;
+            pre = false;
+            preCode = false;
+            pendingBreaks = 2;
+            pendingSpace = false;
+        }
+
+        private boolean entity() {
+            for (int k = 0; k < ENTITIES.length; k++) {
+                if (c.startsWith(ENTITIES[k], i)) {
+                    i += ENTITIES[k].length();
+                    if (pre) {
+                        out.append(ENTITY_CHARS[k]);
+                        trailingBreaks = 0;
+                    } else {
+                        text(ENTITY_CHARS[k]);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void skipSpaces() {
+            while (i < n && (c.charAt(i) == ' ' || c.charAt(i) == '\t')) {
+                i++;
+            }
+        }
+
+        private boolean regionIs(int start, int end, String name, boolean ignoreCase) {
+            return end - start == name.length() && c.regionMatches(ignoreCase, start, name, 0, name.length());
+        }
+    }
+
+    /**
+     * Counts the bytes handed to the parser without buffering them
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
 }
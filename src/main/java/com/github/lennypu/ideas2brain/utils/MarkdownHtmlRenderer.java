@@ -0,0 +1,350 @@
+package com.github.lennypu.ideas2brain.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders the Markdown written by {@link JavaDoc2MarkDownUtil} to HTML for the standard Basic note type.
+ * <p>
+ * Only the subset the converter produces is understood: headings, paragraphs, fenced code, bullet lists,
+ * pipe tables, code spans, bold, italics and links. The output is sanitized by construction: all text is
+ * escaped, only the tags of that subset are emitted and links must be http, https or mailto.
+ * Results are kept in a bounded least recently used cache keyed by a hash of the Markdown, so identical
+ * content is rendered once.
+ */
+public final class MarkdownHtmlRenderer {
+    private static final int MAX_CACHED_CHARS = 8 * 1024 * 1024;
+
+    // Guarded by itself
+    private static final Map<Key, String> CACHE = new LinkedHashMap<>(256, 0.75f, true);
+    private static long cachedChars;
+
+    private MarkdownHtmlRenderer() {
+    }
+
+    /**
+     * A 128-bit prefix of the SHA-256 of the Markdown
+     */
+    private static final class Key {
+        final long high;
+        final long low;
+
+        Key(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        static Key of(String markdown) {
+            try {
+                ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(markdown.getBytes(StandardCharsets.UTF_8)));
+                return new Key(digest.getLong(), digest.getLong());
+            } catch (NoSuchAlgorithmException e) {
+                // Every JVM ships SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).high == high && ((Key) o).low == low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high);
+        }
+    }
+
+    /**
+     * Renders Markdown to HTML, from the cache when the same Markdown was rendered before
+     *
+     * @param markdown The Markdown
+     * @return The sanitized HTML
+     */
+    @NotNull
+    public static String render(@NotNull String markdown) {
+        Key key = Key.of(markdown);
+        String html;
+        synchronized (CACHE) {
+            html = CACHE.get(key);
+        }
+        SyncMetrics.getInstance().recordCacheAccess("htmlCache", html != null);
+        if (html != null) {
+            return html;
+        }
+
+        html = renderUncached(markdown);
+        synchronized (CACHE) {
+            String previous = CACHE.put(key, html);
+            cachedChars += html.length() - (previous != null ? previous.length() : 0);
+            Iterator<String> eldest = CACHE.values().iterator();
+            while (cachedChars > MAX_CACHED_CHARS && eldest.hasNext()) {
+                cachedChars -= eldest.next().length();
+                eldest.remove();
+            }
+        }
+        return html;
+    }
+
+    /**
+     * Renders Markdown to HTML without the cache
+     */
+    @NotNull
+    static String renderUncached(@NotNull String markdown) {
+        String[] lines = markdown.split("\r?\n", -1);
+        StringBuilder html = new StringBuilder(markdown.length() + markdown.length() / 2);
+        boolean paragraph = false;
+        int i = 0;
+        while (i < lines.length) {
+            String line = lines[i];
+            String trimmed = line.trim();
+
+            if (trimmed.isEmpty()) {
+                paragraph = closeParagraph(html, paragraph);
+                i++;
+            } else if (trimmed.startsWith("```")) {
+                paragraph = closeParagraph(html, paragraph);
+                html.append("<pre><code>");
+                i++;
+                boolean first = true;
+                while (i < lines.length && !lines[i].trim().startsWith("```")) {
+                    if (!first) {
+                        html.append('\n');
+                    }
+                    escape(lines[i], 0, lines[i].length(), html);
+                    first = false;
+                    i++;
+                }
+                html.append("</code></pre>");
+                // The closing fence
+                i++;
+            } else if (headingLevel(trimmed) > 0) {
+                paragraph = closeParagraph(html, paragraph);
+                int level = headingLevel(trimmed);
+                html.append("<h").append(level).append('>');
+                inline(trimmed, level + 1, trimmed.length(), html);
+                html.append("</h").append(level).append('>');
+                i++;
+            } else if (trimmed.startsWith("|") && i + 1 < lines.length && isTableSeparator(lines[i + 1].trim())) {
+                paragraph = closeParagraph(html, paragraph);
+                html.append("<table><thead>");
+                tableRow(trimmed, "th", html);
+                html.append("</thead><tbody>");
+                i += 2;
+                while (i < lines.length && lines[i].trim().startsWith("|")) {
+                    tableRow(lines[i].trim(), "td", html);
+                    i++;
+                }
+                html.append("</tbody></table>");
+            } else if (trimmed.startsWith("- ") || trimmed.startsWith("* ")) {
+                paragraph = closeParagraph(html, paragraph);
+                html.append("<ul>");
+                while (i < lines.length && (lines[i].trim().startsWith("- ") || lines[i].trim().startsWith("* "))) {
+                    String item = lines[i].trim();
+                    html.append("<li>");
+                    inline(item, 2, item.length(), html);
+                    html.append("</li>");
+                    i++;
+                }
+                html.append("</ul>");
+            } else {
+                if (paragraph) {
+                    html.append('\n');
+                } else {
+                    html.append("<p>");
+                    paragraph = true;
+                }
+                inline(trimmed, 0, trimmed.length(), html);
+                i++;
+            }
+        }
+        closeParagraph(html, paragraph);
+        return html.toString();
+    }
+
+    private static boolean closeParagraph(StringBuilder html, boolean paragraph) {
+        if (paragraph) {
+            html.append("</p>");
+        }
+        return false;
+    }
+
+    private static int headingLevel(String line) {
+        int level = 0;
+        while (level < line.length() && line.charAt(level) == '#') {
+            level++;
+        }
+        return level >= 1 && level <= 6 && level < line.length() && line.charAt(level) == ' ' ? level : 0;
+    }
+
+    private static boolean isTableSeparator(String line) {
+        if (!line.startsWith("|") || line.indexOf('-') < 0) {
+            return false;
+        }
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (ch != '|' && ch != '-' && ch != ':' && ch != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a table row, splitting cells at pipes that are not escaped
+     */
+    private static void tableRow(String line, String cellTag, StringBuilder html) {
+        html.append("<tr>");
+        int end = line.length();
+        if (end > 1 && line.charAt(end - 1) == '|' && line.charAt(end - 2) != '\\') {
+            end--;
+        }
+        int start = 1;
+        for (int i = 1; i <= end; i++) {
+            if (i == end || (line.charAt(i) == '|' && line.charAt(i - 1) != '\\')) {
+                html.append('<').append(cellTag).append('>');
+                inline(line, start, i, html);
+                html.append("</").append(cellTag).append('>');
+                start = i + 1;
+            }
+        }
+        html.append("</tr>");
+    }
+
+    /**
+     * Writes inline Markdown between two indexes, trimmed, as escaped HTML
+     */
+    private static void inline(String text, int start, int end, StringBuilder html) {
+        while (start < end && text.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        int i = start;
+        while (i < end) {
+            char ch = text.charAt(i);
+            if (ch == '\\' && i + 1 < end && isPunctuation(text.charAt(i + 1))) {
+                escape(text, i + 1, i + 2, html);
+                i += 2;
+            } else if (ch == '`') {
+                int run = 0;
+                while (i + run < end && text.charAt(i + run) == '`') {
+                    run++;
+                }
+                int close = findRun(text, i + run, end, '`', run);
+                if (close < 0) {
+                    escape(text, i, i + run, html);
+                    i += run;
+                    continue;
+                }
+                int codeStart = i + run;
+                int codeEnd = close;
+                if (run > 1 && codeEnd - codeStart >= 2 && text.charAt(codeStart) == ' ' && text.charAt(codeEnd - 1) == ' ') {
+                    codeStart++;
+                    codeEnd--;
+                }
+                html.append("<code>");
+                escape(text, codeStart, codeEnd, html);
+                html.append("</code>");
+                i = close + run;
+            } else if (ch == '*' && i + 1 < end && text.charAt(i + 1) == '*') {
+                int close = text.indexOf("**", i + 2);
+                if (close < 0 || close >= end || close == i + 2) {
+                    escape(text, i, i + 2, html);
+                    i += 2;
+                    continue;
+                }
+                html.append("<b>");
+                inline(text, i + 2, close, html);
+                html.append("</b>");
+                i = close + 2;
+            } else if (ch == '*' && i + 1 < end && text.charAt(i + 1) != ' ') {
+                int close = text.indexOf('*', i + 1);
+                if (close < 0 || close >= end) {
+                    escape(text, i, i + 1, html);
+                    i++;
+                    continue;
+                }
+                html.append("<i>");
+                inline(text, i + 1, close, html);
+                html.append("</i>");
+                i = close + 1;
+            } else if (ch == '[') {
+                i = link(text, i, end, html);
+            } else {
+                escape(text, i, i + 1, html);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Writes a {@code [label](url)} link, or the label alone when the URL is not a web or mail link
+     *
+     * @return The index after the link, or after the bracket if it does not start a link
+     */
+    private static int link(String text, int i, int end, StringBuilder html) {
+        int labelEnd = text.indexOf("](", i + 1);
+        int urlEnd = labelEnd < 0 ? -1 : text.indexOf(')', labelEnd + 2);
+        if (labelEnd < 0 || urlEnd < 0 || urlEnd >= end) {
+            escape(text, i, i + 1, html);
+            return i + 1;
+        }
+        String url = text.substring(labelEnd + 2, urlEnd).trim();
+        boolean safe = url.startsWith("https://") || url.startsWith("http://") || url.startsWith("mailto:");
+        if (safe) {
+            html.append("<a href=\"");
+            escape(url, 0, url.length(), html);
+            html.append("\">");
+        }
+        inline(text, i + 1, labelEnd, html);
+        if (safe) {
+            html.append("</a>");
+        }
+        return urlEnd + 1;
+    }
+
+    private static int findRun(String text, int from, int end, char ch, int length) {
+        int i = from;
+        while (i < end) {
+            if (text.charAt(i) != ch) {
+                i++;
+                continue;
+            }
+            int run = 0;
+            while (i + run < end && text.charAt(i + run) == ch) {
+                run++;
+            }
+            if (run == length) {
+                return i;
+            }
+            i += run;
+        }
+        return -1;
+    }
+
+    private static boolean isPunctuation(char ch) {
+        return "\\`*_{}[]()#+-.!|<>".indexOf(ch) >= 0;
+    }
+
+    private static void escape(String text, int start, int end, StringBuilder html) {
+        for (int i = start; i < end; i++) {
+            char ch = text.charAt(i);
+            switch (ch) {
+                case '&' -> html.append("&amp;");
+                case '<' -> html.append("&lt;");
+                case '>' -> html.append("&gt;");
+                case '"' -> html.append("&quot;");
+                default -> html.append(ch);
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.github.lennypu.ideas2brain.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User rules deciding the deck and tags of a note from its file's location, one rule per line:
+ * <pre>
+ * # Comments and blank lines are ignored, * matches one directory
+ * strip src/main/java
+ * strip app/src/main/java
+ * deck com/acme = Acme
+ * tag * = module::$1
+ * </pre>
+ * {@code strip} removes the longest matching leading directories, {@code deck} maps the longest matching
+ * prefix of what is left to a deck, keeping the directories below it as subdecks, and every matching
+ * {@code tag} adds a tag. {@code strip} and {@code tag} match the project-relative path, {@code deck} the
+ * stripped one; {@code $1} to {@code $9} are the directories matched by the wildcards. Without rules the
+ * deck is the project-relative directory and the tags its directory names. Files that would end up
+ * without a deck, such as those directly in a stripped directory, go to Anki's {@code Default} deck.
+ * <p>
+ * Rules are compiled into path-prefix tries and the result for each directory is computed once, so a
+ * file costs a substring and a hash lookup.
+ */
+public final class NoteMappingRules {
+    /** Far more directories than a project has; past this the memo is simply started over */
+    private static final int MAX_CACHED_DIRECTORIES = 20_000;
+    /** The deck every Anki collection has */
+    static final String DEFAULT_DECK = "Default";
+
+    private final String source;
+    /** Strip and tag rules over the project-relative directories */
+    private final Node pathRoot;
+    /** Deck rules over the stripped directories */
+    private final Node deckRoot;
+    private final Map<String, DirectoryMapping> directories = new ConcurrentHashMap<>();
+
+    private NoteMappingRules(String source, Node pathRoot, Node deckRoot) {
+        this.source = source;
+        this.pathRoot = pathRoot;
+        this.deckRoot = deckRoot;
+    }
+
+    /**
+     * A node of a rule trie, one level per directory
+     */
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node wildcard;
+        Rule strip;
+        Rule deck;
+        final List<Rule> tags = new ArrayList<>();
+
+        Node child(String segment) {
+            if ("*".equals(segment)) {
+                if (wildcard == null) {
+                    wildcard = new Node();
+                }
+                return wildcard;
+            }
+            return children.computeIfAbsent(segment, s -> new Node());
+        }
+    }
+
+    /**
+     * A compiled rule; the pattern positions of its wildcards resolve {@code $n} in the template
+     */
+    private static final class Rule {
+        final int depth;
+        final int[] wildcards;
+        final String template;
+
+        Rule(int depth, int[] wildcards, String template) {
+            this.depth = depth;
+            this.wildcards = wildcards;
+            this.template = template;
+        }
+
+        String expand(String[] segments, int offset) {
+            if (template.indexOf('$') < 0) {
+                return template;
+            }
+            StringBuilder result = new StringBuilder(template.length() + 16);
+            for (int i = 0; i < template.length(); i++) {
+                char ch = template.charAt(i);
+                int group = i + 1 < template.length() ? Character.digit(template.charAt(i + 1), 10) : -1;
+                if (ch == '$' && group >= 1 && group <= wildcards.length) {
+                    result.append(segments[offset + wildcards[group - 1]]);
+                    i++;
+                } else {
+                    result.append(ch);
+                }
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * The deck and directory tags shared by all files of a directory
+     */
+    private static final class DirectoryMapping {
+        final String deckName;
+        final List<String> tags;
+
+        DirectoryMapping(String deckName, List<String> tags) {
+            this.deckName = deckName;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * Gets rules that map every file as if there were none
+     *
+     * @param source The text to report as the source, such as rules that failed to compile
+     */
+    public static NoteMappingRules empty(@NotNull String source) {
+        return new NoteMappingRules(source, new Node(), new Node());
+    }
+
+    /**
+     * Compiles rules
+     *
+     * @param source The rules, one per line
+     * @return The compiled rules
+     * @throws IllegalArgumentException If a line is not a rule, the message names the line
+     */
+    public static NoteMappingRules compile(@NotNull String source) {
+        Node pathRoot = new Node();
+        Node deckRoot = new Node();
+        String[] lines = source.split("\r?\n");
+        for (int lineNumber = 1; lineNumber <= lines.length; lineNumber++) {
+            String line = lines[lineNumber - 1].trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            String keyword = space < 0 ? line : line.substring(0, space);
+            String rest = space < 0 ? "" : line.substring(space + 1).trim();
+            String pattern = rest;
+            String template = null;
+            int equals = rest.indexOf('=');
+            if (equals >= 0) {
+                pattern = rest.substring(0, equals).trim();
+                template = rest.substring(equals + 1).trim();
+            }
+            String[] segments = split(pattern);
+            if (segments.length == 0) {
+                throw new IllegalArgumentException("Line " + lineNumber + ": missing directory in \"" + line + "\"");
+            }
+
+            Node node = keyword.equals("deck") ? deckRoot : pathRoot;
+            List<Integer> wildcards = new ArrayList<>();
+            for (int i = 0; i < segments.length; i++) {
+                if ("*".equals(segments[i])) {
+                    wildcards.add(i);
+                }
+                node = node.child(segments[i]);
+            }
+            Rule rule = new Rule(segments.length, wildcards.stream().mapToInt(Integer::intValue).toArray(),
+                    template != null ? template : "");
+
+            switch (keyword) {
+                case "strip" -> {
+                    if (template != null) {
+                        throw new IllegalArgumentException("Line " + lineNumber + ": strip takes no \"=\"");
+                    }
+                    node.strip = rule;
+                }
+                case "deck", "tag" -> {
+                    if (template == null || template.isEmpty()) {
+                        throw new IllegalArgumentException("Line " + lineNumber + ": expected \"" + keyword + " <directory> = <name>\"");
+                    }
+                    if (keyword.equals("deck")) {
+                        node.deck = rule;
+                    } else {
+                        node.tags.add(rule);
+                    }
+                }
+                default -> throw new IllegalArgumentException(
+                        "Line " + lineNumber + ": unknown rule \"" + keyword + "\", expected strip, deck or tag");
+            }
+        }
+        return new NoteMappingRules(source, pathRoot, deckRoot);
+    }
+
+    /**
+     * @return The text the rules were compiled from
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Gets the deck of a file
+     *
+     * @param basePath The project root
+     * @param filePath The file
+     * @return The deck name, {@code Default} for files that map to no directory
+     */
+    public String getDeckName(String basePath, String filePath) {
+        return mappingOf(relativeDirectory(basePath, filePath)).deckName;
+    }
+
+    /**
+     * Gets the tags of a file: those of its directory followed by the file name without extension
+     *
+     * @param basePath The project root
+     * @param filePath The file
+     * @return A new, modifiable list
+     */
+    public List<String> getTags(String basePath, String filePath) {
+        List<String> directoryTags = mappingOf(relativeDirectory(basePath, filePath)).tags;
+        List<String> tags = new ArrayList<>(directoryTags.size() + 1);
+        tags.addAll(directoryTags);
+
+        int nameStart = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\')) + 1;
+        int dot = filePath.lastIndexOf('.');
+        tags.add(dot > nameStart ? filePath.substring(nameStart, dot) : filePath.substring(nameStart));
+        return tags;
+    }
+
+    private DirectoryMapping mappingOf(String directory) {
+        DirectoryMapping mapping = directories.get(directory);
+        if (mapping == null) {
+            if (directories.size() >= MAX_CACHED_DIRECTORIES) {
+                directories.clear();
+            }
+            mapping = computeMapping(directory);
+            directories.put(directory, mapping);
+        }
+        return mapping;
+    }
+
+    private DirectoryMapping computeMapping(String directory) {
+        String[] segments = split(directory);
+
+        // The deepest strip rule wins, tag rules all apply
+        Rule[] strip = new Rule[1];
+        Set<String> ruleTags = new LinkedHashSet<>();
+        walk(pathRoot, segments, 0, 0, node -> {
+            if (node.strip != null && (strip[0] == null || node.strip.depth > strip[0].depth)) {
+                strip[0] = node.strip;
+            }
+            for (Rule tag : node.tags) {
+                ruleTags.add(tag.expand(segments, 0));
+            }
+        });
+        int offset = strip[0] != null ? strip[0].depth : 0;
+
+        Rule[] deck = new Rule[1];
+        walk(deckRoot, segments, offset, offset, node -> {
+            if (node.deck != null && (deck[0] == null || node.deck.depth > deck[0].depth)) {
+                deck[0] = node.deck;
+            }
+        });
+
+        StringBuilder deckName = new StringBuilder();
+        int subdecks = offset;
+        if (deck[0] != null) {
+            deckName.append(deck[0].expand(segments, offset));
+            subdecks += deck[0].depth;
+        }
+        for (int i = subdecks; i < segments.length; i++) {
+            if (deckName.length() > 0) {
+                deckName.append("::");
+            }
+            deckName.append(segments[i]);
+        }
+
+        Set<String> tags = new LinkedHashSet<>();
+        for (int i = offset; i < segments.length; i++) {
+            tags.add(segments[i]);
+        }
+        tags.addAll(ruleTags);
+        return new DirectoryMapping(deckName.length() > 0 ? deckName.toString() : DEFAULT_DECK, List.copyOf(tags));
+    }
+
+    private interface NodeVisitor {
+        void visit(Node node);
+    }
+
+    /**
+     * Visits every node whose pattern matches a leading part of the segments from {@code start},
+     * literal children before wildcards so that equally deep literal rules win
+     */
+    private static void walk(Node node, String[] segments, int start, int index, NodeVisitor visitor) {
+        if (index > start) {
+            visitor.visit(node);
+        }
+        if (index == segments.length) {
+            return;
+        }
+        Node literal = node.children.get(segments[index]);
+        if (literal != null) {
+            walk(literal, segments, start, index + 1, visitor);
+        }
+        if (node.wildcard != null) {
+            walk(node.wildcard, segments, start, index + 1, visitor);
+        }
+    }
+
+    /**
+     * Gets the directory of a file relative to the project root, with '/' separators
+     */
+    static String relativeDirectory(String basePath, String filePath) {
+        int end = Math.max(filePath.lastIndexOf('/'), filePath.lastIndexOf('\\'));
+        int baseLength = basePath.length();
+        while (baseLength > 0 && isSeparator(basePath.charAt(baseLength - 1))) {
+            baseLength--;
+        }
+        if (end >= baseLength && filePath.regionMatches(0, basePath, 0, baseLength) && isSeparator(filePath.charAt(baseLength))) {
+            String directory = end == baseLength ? "" : filePath.substring(baseLength + 1, end);
+            return directory.indexOf('\\') >= 0 ? directory.replace('\\', '/') : directory;
+        }
+        // Files outside the project, left to the path API as before
+        return Paths.get(basePath).relativize(Paths.get(filePath).getParent()).toString().replace('\\', '/');
+    }
+
+    private static boolean isSeparator(char ch) {
+        return ch == '/' || ch == '\\';
+    }
+
+    private static String[] split(String path) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            if (i == path.length() || isSeparator(path.charAt(i))) {
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segments.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.lennypu.ideas2brain.utils;
+
+import com.github.lennypu.ideas2brain.services.Ideas2BrainSettings;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Derives Anki deck names and tags from source file locations
+ */
+public final class NoteMappingUtil {
+    /** Prefix of the tag carrying a note's stable key */
+    public static final String NOTE_KEY_TAG_PREFIX = "Ideas2Brain::key::";
+    /** Prefix of the tag naming the project that created a note */
+    public static final String PROJECT_TAG_PREFIX = "Ideas2Brain::project::";
+
+    private static final Logger LOG = Logger.getInstance(NoteMappingUtil.class);
+    private static final String PROJECT_ID_FILE = "ideas2brain.id";
+    /** Project identifiers end up in a tag, so they must not contain spaces or hierarchy separators */
+    private static final Pattern PROJECT_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private static volatile NoteMappingRules rules = NoteMappingRules.empty("");
+    private static final Map<String, String> projectIds = new ConcurrentHashMap<>();
+
+    private NoteMappingUtil() {
+    }
+
+    /**
+     * Gets the deck name from the file path, after the mapping rules from the settings
+     *
+     * @param basePath The project root
+     * @param filePath The file
+     * @return The deck name
+     */
+    public static String getDeckNameFromFilePath(String basePath, String filePath) {
+        return getRules().getDeckName(basePath, filePath);
+    }
+
+    /**
+     * Gets tags from the file path, after the mapping rules from the settings, followed by the project tag
+     *
+     * @param basePath The project root
+     * @param filePath The file
+     * @return The tags
+     */
+    public static List<String> getTagsFromFilePath(String basePath, String filePath) {
+        List<String> tags = getRules().getTags(basePath, filePath);
+        tags.add(getProjectTag(basePath));
+        return tags;
+    }
+
+    /**
+     * Gets the tag marking the notes created by a project, so that projects sharing an Anki collection
+     * only ever treat their own notes as theirs
+     *
+     * @param basePath The project root
+     * @return The tag
+     */
+    public static String getProjectTag(String basePath) {
+        return PROJECT_TAG_PREFIX + getProjectId(basePath);
+    }
+
+    /**
+     * Gets the identifier of a project. It is generated once and kept in {@code .idea/ideas2brain.id}, so
+     * it moves with the project and is shared by the IDE and headless runs on the same tree.
+     *
+     * @param basePath The project root
+     * @return 16 hex characters
+     */
+    public static String getProjectId(String basePath) {
+        return projectIds.computeIfAbsent(basePath, NoteMappingUtil::loadProjectId);
+    }
+
+    /**
+     * Uses a given identifier for a project instead of the one kept in {@code .idea/ideas2brain.id},
+     * for headless runs on checkouts without the {@code .idea} directory
+     *
+     * @param basePath The project root
+     * @param projectId The identifier, letters, digits, '-' and '_' only
+     * @throws IllegalArgumentException If the identifier contains other characters
+     */
+    public static void setProjectId(String basePath, String projectId) {
+        if (!PROJECT_ID_PATTERN.matcher(projectId).matches()) {
+            throw new IllegalArgumentException("Project identifiers may only contain letters, digits, '-' and '_': " + projectId);
+        }
+        projectIds.put(basePath, projectId);
+    }
+
+    /**
+     * Reads the identifier kept in {@code .idea/ideas2brain.id} without creating one
+     *
+     * @param basePath The project root
+     * @return The identifier, or null if the file is missing, empty or unreadable
+     */
+    @Nullable
+    public static String readProjectId(String basePath) {
+        Path file = Paths.get(basePath, ".idea", PROJECT_ID_FILE);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            String id = Files.readString(file).trim();
+            return id.isEmpty() ? null : id;
+        } catch (IOException e) {
+            LOG.warn("Failed to read the project identifier at " + file, e);
+            return null;
+        }
+    }
+
+    private static String loadProjectId(String basePath) {
+        Path file = Paths.get(basePath, ".idea", PROJECT_ID_FILE);
+        try {
+            if (!Files.exists(file)) {
+                Files.createDirectories(file.getParent());
+                String id = UUID.randomUUID().toString().replace("-", "").substring(0, 16);
+                try {
+                    Files.writeString(file, id + "\n", StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                    return id;
+                } catch (FileAlreadyExistsException e) {
+                    // Another process created it first, use theirs
+                }
+            }
+            String id = Files.readString(file).trim();
+            if (!id.isEmpty()) {
+                return id;
+            }
+            LOG.warn("Empty project identifier in " + file);
+        } catch (IOException e) {
+            LOG.warn("Failed to read or create the project identifier at " + file, e);
+        }
+        // Still distinct per project location, though not stable when the project moves
+        return sha256Hex(Paths.get(basePath).toAbsolutePath().normalize().toString());
+    }
+
+    /**
+     * Gets the compiled mapping rules, compiling them again when the settings changed
+     */
+    public static NoteMappingRules getRules() {
+        Application application = ApplicationManager.getApplication();
+        String source = application != null ? Ideas2BrainSettings.getInstance().getState().noteMappingRules : "";
+        NoteMappingRules current = rules;
+        if (current.getSource().equals(source)) {
+            return current;
+        }
+        try {
+            current = NoteMappingRules.compile(source);
+        } catch (IllegalArgumentException e) {
+            // The settings page rejects invalid rules, so they can only come from an edited settings file
+            LOG.warn("Ignoring invalid note mapping rules: " + e.getMessage());
+            current = NoteMappingRules.empty(source);
+        }
+        rules = current;
+        return current;
+    }
+
+    /**
+     * Gets a stable key for a file that does not depend on the project location,
+     * used to find notes created outside of AnkiConnect. The project identifier is part of the key,
+     * so the same path in two projects sharing an Anki collection gets two keys.
+     *
+     * @param basePath The project root
+     * @param filePath The file
+     * @return 16 hex characters derived from the project identifier and the project-relative path
+     */
+    public static String getNoteKey(String basePath, String filePath) {
+        return sha256Hex(getProjectId(basePath) + ":" + getRelativePath(basePath, filePath));
+    }
+
+    /**
+     * Gets the key older versions derived from the project-relative path alone, to recognize the notes
+     * they exported or sent
+     *
+     * @param basePath The project root
+     * @param filePath The file
+     * @return 16 hex characters derived from the project-relative path
+     */
+    public static String getLegacyNoteKey(String basePath, String filePath) {
+        return sha256Hex(getRelativePath(basePath, filePath));
+    }
+
+    private static String getRelativePath(String basePath, String filePath) {
+        return Paths.get(basePath).relativize(Paths.get(filePath)).toString().replace('\\', '/');
+    }
+
+    /**
+     * @return The first 16 hex characters of the SHA-256 of the text
+     */
+    private static String sha256Hex(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder(16);
+            for (int i = 0; i < 8; i++) {
+                key.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
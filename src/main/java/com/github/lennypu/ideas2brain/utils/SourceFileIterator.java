@@ -0,0 +1,87 @@
+package com.github.lennypu.ideas2brain.utils;
+
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.GeneratedSourcesFilter;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily enumerates the Java and Kotlin files under a set of roots.
+ * Each directory is listed in its own short read action, so enumeration never holds the read lock
+ * for long, and only the directories still to be visited are kept in memory.
+ * Excluded, ignored and generated directories are skipped.
+ */
+public final class SourceFileIterator implements Iterator<VirtualFile> {
+    private final Project project;
+    private final ProjectFileIndex fileIndex;
+    private final Deque<VirtualFile> pendingDirectories = new ArrayDeque<>();
+    private final Deque<VirtualFile> pendingFiles = new ArrayDeque<>();
+
+    public SourceFileIterator(@NotNull Project project, @NotNull Collection<VirtualFile> roots) {
+        this.project = project;
+        this.fileIndex = ProjectFileIndex.getInstance(project);
+        for (VirtualFile root : roots) {
+            if (root.isDirectory()) {
+                pendingDirectories.push(root);
+            } else if (isJavaOrKotlinFile(root) && ReadAction.compute(() -> isIncluded(root))) {
+                pendingFiles.add(root);
+            }
+        }
+    }
+
+    public static boolean isJavaOrKotlinFile(VirtualFile file) {
+        if (file == null || file.isDirectory()) {
+            return false;
+        }
+
+        String extension = file.getExtension();
+        return "java".equals(extension) || "kt".equals(extension);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (pendingFiles.isEmpty() && !pendingDirectories.isEmpty()) {
+            expand(pendingDirectories.pop());
+        }
+        return !pendingFiles.isEmpty();
+    }
+
+    @Override
+    public VirtualFile next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return pendingFiles.poll();
+    }
+
+    private void expand(VirtualFile directory) {
+        ReadAction.run(() -> {
+            if (!isIncluded(directory)) {
+                return;
+            }
+            for (VirtualFile child : directory.getChildren()) {
+                if (child.isDirectory()) {
+                    pendingDirectories.push(child);
+                } else if (isJavaOrKotlinFile(child) && isIncluded(child)) {
+                    pendingFiles.add(child);
+                }
+            }
+        });
+    }
+
+    private boolean isIncluded(VirtualFile file) {
+        return file.isValid()
+                && fileIndex.isInContent(file)
+                && !fileIndex.isExcluded(file)
+                && !fileIndex.isUnderIgnored(file)
+                && !GeneratedSourcesFilter.isGeneratedSourceByAnyFilter(file, project);
+    }
+}
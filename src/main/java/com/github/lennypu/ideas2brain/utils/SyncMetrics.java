@@ -0,0 +1,161 @@
+package com.github.lennypu.ideas2brain.utils;
+
+import com.google.gson.JsonObject;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide registry of sync counters, gauges and latency histograms.
+ * Recording is a few atomic increments, so it stays enabled all the time.
+ */
+public final class SyncMetrics {
+    private static final SyncMetrics INSTANCE = new SyncMetrics();
+
+    /**
+     * Instrumented stages of the sync path
+     */
+    public enum Stage {
+        PARSE,
+        RENDER,
+        HTTP,
+        DB
+    }
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final Map<String, LongAdder> ankiRequests = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    private final Map<String, CacheStats> caches = new ConcurrentHashMap<>();
+    private volatile long startedAt = System.currentTimeMillis();
+
+    private SyncMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public static SyncMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos} for a stage
+     *
+     * @param stage The stage being measured
+     * @param startNanos The {@link System#nanoTime()} value taken when the stage started
+     */
+    public void recordLatency(Stage stage, long startNanos) {
+        stages.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public void recordAnkiRequest(String action) {
+        ankiRequests.computeIfAbsent(action, k -> new LongAdder()).increment();
+    }
+
+    public void incrementCounter(String name) {
+        addToCounter(name, 1);
+    }
+
+    public void addToCounter(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public long getCounter(String name) {
+        LongAdder adder = counters.get(name);
+        return adder == null ? 0 : adder.sum();
+    }
+
+    /**
+     * Sets a point-in-time value such as a queue depth
+     *
+     * @param name The gauge name
+     * @param value The current value
+     */
+    public void setGauge(String name, long value) {
+        gauges.computeIfAbsent(name, k -> new AtomicLong()).set(value);
+    }
+
+    public void adjustGauge(String name, long delta) {
+        gauges.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+    }
+
+    public void recordCacheAccess(String cache, boolean hit) {
+        CacheStats stats = caches.computeIfAbsent(cache, k -> new CacheStats());
+        (hit ? stats.hits : stats.misses).increment();
+    }
+
+    /**
+     * Clears every counter and histogram. Gauges are kept because they describe current state.
+     */
+    public void reset() {
+        stages.values().forEach(LatencyHistogram::reset);
+        ankiRequests.clear();
+        counters.clear();
+        caches.clear();
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Takes a snapshot of all metrics
+     *
+     * @return The metrics as a JSON object, suitable for attaching to bug reports
+     */
+    public JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.addProperty("collectedSinceMillis", startedAt);
+        root.addProperty("windowMillis", System.currentTimeMillis() - startedAt);
+
+        JsonObject stagesJson = new JsonObject();
+        stages.forEach((stage, histogram) -> {
+            JsonObject stageJson = new JsonObject();
+            stageJson.addProperty("count", histogram.getCount());
+            stageJson.addProperty("meanMs", histogram.getMeanMillis());
+            stageJson.addProperty("p50Ms", histogram.getPercentileMillis(50));
+            stageJson.addProperty("p95Ms", histogram.getPercentileMillis(95));
+            stageJson.addProperty("p99Ms", histogram.getPercentileMillis(99));
+            stageJson.addProperty("maxMs", histogram.getMaxMillis());
+            stagesJson.add(stage.name().toLowerCase(), stageJson);
+        });
+        root.add("stages", stagesJson);
+
+        JsonObject requestsJson = new JsonObject();
+        new TreeMap<>(ankiRequests).forEach((action, adder) -> requestsJson.addProperty(action, adder.sum()));
+        root.add("ankiRequests", requestsJson);
+
+        JsonObject countersJson = new JsonObject();
+        new TreeMap<>(counters).forEach((name, adder) -> countersJson.addProperty(name, adder.sum()));
+        root.add("counters", countersJson);
+
+        JsonObject gaugesJson = new JsonObject();
+        new TreeMap<>(gauges).forEach((name, value) -> gaugesJson.addProperty(name, value.get()));
+        root.add("gauges", gaugesJson);
+
+        JsonObject cachesJson = new JsonObject();
+        new TreeMap<>(caches).forEach((name, stats) -> {
+            long hits = stats.hits.sum();
+            long misses = stats.misses.sum();
+            JsonObject cacheJson = new JsonObject();
+            cacheJson.addProperty("hits", hits);
+            cacheJson.addProperty("misses", misses);
+            cacheJson.addProperty("hitRate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+            cachesJson.add(name, cacheJson);
+        });
+        root.add("caches", cachesJson);
+
+        return root;
+    }
+
+    private static final class CacheStats {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+    }
+}
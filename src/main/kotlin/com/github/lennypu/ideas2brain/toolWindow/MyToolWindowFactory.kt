@@ -1,45 +1,33 @@
 package com.github.lennypu.ideas2brain.toolWindow
 
-import com.intellij.openapi.components.service
-import com.intellij.openapi.diagnostic.thisLogger
+import com.intellij.openapi.project.DumbAware
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.wm.ToolWindow
 import com.intellij.openapi.wm.ToolWindowFactory
-import com.intellij.ui.components.JBLabel
-import com.intellij.ui.components.JBPanel
 import com.intellij.ui.content.ContentFactory
-import com.github.lennypu.ideas2brain.MyBundle
-import com.github.lennypu.ideas2brain.services.MyProjectService
-import javax.swing.JButton
+import com.github.lennypu.ideas2brain.ui.NoteSearchPanel
+import com.github.lennypu.ideas2brain.ui.SyncStatisticsPanel
+import com.github.lennypu.ideas2brain.ui.TrackedFilesPanel
 
 
-class MyToolWindowFactory : ToolWindowFactory {
-
-    init {
-        thisLogger().warn("Don't forget to remove all non-needed sample code files with their corresponding registration entries in `plugin.xml`.")
-    }
+class MyToolWindowFactory : ToolWindowFactory, DumbAware {
 
     override fun createToolWindowContent(project: Project, toolWindow: ToolWindow) {
-        val myToolWindow = MyToolWindow(toolWindow)
-        val content = ContentFactory.getInstance().createContent(myToolWindow.getContent(), null, false)
+        val statisticsPanel = SyncStatisticsPanel()
+        val content = ContentFactory.getInstance().createContent(statisticsPanel, "Statistics", false)
+        content.setDisposer(statisticsPanel)
         toolWindow.contentManager.addContent(content)
-    }
-
-    override fun shouldBeAvailable(project: Project) = true
 
-    class MyToolWindow(toolWindow: ToolWindow) {
+        val searchPanel = NoteSearchPanel(project)
+        val searchContent = ContentFactory.getInstance().createContent(searchPanel, "Search", false)
+        searchContent.setDisposer(searchPanel)
+        toolWindow.contentManager.addContent(searchContent)
 
-        private val service = toolWindow.project.service<MyProjectService>()
-
-        fun getContent() = JBPanel<JBPanel<*>>().apply {
-            val label = JBLabel(MyBundle.message("randomLabel", "?"))
-
-            add(label)
-            add(JButton(MyBundle.message("shuffle")).apply {
-                addActionListener {
-                    label.text = MyBundle.message("randomLabel", service.getRandomNumber())
-                }
-            })
-        }
+        val trackedFilesPanel = TrackedFilesPanel(project)
+        val trackedFilesContent = ContentFactory.getInstance().createContent(trackedFilesPanel, "Tracked Files", false)
+        trackedFilesContent.setDisposer(trackedFilesPanel)
+        toolWindow.contentManager.addContent(trackedFilesContent)
     }
+
+    override fun shouldBeAvailable(project: Project) = true
 }
@@ -0,0 +1,25 @@
+package com.github.lennypu.ideas2brain
+
+/**
+ * Timing support for the `*Benchmark` classes. Wall-clock assertions are too noisy for every build, so the
+ * `test` task leaves these classes out and `./gradlew benchmark` runs them on their own.
+ */
+object Benchmarks {
+
+    /**
+     * Runs a round a few times to warm up the JIT, then reports the fastest of the timed rounds,
+     * which keeps GC pauses and scheduling noise out of the comparison
+     *
+     * @return The duration of the fastest timed round in nanoseconds
+     */
+    fun bestNanos(warmupRounds: Int, rounds: Int, round: () -> Unit): Long {
+        repeat(warmupRounds) { round() }
+        var best = Long.MAX_VALUE
+        repeat(rounds) {
+            val start = System.nanoTime()
+            round()
+            best = minOf(best, System.nanoTime() - start)
+        }
+        return best
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.lennypu.ideas2brain
+
+import com.github.lennypu.ideas2brain.utils.JavaDoc2MarkDownUtil
+import junit.framework.TestCase
+import java.io.ByteArrayInputStream
+import java.nio.charset.StandardCharsets
+
+/**
+ * Checks the Markdown written for Javadoc tags, see [JavaDoc2MarkDownUtilBenchmark] for its speed
+ */
+class JavaDoc2MarkDownUtilTest : TestCase() {
+
+    fun testRendersTags() {
+        val markdown = convert(
+            """
+            /**
+             * Finds a note by <b>front</b> &amp; deck, see {@link AnkiConnectService#findNotes(String) the finder}.
+             * <p>
+             * Works with {@code Map<String, List<Integer>>} and {@link #other}.
+             * <pre>{@code
+             * if (x) {
+             *     run();
+             * }
+             * }</pre>
+             *
+             * @param front the front
+             *              with a | pipe
+             * @return the note, or {@code null}
+             * @throws IllegalStateException when it fails
+             */
+            public class Finder {
+            }
+            """.trimIndent()
+        )
+
+        val nl = System.lineSeparator()
+        assertEquals(
+            listOf(
+                "# Finder",
+                "Finds a note by **front** & deck, see `the finder`.",
+                "",
+                "Works with `Map<String, List<Integer>>` and `other`.",
+                "",
+                "```",
+                "if (x) {",
+                "    run();",
+                "}",
+                "```",
+                "",
+                "| Parameter | Description |",
+                "| --- | --- |",
+                "| `front` | the front with a \\| pipe |",
+                "",
+                "**Returns:** the note, or `null`",
+                "",
+                "| Exception | Description |",
+                "| --- | --- |",
+                "| `IllegalStateException` | when it fails |",
+                "",
+            ).joinToString(nl),
+            markdown
+        )
+    }
+
+    fun testKeepsGenericsAndLineComments() {
+        val markdown = convert(
+            """
+            public class Holder {
+                // Cached entries
+                /** Maps List<I> keys, see {@value #MAX} */
+                private int entries;
+            }
+            """.trimIndent()
+        )
+
+        assertTrue(markdown, markdown.contains("# entries"))
+        assertTrue(markdown, markdown.contains("Cached entries"))
+        assertTrue(markdown, markdown.contains("Maps List<I> keys, see `MAX`"))
+    }
+
+    private fun convert(source: String): String =
+        JavaDoc2MarkDownUtil.JavaFileStream2MarkDownString(ByteArrayInputStream(source.toByteArray(StandardCharsets.UTF_8)))
+}
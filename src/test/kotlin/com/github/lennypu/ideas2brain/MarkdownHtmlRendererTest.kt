@@ -0,0 +1,49 @@
+package com.github.lennypu.ideas2brain
+
+import com.github.lennypu.ideas2brain.utils.MarkdownHtmlRenderer
+import junit.framework.TestCase
+
+class MarkdownHtmlRendererTest : TestCase() {
+
+    fun testRendersConverterOutput() {
+        val markdown = listOf(
+            "# Finder",
+            "Finds a note by **front** & deck, see `the finder`.",
+            "",
+            "```",
+            "if (a < b) {",
+            "}",
+            "```",
+            "",
+            "| Parameter | Description |",
+            "| --- | --- |",
+            "| `front` | the *front* with a \\| pipe |",
+            "",
+            "- [docs](https://example.com/docs)",
+        ).joinToString("\n")
+
+        assertEquals(
+            "<h1>Finder</h1>" +
+                "<p>Finds a note by <b>front</b> &amp; deck, see <code>the finder</code>.</p>" +
+                "<pre><code>if (a &lt; b) {\n}</code></pre>" +
+                "<table><thead><tr><th>Parameter</th><th>Description</th></tr></thead>" +
+                "<tbody><tr><td><code>front</code></td><td>the <i>front</i> with a | pipe</td></tr></tbody></table>" +
+                "<ul><li><a href=\"https://example.com/docs\">docs</a></li></ul>",
+            MarkdownHtmlRenderer.render(markdown)
+        )
+    }
+
+    fun testSanitizes() {
+        val html = MarkdownHtmlRenderer.render("<script>alert(1)</script> [click](javascript:void) <img src=x onerror=y>")
+
+        assertFalse(html, html.contains("<script"))
+        assertFalse(html, html.contains("<img"))
+        assertFalse(html, html.contains("javascript:"))
+    }
+
+    fun testIdenticalMarkdownIsRenderedOnce() {
+        val markdown = "Cached **once** ${System.nanoTime()}"
+
+        assertSame(MarkdownHtmlRenderer.render(markdown), MarkdownHtmlRenderer.render(String(markdown.toCharArray())))
+    }
+}
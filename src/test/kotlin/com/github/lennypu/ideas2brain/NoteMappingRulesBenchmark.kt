@@ -0,0 +1,33 @@
+package com.github.lennypu.ideas2brain
+
+import com.github.lennypu.ideas2brain.utils.NoteMappingRules
+import junit.framework.TestCase
+
+/**
+ * Benchmarks that a large sync's worth of files maps in microseconds per file once the directories are memoized
+ */
+class NoteMappingRulesBenchmark : TestCase() {
+
+    fun testLargeSyncMapsInMicroseconds() {
+        val rules = NoteMappingRules.compile("strip */src/main/java\ndeck com/acme = Acme\ntag * = module::${'$'}1")
+        val files = (0 until FILES).map { "$BASE/module${it % 10}/src/main/java/com/acme/p${it % 2_000}/File$it.java" }
+
+        val nanos = Benchmarks.bestNanos(WARMUP_ROUNDS, ROUNDS) {
+            for (file in files) {
+                rules.getDeckName(BASE, file)
+                rules.getTags(BASE, file)
+            }
+        }
+        val nanosPerFile = nanos / FILES
+        assertTrue("$nanosPerFile ns per file", nanosPerFile < MAX_NANOS_PER_FILE)
+    }
+
+    companion object {
+        private const val BASE = "/work/project"
+        private const val FILES = 50_000
+        private const val WARMUP_ROUNDS = 2
+        private const val ROUNDS = 3
+        /** Generous for slow CI machines, deriving the path with the path API and regexes costs several times more */
+        private const val MAX_NANOS_PER_FILE = 20_000L
+    }
+}
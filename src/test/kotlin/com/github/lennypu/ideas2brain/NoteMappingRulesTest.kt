@@ -0,0 +1,58 @@
+package com.github.lennypu.ideas2brain
+
+import com.github.lennypu.ideas2brain.utils.NoteMappingRules
+import junit.framework.TestCase
+
+/**
+ * Checks deck and tag mapping with and without rules, see [NoteMappingRulesBenchmark] for its speed
+ */
+class NoteMappingRulesTest : TestCase() {
+
+    fun testWithoutRulesKeepsProjectRelativeDirectories() {
+        val rules = NoteMappingRules.empty("")
+
+        assertEquals("src::main::java::com::acme", rules.getDeckName(BASE, "$BASE/src/main/java/com/acme/Finder.java"))
+        assertEquals(listOf("src", "main", "java", "com", "acme", "Finder"), rules.getTags(BASE, "$BASE/src/main/java/com/acme/Finder.java"))
+        assertEquals("Default", rules.getDeckName(BASE, "$BASE/Root.java"))
+        assertEquals(listOf("Root"), rules.getTags(BASE, "$BASE/Root.java"))
+    }
+
+    fun testRules() {
+        val rules = NoteMappingRules.compile(
+            """
+            # Source roots
+            strip src/main/java
+            strip */src/main/java
+
+            deck com/acme = Acme
+            tag * = module::${'$'}1
+            """.trimIndent()
+        )
+
+        assertEquals("Acme::util", rules.getDeckName(BASE, "$BASE/app/src/main/java/com/acme/util/Strings.java"))
+        assertEquals(
+            listOf("com", "acme", "util", "module::app", "Strings"),
+            rules.getTags(BASE, "$BASE/app/src/main/java/com/acme/util/Strings.java")
+        )
+        // The deeper strip rule does not match, the shorter one does
+        assertEquals("Acme", rules.getDeckName(BASE, "$BASE/src/main/java/com/acme/Finder.java"))
+        // Nothing is left of the directory once it is stripped
+        assertEquals("Default", rules.getDeckName(BASE, "$BASE/src/main/java/Main.java"))
+        // No strip rule matches test sources
+        assertEquals("app::src::test::java::org", rules.getDeckName(BASE, "$BASE/app/src/test/java/org/FinderTest.java"))
+        assertEquals("Acme", rules.getDeckName("C:\\project", "C:\\project\\src\\main\\java\\com\\acme\\Finder.java"))
+    }
+
+    fun testInvalidRulesNameTheLine() {
+        try {
+            NoteMappingRules.compile("strip src\ndeck com/acme")
+            fail("Expected the deck rule without a name to be rejected")
+        } catch (e: IllegalArgumentException) {
+            assertTrue(e.message, e.message!!.startsWith("Line 2:"))
+        }
+    }
+
+    companion object {
+        private const val BASE = "/work/project"
+    }
+}
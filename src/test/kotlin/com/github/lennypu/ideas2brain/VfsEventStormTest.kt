@@ -0,0 +1,217 @@
+package com.github.lennypu.ideas2brain
+
+import com.github.lennypu.ideas2brain.listeners.FileChangeListener
+import com.github.lennypu.ideas2brain.services.AnkiConnectService
+import com.github.lennypu.ideas2brain.services.DatabaseFileStatusService
+import com.github.lennypu.ideas2brain.utils.SyncMetrics
+import com.google.gson.JsonArray
+import com.google.gson.JsonNull
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import com.intellij.openapi.application.WriteAction
+import com.intellij.openapi.vfs.VfsUtil
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.testFramework.PlatformTestUtil
+import com.intellij.testFramework.fixtures.BasePlatformTestCase
+import com.sun.net.httpserver.HttpServer
+import java.net.InetSocketAddress
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.atomic.AtomicInteger
+import junit.framework.TestCase
+
+/**
+ * Replays create, modify, rename, move and delete storms like those of a branch switch and fails when the
+ * listener's time per event, the database commits or the AnkiConnect calls of a storm exceed their limits.
+ * AnkiConnect is a local stand-in that answers every action and counts the requests.
+ */
+class VfsEventStormTest : BasePlatformTestCase() {
+
+    private lateinit var anki: AnkiStandIn
+    private lateinit var stormRoot: VirtualFile
+
+    override fun setUp() {
+        super.setUp()
+        anki = AnkiStandIn()
+        System.setProperty(AnkiConnectService.ENDPOINT_PROPERTY, anki.endpoint)
+        stormRoot = myFixture.tempDirFixture.findOrCreateDir("storm")
+    }
+
+    override fun tearDown() {
+        try {
+            System.clearProperty(AnkiConnectService.ENDPOINT_PROPERTY)
+            anki.stop()
+        } catch (e: Throwable) {
+            addSuppressedException(e)
+        } finally {
+            super.tearDown()
+        }
+    }
+
+    fun testEventStorms() {
+        val created = storm("create") {
+            for (d in 0 until DIRECTORIES) {
+                val dir = stormRoot.createChildDirectory(this, "d$d")
+                for (f in 0 until FILES_PER_DIRECTORY) {
+                    val file = dir.createChildData(this, "F$f.java")
+                    VfsUtil.saveText(file, "package d$d;\n\n/** Class $f */\npublic class F$f {\n}\n")
+                }
+            }
+        }
+        created.assertWithin(commits = 0, ankiCalls = 0)
+
+        // Every file is tracked and linked, so each storm below has database and Anki work to do
+        val files = stormRoot.children.flatMap { it.children.toList() }
+        assertEquals(DIRECTORIES * FILES_PER_DIRECTORY, files.size)
+        DatabaseFileStatusService.getInstance(project).linkNotes(
+            files.withIndex().associate { (index, file) -> file.path to (1_000_000L + index).toString() })
+
+        // The fixture's files live in memory, so they are changed through the VFS, each save being its own event batch
+        val modified = storm("modify") {
+            for (file in files) {
+                VfsUtil.saveText(file, VfsUtil.loadText(file) + "// changed\n")
+            }
+        }
+        // One transaction per batch, and no AnkiConnect calls until the next sync
+        modified.assertWithin(commits = files.size, ankiCalls = 0)
+
+        val renamedFiles = files.filterIndexed { index, _ -> index % 4 == 0 }
+        val renamed = storm("rename") {
+            for (file in renamedFiles) {
+                file.rename(this, "R" + file.name)
+            }
+        }
+        // One tag change per file, plus the front update of each renamed note
+        renamed.assertWithin(commits = renamedFiles.size, ankiCalls = 2 * renamedFiles.size)
+
+        val target = WriteAction.computeAndWait<VirtualFile, Throwable> { stormRoot.createChildDirectory(this, "moved") }
+        val movedDirectories = stormRoot.children.filter { it.name.startsWith("d") }.take(DIRECTORIES / 2)
+        val moved = storm("move") {
+            for (dir in movedDirectories) {
+                dir.move(this, target)
+            }
+        }
+        // A whole directory is one transaction and two requests, however many files it holds
+        moved.assertWithin(commits = movedDirectories.size, ankiCalls = 2 * movedDirectories.size)
+
+        val deletedDirectories = stormRoot.children.toList()
+        val deleted = storm("delete") {
+            for (dir in deletedDirectories) {
+                dir.delete(this)
+            }
+        }
+        deleted.assertWithin(commits = deletedDirectories.size, ankiCalls = deletedDirectories.size)
+    }
+
+    /**
+     * Runs a storm in one write action and collects its numbers once the background Anki updates are done
+     */
+    private fun storm(name: String, events: () -> Unit): StormStats {
+        val metrics = SyncMetrics.getInstance()
+        awaitAnkiIdle()
+        metrics.reset()
+        anki.requests.set(0)
+
+        WriteAction.runAndWait<Throwable> { events() }
+        awaitAnkiIdle()
+
+        return StormStats(
+            name,
+            metrics.getCounter(FileChangeListener.EVENTS_COUNTER),
+            metrics.getCounter(FileChangeListener.CALLBACK_NANOS_COUNTER),
+            metrics.getHistogram(SyncMetrics.Stage.DB).count,
+            metrics.getCounter(DatabaseFileStatusService.COMMITS_COUNTER),
+            anki.requests.get()
+        )
+    }
+
+    /**
+     * Waits until no AnkiConnect request arrived for a while, the listener sends them from background jobs
+     */
+    private fun awaitAnkiIdle() {
+        val deadline = System.currentTimeMillis() + 60_000
+        var last = -1
+        var stableSince = System.currentTimeMillis()
+        while (System.currentTimeMillis() < deadline) {
+            PlatformTestUtil.dispatchAllEventsInIdeEventQueue()
+            val current = anki.requests.get()
+            if (current != last) {
+                last = current
+                stableSince = System.currentTimeMillis()
+            } else if (System.currentTimeMillis() - stableSince > 500) {
+                return
+            }
+            Thread.sleep(20)
+        }
+        fail("AnkiConnect requests did not settle")
+    }
+
+    private data class StormStats(
+        val name: String,
+        val events: Long,
+        val callbackNanos: Long,
+        val dbStatements: Long,
+        val commits: Long,
+        val ankiCalls: Int,
+    ) {
+        val microsPerEvent: Long get() = if (events == 0L) 0 else callbackNanos / events / 1000
+
+        /**
+         * Checks the storm against its limits. A storm allowed commits or calls must also have made some,
+         * so a listener that silently stopped working cannot pass.
+         */
+        fun assertWithin(commits: Int, ankiCalls: Int) {
+            TestCase.assertTrue("$name: no events reached the listener", events > 0)
+            TestCase.assertTrue("$name: $microsPerEvent us per event", microsPerEvent <= MAX_MICROS_PER_EVENT)
+            TestCase.assertTrue("$name: $commits commits allowed, was ${this.commits}", this.commits <= commits)
+            TestCase.assertTrue("$name: expected database commits", commits == 0 || this.commits > 0)
+            // Writes plus the status reads of background jobs, such as the recorded modification times
+            TestCase.assertTrue("$name: $dbStatements database statements", dbStatements <= 2L * commits + DIRECTORIES)
+            TestCase.assertTrue("$name: $ankiCalls AnkiConnect calls allowed, was ${this.ankiCalls}", this.ankiCalls <= ankiCalls)
+            TestCase.assertTrue("$name: expected AnkiConnect calls", ankiCalls == 0 || this.ankiCalls > 0)
+        }
+    }
+
+    /**
+     * Answers every AnkiConnect action with an empty result, so the plugin's requests succeed without Anki
+     */
+    private class AnkiStandIn {
+        val requests = AtomicInteger()
+        private val server: HttpServer = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+
+        init {
+            server.createContext("/") { exchange ->
+                requests.incrementAndGet()
+                val request = JsonParser.parseString(String(exchange.requestBody.readAllBytes(), StandardCharsets.UTF_8)).asJsonObject
+                val response = JsonObject()
+                response.add("result", resultOf(request))
+                response.add("error", JsonNull.INSTANCE)
+                val body = response.toString().toByteArray(StandardCharsets.UTF_8)
+                exchange.sendResponseHeaders(200, body.size.toLong())
+                exchange.responseBody.use { it.write(body) }
+            }
+            server.start()
+        }
+
+        val endpoint: String get() = "http://127.0.0.1:${server.address.port}"
+
+        fun stop() = server.stop(0)
+
+        private fun resultOf(request: JsonObject) = when (request.get("action").asString) {
+            "version" -> JsonParser.parseString("6")
+            "multi" -> JsonArray().apply {
+                repeat(request.getAsJsonObject("params").getAsJsonArray("actions").size()) {
+                    add(JsonObject().apply { add("result", JsonNull.INSTANCE); add("error", JsonNull.INSTANCE) })
+                }
+            }
+            "notesModTime", "findNotes", "findCards" -> JsonArray()
+            else -> JsonNull.INSTANCE
+        }
+    }
+
+    companion object {
+        private const val DIRECTORIES = 20
+        private const val FILES_PER_DIRECTORY = 100
+        /** Generous for slow CI machines, a regression to per-file round trips costs milliseconds */
+        private const val MAX_MICROS_PER_EVENT = 2_000L
+    }
+}